@@ -12,9 +12,11 @@ import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import stockmarket.StockInfo;
 import stockmarket.Timespan;
@@ -28,7 +30,14 @@ public class AlphaVantage implements StocksAPI {
   //TODO: make field private, fix all dependencies
   //the list of histories of stock price
   private final static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-  public final static Map<String, List<StockInfo>> STOCK_PRICE_HISTORY = new HashMap<>();
+  //concurrent, since price histories are prefetched on several threads at once
+  public final static Map<String, List<StockInfo>> STOCK_PRICE_HISTORY =
+          new ConcurrentHashMap<>();
+  //the data version of each stock's price history, changes whenever the history is (re)loaded
+  private final static Map<String, Integer> DATA_VERSIONS = new ConcurrentHashMap<>();
+  //the price histories being read, so threads asking for the same ticker wait for one read
+  private final static Map<String, CompletableFuture<List<StockInfo>>> LOADING =
+          new ConcurrentHashMap<>();
 
   /**
    * Gets the list of stock information given the ticker value. If stock information
@@ -42,11 +51,31 @@ public class AlphaVantage implements StocksAPI {
     //validates if the ticker follows proper syntax
     Utils.validTicker(ticker);
     //gets the stock
-    if (STOCK_PRICE_HISTORY.containsKey(ticker)) {
-      return STOCK_PRICE_HISTORY.get(ticker);
-    } else {
-      return addStock(ticker);
-    }
+    List<StockInfo> history = STOCK_PRICE_HISTORY.get(ticker);
+    return history != null ? history : addStock(ticker);
+  }
+
+  /**
+   * Reloads the list of stock information for the given ticker from the local CSV file or API,
+   * replacing any stored history, and changes the data version of the ticker so that results
+   * computed from the old history can be recognized as stale.
+   * @param ticker the identifying letters of a particular stock
+   * @return the reloaded list of stock information of the given stock
+   */
+  public static List<StockInfo> refreshStock(String ticker) {
+    Utils.validTicker(ticker);
+    STOCK_PRICE_HISTORY.remove(ticker);
+    return addStock(ticker);
+  }
+
+  /**
+   * Gets the data version of the stored price history of the given ticker. The version changes
+   * every time the history is loaded or refreshed.
+   * @param ticker the identifying letters of a particular stock
+   * @return the data version, or 0 if the history has never been loaded
+   */
+  public static int getDataVersion(String ticker) {
+    return DATA_VERSIONS.getOrDefault(ticker, 0);
   }
 
   /**
@@ -61,11 +90,8 @@ public class AlphaVantage implements StocksAPI {
     List<StockInfo> stockInfo = null;
     LocalDate currDate = date;
 
-    //gets the stock information if doesn't exists in the data
-    if (!STOCK_PRICE_HISTORY.containsKey(ticker)) {
-      AlphaVantage.getStock(ticker);
-    }
-    stockInfo = STOCK_PRICE_HISTORY.get(ticker);
+    //gets the stock information, loading it if it doesn't exist in the data
+    stockInfo = AlphaVantage.getStock(ticker);
     LocalDate min = Utils.minMaxDate(stockInfo, true);
     LocalDate max = Utils.minMaxDate(stockInfo, false);
 
@@ -95,11 +121,49 @@ public class AlphaVantage implements StocksAPI {
 
   /**
    * Adds the list of stock price information for the given ticker from a local CSV file or API.
+   * A ticker is only loaded once even if several threads ask for it at the same time: the first
+   * registers a future for it and reads the file or API without holding any lock, and the others
+   * wait on the future. Loads of different tickers never wait for each other.
    *
    * @param ticker the stock ticker symbol to get information for
    * @return the list of StockInfo objects for the given ticker
    */
   private static List<StockInfo> addStock(String ticker) {
+    CompletableFuture<List<StockInfo>> load = new CompletableFuture<>();
+    CompletableFuture<List<StockInfo>> existing = LOADING.putIfAbsent(ticker, load);
+    if (existing != null) {
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+    try {
+      //another thread may have finished loading it since it was looked up
+      List<StockInfo> stocksList = STOCK_PRICE_HISTORY.get(ticker);
+      if (stocksList == null) {
+        stocksList = readStock(ticker);
+        DATA_VERSIONS.merge(ticker, 1, Integer::sum);
+        STOCK_PRICE_HISTORY.put(ticker, stocksList);
+      }
+      load.complete(stocksList);
+      return stocksList;
+    } catch (RuntimeException | Error e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      LOADING.remove(ticker, load);
+    }
+  }
+
+  /**
+   * Reads the list of stock price information for the given ticker from a local CSV file, or
+   * from the API if there is none.
+   *
+   * @param ticker the stock ticker symbol to get information for
+   * @return the list of StockInfo objects for the given ticker
+   */
+  private static List<StockInfo> readStock(String ticker) {
     List<StockInfo> stocksList = new ArrayList<>();
     String filePath = "src/data/" + ticker + ".csv";
     Path path = Paths.get(filePath);
@@ -132,8 +196,6 @@ public class AlphaVantage implements StocksAPI {
       stocksList = getAPIStockData(ticker);
     }
 
-    // Add the fetched stock prices to the map
-    STOCK_PRICE_HISTORY.put(ticker, stocksList);
     return stocksList;
   }
 
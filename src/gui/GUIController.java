@@ -3,7 +3,10 @@ package gui;
 import java.io.File;
 import java.util.Map;
 
+import javax.swing.SwingUtilities;
+
 import stockmarket.Model;
+import stockmarket.PortfolioFormat;
 
 /**
  * The JFrameView class extends JFrame and implements the GUIView interface.
@@ -98,15 +101,24 @@ public class GUIController implements GUIFeatures {
   @Override
   public void savePortfolio(String portfolioName, String filePath) {
     String fileName = new File(filePath).getName();
+    //files chosen with the binary extension are saved in the binary format
+    PortfolioFormat format = PortfolioFormat.ofFileName(fileName);
+    fileName = PortfolioFormat.stripExtension(fileName);
 
-    if (fileName.endsWith(".xml")) {
-      fileName = fileName.substring(0, fileName.length() - 4);
-    }
+    String savedName = fileName;
 
     try {
-      model.savePortfolio(portfolioName, fileName);
-      view.showMessage("Portfolio '" + portfolioName + "' saved successfully to file '"
-              + fileName + "'.");
+      //the file is written in the background, and the message shown on the event thread after
+      model.savePortfolioAsync(portfolioName, fileName, format).whenComplete((done, error) ->
+              SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                  view.showMessage("Portfolio '" + portfolioName + "' saved successfully to file '"
+                          + savedName + "'.");
+                } else {
+                  Throwable cause = error.getCause() == null ? error : error.getCause();
+                  view.showMessage(cause.getMessage());
+                }
+              }));
     } catch (Exception e) {
       view.showMessage(e.getMessage());
     }
@@ -114,12 +126,9 @@ public class GUIController implements GUIFeatures {
 
   @Override
   public void loadPortfolio(String filePath) {
+    //the extension is kept, so the model loads the chosen file rather than the newer format
     String fileName = new File(filePath).getName();
 
-    if (fileName.endsWith(".xml")) {
-      fileName = fileName.substring(0, fileName.length() - 4);
-    }
-
     try {
       model.loadPortfolio(fileName);
       view.showMessage("File '" + fileName + "' loaded successfully.");
@@ -74,8 +74,9 @@ public interface GUIFeatures {
   void getPortfolioComposition(String portfolioName, String date);
 
   /**
-   * This method calls the savePortfolio method in the model to save a portfolio to an XML file.
-   * If the portfolio was successfully saved, then a message indicating success with show.
+   * This method calls the savePortfolioAsync method in the model to save a portfolio to an XML
+   * or binary file in the background, so the window doesn't wait for the disk.
+   * Once the portfolio was successfully saved, then a message indicating success with show.
    * Otherwise, a message will explain the reason why portfolio could not be saved
    * (portfolio doesn't exist, file name already exists, etc.).
    * @param portfolioName the name of the portfolio being saved
@@ -114,11 +114,11 @@ public class JFrameView extends JFrame implements GUIView {
     add(tabbedPane);
 
     fileSaveChooser = new JFileChooser();
-    fileSaveChooser.setFileFilter(new FileNameExtensionFilter("XML files",
-            "xml"));
+    fileSaveChooser.setFileFilter(new FileNameExtensionFilter("Portfolio files (XML, binary)",
+            "xml", "spf"));
     fileLoadChooser = new JFileChooser();
-    fileLoadChooser.setFileFilter(new FileNameExtensionFilter("XML files",
-            "xml"));
+    fileLoadChooser.setFileFilter(new FileNameExtensionFilter("Portfolio files (XML, binary)",
+            "xml", "spf"));
 
     pack();
     setVisible(true);
@@ -0,0 +1,169 @@
+package stockmarket;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+import data.AlphaVantage;
+
+/**
+ * Represents a bounded cache of stock analytics results (gain/loss, moving averages and
+ * crossovers). Each result is keyed by the operation, ticker, parameters and date range, and is
+ * tagged with the data version of the ticker's price history it was computed from. When a ticker's
+ * price history is refreshed its data version changes, so older results are treated as misses and
+ * recomputed. Once the cache is full the least recently used result is evicted.
+ */
+public class AnalyticsCache {
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final int capacity;
+  private final LinkedHashMap<String, CachedResult> results;
+  private long hits;
+  private long misses;
+
+  /**
+   * Constructs an analytics cache that holds at most the given number of results.
+   *
+   * @param capacity the maximum number of results to keep
+   * @throws IllegalArgumentException if capacity is not positive
+   */
+  public AnalyticsCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive.");
+    }
+    this.capacity = capacity;
+    //access ordered so the eldest entry is always the least recently used
+    this.results = new LinkedHashMap<>(16, 0.75f, true);
+    this.hits = 0;
+    this.misses = 0;
+  }
+
+  /**
+   * Constructs an analytics cache with the default capacity.
+   */
+  public AnalyticsCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Gets the cached result of an operation, computing and storing it if it is missing or was
+   * computed from an older version of the ticker's price history. Results that fail to compute
+   * are not stored.
+   *
+   * @param operation  the name of the analytics operation
+   * @param ticker     the stock ticker symbol the operation reads
+   * @param compute    computes the result on a miss
+   * @param parameters the parameters and date range of the operation
+   * @param <T>        the type of the result
+   * @return the cached or newly computed result
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(String operation, String ticker, Supplier<T> compute, Object... parameters) {
+    String key = key(operation, ticker, parameters);
+    int dataVersion = AlphaVantage.getDataVersion(ticker);
+
+    synchronized (this) {
+      CachedResult cached = results.get(key);
+      if (cached != null && cached.dataVersion == dataVersion) {
+        hits++;
+        return (T) cached.value;
+      }
+      misses++;
+    }
+
+    //computed outside the lock so slow queries don't block other lookups
+    T value = compute.get();
+
+    //the history may have been loaded for the first time, or refreshed, while computing
+    int computedVersion = AlphaVantage.getDataVersion(ticker);
+    if (dataVersion != 0 && computedVersion != dataVersion) {
+      return value;
+    }
+
+    synchronized (this) {
+      results.put(key, new CachedResult(ticker, computedVersion, value));
+      if (results.size() > capacity) {
+        Iterator<String> eldest = results.keySet().iterator();
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Removes every cached result computed from the given ticker's price history.
+   *
+   * @param ticker the stock ticker symbol
+   */
+  public synchronized void invalidate(String ticker) {
+    results.values().removeIf(result -> result.ticker.equals(ticker));
+  }
+
+  /**
+   * Removes every cached result and resets the hit and miss counts.
+   */
+  public synchronized void clear() {
+    results.clear();
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * Gets the number of results currently cached.
+   * @return the number of cached results
+   */
+  public synchronized int size() {
+    return results.size();
+  }
+
+  /**
+   * Gets the number of lookups answered from the cache.
+   * @return the number of hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gets the number of lookups that had to be computed.
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets the fraction of lookups answered from the cache.
+   * @return the hit rate between 0 and 1, or 0 if nothing has been looked up yet
+   */
+  public synchronized double getHitRate() {
+    long total = hits + misses;
+    if (total == 0) {
+      return 0.0;
+    }
+    return (double) hits / total;
+  }
+
+  //builds the lookup key from the operation, ticker and parameters
+  private static String key(String operation, String ticker, Object... parameters) {
+    StringBuilder key = new StringBuilder(operation).append('|').append(ticker);
+    for (Object parameter : parameters) {
+      key.append('|').append(parameter);
+    }
+    return key.toString();
+  }
+
+  //a cached result along with the ticker and data version it was computed from
+  private static class CachedResult {
+    private final String ticker;
+    private final int dataVersion;
+    private final Object value;
+
+    private CachedResult(String ticker, int dataVersion, Object value) {
+      this.ticker = ticker;
+      this.dataVersion = dataVersion;
+      this.value = value;
+    }
+  }
+}
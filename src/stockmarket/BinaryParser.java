@@ -0,0 +1,391 @@
+package stockmarket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class provides methods to convert a Portfolio object to a compact binary form and back.
+ *
+ * <p>A file starts with a header that is never compressed: the magic number "SPF\0", a version
+ * byte and a flags byte, whose lowest bit says the rest of the file is deflated. The body is:
+ * <ul>
+ *   <li>the portfolio name and latest date</li>
+ *   <li>a table of every ticker symbol used, after which symbols are referred to by index</li>
+ *   <li>the stocks, each a symbol index, a share count and the date added</li>
+ *   <li>the recurring plans, each with its fields and its weights as symbol indexes</li>
+ *   <li>since version 2, the tax lots: the lot method, the gain recorded, the lots held and the
+ *   sales out of lots that don't know their price, each lot a symbol index, a share count, the
+ *   purchase date and the price, NaN when it isn't known</li>
+ *   <li>since version 3, the trades in date order, each a symbol index, a share count, the date
+ *   and a byte that is 1 for a purchase, so the holdings on past dates are kept</li>
+ * </ul>
+ * Counts, indexes and whole numbers are unsigned varints, 7 bits a byte. Dates are varints of the
+ * epoch day, 0 meaning no date. Share counts and amounts are fixed-point with four decimal places
+ * when that is exact, so whole and simple fractional shares take a byte or two; any other value
+ * is kept as a raw double so nothing is ever rounded.
+ */
+public class BinaryParser {
+  private static final int MAGIC = 0x53504600;
+  private static final int VERSION = 3;
+  private static final int FLAG_DEFLATED = 1;
+  //fixed-point numbers are stored in ten-thousandths
+  private static final double SCALE = 10_000;
+  //doubles represent every whole number up to here exactly
+  private static final double MAX_EXACT = 1L << 53;
+
+  /**
+   * Writes a portfolio in the binary format to a stream. The stream is flushed but not closed.
+   * @param portfolio the portfolio to write
+   * @param out the stream to write to
+   * @param compress true to deflate the body of the file
+   * @throws IOException if the portfolio can't be written
+   */
+  public static void write(Portfolio portfolio, OutputStream out, boolean compress)
+          throws IOException {
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(MAGIC);
+    header.writeByte(VERSION);
+    header.writeByte(compress ? FLAG_DEFLATED : 0);
+    header.flush();
+
+    Deflater deflater = compress ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+    try {
+      DeflaterOutputStream deflated = compress ? new DeflaterOutputStream(out, deflater) : null;
+      DataOutputStream body = new DataOutputStream(new BufferedOutputStream(
+              compress ? deflated : out));
+      writeBody(portfolio, body);
+      body.flush();
+      if (compress) {
+        deflated.finish();
+      }
+      out.flush();
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Reads a portfolio in the binary format from a stream. The stream is not closed.
+   * @param in the stream to read from
+   * @return the portfolio
+   * @throws IOException if the stream isn't a portfolio in a supported version of the format
+   */
+  public static Portfolio read(InputStream in) throws IOException {
+    DataInputStream header = new DataInputStream(in);
+    if (header.readInt() != MAGIC) {
+      throw new IOException("Not a binary portfolio file.");
+    }
+    int version = header.readUnsignedByte();
+    if (version > VERSION) {
+      throw new IOException("Unsupported binary portfolio version " + version + ".");
+    }
+    boolean compressed = (header.readUnsignedByte() & FLAG_DEFLATED) != 0;
+
+    Inflater inflater = compressed ? new Inflater() : null;
+    try {
+      InputStream source = compressed ? new InflaterInputStream(in, inflater) : in;
+      return readBody(new DataInputStream(new BufferedInputStream(source)), version);
+    } catch (IllegalArgumentException | DateTimeException e) {
+      throw new IOException("Invalid binary portfolio: " + e.getMessage(), e);
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Checks if a stream starts with the magic number of the binary format. The stream must
+   * support mark and reset, and is left where it was.
+   * @param in the stream to check
+   * @return true if the stream holds a binary portfolio
+   * @throws IOException if the stream can't be read
+   */
+  public static boolean isBinary(InputStream in) throws IOException {
+    in.mark(4);
+    try {
+      return new DataInputStream(in).readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.reset();
+    }
+  }
+
+  private static void writeBody(Portfolio portfolio, DataOutputStream out) throws IOException {
+    writeString(out, portfolio.getName());
+    writeDate(out, portfolio.getLatestDate());
+
+    //every ticker is written once, then referred to by its index
+    List<Stock> stocks = portfolio.getStocks();
+    List<RecurringPlan> plans = portfolio.getRecurringPlans();
+    Map<String, Integer> symbols = new LinkedHashMap<>();
+    for (Stock stock : stocks) {
+      symbols.putIfAbsent(stock.getTicker(), symbols.size());
+    }
+    for (RecurringPlan plan : plans) {
+      for (String ticker : plan.getWeights().keySet()) {
+        symbols.putIfAbsent(ticker, symbols.size());
+      }
+    }
+    //stocks sold out of lots without a price or traded in the past may no longer be held
+    TaxLots lots = portfolio.getTaxLots();
+    for (Lot sold : lots.getUnpricedSales()) {
+      symbols.putIfAbsent(sold.getTicker(), symbols.size());
+    }
+    List<Trade> trades = portfolio.getTrades();
+    for (Trade trade : trades) {
+      symbols.putIfAbsent(trade.getTicker(), symbols.size());
+    }
+    writeVarLong(out, symbols.size());
+    for (String ticker : symbols.keySet()) {
+      writeString(out, ticker);
+    }
+
+    writeVarLong(out, stocks.size());
+    for (Stock stock : stocks) {
+      writeVarLong(out, symbols.get(stock.getTicker()));
+      writeNumber(out, stock.getShares());
+      writeDate(out, stock.getDateAdded());
+    }
+
+    writeVarLong(out, plans.size());
+    for (RecurringPlan plan : plans) {
+      writeString(out, plan.getName());
+      writeNumber(out, plan.getAmount());
+      writeVarLong(out, plan.getIntervalDays());
+      writeDate(out, plan.getStartDate());
+      writeDate(out, plan.getEndDate());
+      writeDate(out, plan.getNextDate());
+      writeVarLong(out, plan.getWeights().size());
+      for (Map.Entry<String, Integer> weight : plan.getWeights().entrySet()) {
+        writeVarLong(out, symbols.get(weight.getKey()));
+        writeVarLong(out, weight.getValue());
+      }
+    }
+
+    writeVarLong(out, lots.getMethod().ordinal());
+    writeNumber(out, lots.getRecordedGain());
+    int lotCount = 0;
+    for (List<Lot> queue : lots.getLots().values()) {
+      lotCount += queue.size();
+    }
+    writeVarLong(out, lotCount);
+    for (List<Lot> queue : lots.getLots().values()) {
+      for (Lot lot : queue) {
+        writeLot(out, lot, symbols);
+      }
+    }
+    writeVarLong(out, lots.getUnpricedSales().size());
+    for (Lot sold : lots.getUnpricedSales()) {
+      writeLot(out, sold, symbols);
+    }
+
+    writeVarLong(out, trades.size());
+    for (Trade trade : trades) {
+      writeVarLong(out, symbols.get(trade.getTicker()));
+      writeNumber(out, trade.getShares());
+      writeDate(out, trade.getDate());
+      out.writeByte(trade.isAdding() ? 1 : 0);
+    }
+  }
+
+  private static Portfolio readBody(DataInputStream in, int version) throws IOException {
+    String portfolioName = readString(in);
+    //as with XML, a loaded portfolio starts with its latest date unset
+    readDate(in);
+
+    int symbolCount = readCount(in);
+    List<String> symbols = new ArrayList<>();
+    for (int i = 0; i < symbolCount; i++) {
+      symbols.add(readString(in));
+    }
+
+    int stockCount = readCount(in);
+    List<Stock> stocks = new ArrayList<>();
+    for (int i = 0; i < stockCount; i++) {
+      String ticker = readSymbol(in, symbols);
+      double shares = readNumber(in);
+      stocks.add(Stock.saved(ticker, shares, readDate(in)));
+    }
+
+    Portfolio.PortfolioBuilder builder = new Portfolio.PortfolioBuilder().name(portfolioName)
+            .addAllStock(stocks);
+    int planCount = readCount(in);
+    for (int i = 0; i < planCount; i++) {
+      String planName = readString(in);
+      double amount = readNumber(in);
+      int intervalDays = readCount(in);
+      String startDate = readDate(in);
+      String endDate = readDate(in);
+      String nextDate = readDate(in);
+      int weightCount = readCount(in);
+      Map<String, Integer> weights = new LinkedHashMap<>();
+      for (int j = 0; j < weightCount; j++) {
+        String ticker = readSymbol(in, symbols);
+        weights.put(ticker, readCount(in));
+      }
+      builder.addPlan(new RecurringPlan(planName, amount, weights, intervalDays, startDate,
+              endDate, nextDate));
+    }
+
+    //version 1 files have no tax lots, so the portfolio starts with lots without a price
+    if (version >= 2) {
+      int methodIndex = readCount(in);
+      if (methodIndex >= LotMethod.values().length) {
+        throw new IOException("Invalid binary portfolio: unknown lot method " + methodIndex
+                + ".");
+      }
+      double recordedGain = readNumber(in);
+      List<Lot> held = readLots(in, symbols);
+      List<Lot> unpricedSales = readLots(in, symbols);
+      builder.lots(TaxLots.restore(held, unpricedSales, recordedGain,
+              LotMethod.values()[methodIndex]));
+    }
+
+    //before version 3 only the last trade date of each stock is known
+    if (version >= 3) {
+      int tradeCount = readCount(in);
+      List<Trade> trades = new ArrayList<>();
+      for (int i = 0; i < tradeCount; i++) {
+        String ticker = readSymbol(in, symbols);
+        double shares = readNumber(in);
+        String date = readDate(in);
+        trades.add(new Trade(ticker, shares, date, in.readUnsignedByte() == 1));
+      }
+      builder.trades(trades);
+    }
+    return builder.build();
+  }
+
+  private static void writeLot(DataOutputStream out, Lot lot, Map<String, Integer> symbols)
+          throws IOException {
+    writeVarLong(out, symbols.get(lot.getTicker()));
+    writeNumber(out, lot.getShares());
+    writeDate(out, lot.getDate());
+    writeNumber(out, lot.isPriced() ? lot.getPrice() : Double.NaN);
+  }
+
+  private static List<Lot> readLots(DataInputStream in, List<String> symbols)
+          throws IOException {
+    int count = readCount(in);
+    List<Lot> lots = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String ticker = readSymbol(in, symbols);
+      double shares = readNumber(in);
+      String date = readDate(in);
+      lots.add(new Lot(ticker, shares, date, readNumber(in)));
+    }
+    return lots;
+  }
+
+  //writes a number as fixed-point with its lowest bit clear, or a set bit then the raw double
+  private static void writeNumber(DataOutputStream out, double value) throws IOException {
+    double units = value * SCALE;
+    if (units == Math.rint(units) && Math.abs(units) < MAX_EXACT && units / SCALE == value) {
+      long fixed = (long) units;
+      //zigzag encoding keeps small negative numbers small
+      writeVarLong(out, ((fixed << 1) ^ (fixed >> 63)) << 1);
+    } else {
+      writeVarLong(out, 1);
+      out.writeDouble(value);
+    }
+  }
+
+  private static double readNumber(DataInputStream in) throws IOException {
+    long tag = readVarLong(in);
+    if ((tag & 1) != 0) {
+      return in.readDouble();
+    }
+    long zigzag = tag >>> 1;
+    long fixed = (zigzag >>> 1) ^ -(zigzag & 1);
+    return fixed / SCALE;
+  }
+
+  //writes a date as its epoch day plus one, so that 0 can mean no date
+  private static void writeDate(DataOutputStream out, String date) throws IOException {
+    if (date == null || date.isEmpty()) {
+      writeVarLong(out, 0);
+      return;
+    }
+    long epochDay = LocalDate.parse(date).toEpochDay();
+    writeVarLong(out, ((epochDay << 1) ^ (epochDay >> 63)) + 1);
+  }
+
+  private static String readDate(DataInputStream in) throws IOException {
+    long stored = readVarLong(in);
+    if (stored == 0) {
+      return "";
+    }
+    long zigzag = stored - 1;
+    return LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1)).toString();
+  }
+
+  private static void writeString(DataOutputStream out, String text) throws IOException {
+    byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readCount(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String readSymbol(DataInputStream in, List<String> symbols) throws IOException {
+    int index = readCount(in);
+    if (index >= symbols.size()) {
+      throw new IOException("Invalid binary portfolio: unknown symbol " + index + ".");
+    }
+    return symbols.get(index);
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid binary portfolio: varint is too long.");
+  }
+
+  //reads a varint that has to fit in an int, such as a count or an index
+  private static int readCount(DataInputStream in) throws IOException {
+    long value = readVarLong(in);
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException("Invalid binary portfolio: count " + value + " is too large.");
+    }
+    return (int) value;
+  }
+}
@@ -0,0 +1,451 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Represents the stocks held in a portfolio, keyed by ticker symbol. Stocks are stored in two
+ * persistent tries of 32-way nodes: a hash trie keyed by ticker to find a stock, and a trie keyed
+ * by the order each stock was added in, so iterating gives the stocks in the order they were
+ * first added and updating a stock keeps its place. Finding, updating and removing a stock take a
+ * few steps no matter how many stocks are held.
+ *
+ * <p>The tries are never changed in place. A change copies only the nodes on the path to the
+ * stock changed and shares every other node, so copying holdings takes constant time, many
+ * copies can be kept cheaply, and comparing a copy with the holdings it came from only looks
+ * at the nodes that differ.
+ */
+public class Holdings implements Iterable<Stock> {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  //ticker hash trie: each slot is null, an Entry, a child Object[], or an Entry[] of collisions
+  private Object[] index;
+  //order trie: slots are entries by the order they were added, or null once removed
+  private Object[] order;
+  private int orderShift;
+  private int orderSize;
+  private int size;
+
+  /**
+   * Constructs an empty set of holdings.
+   */
+  public Holdings() {
+    this.index = null;
+    this.order = new Object[WIDTH];
+    this.orderShift = 0;
+    this.orderSize = 0;
+    this.size = 0;
+  }
+
+  /**
+   * Constructs holdings from a list of stocks, in the order of the list.
+   *
+   * @param stocks the stocks to hold
+   */
+  public Holdings(List<Stock> stocks) {
+    this();
+    for (Stock stock : stocks) {
+      put(stock);
+    }
+  }
+
+  //constructs holdings that share the tries of the given holdings
+  private Holdings(Holdings other) {
+    this.index = other.index;
+    this.order = other.order;
+    this.orderShift = other.orderShift;
+    this.orderSize = other.orderSize;
+    this.size = other.size;
+  }
+
+  /**
+   * Copies the holdings, so changes to the copy don't affect these holdings. The copy shares
+   * the tries with these holdings, so copying takes constant time, and each change afterwards
+   * copies only the nodes it touches.
+   *
+   * @return a copy of the holdings
+   */
+  public Holdings copy() {
+    return new Holdings(this);
+  }
+
+  /**
+   * Gets the stock with the given ticker symbol.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the stock, or null if it isn't held
+   */
+  public Stock get(String ticker) {
+    Entry entry = find(ticker);
+    return entry == null ? null : entry.stock;
+  }
+
+  /**
+   * Checks if a stock with the given ticker symbol is held.
+   *
+   * @param ticker the stock ticker symbol
+   * @return true if the stock is held
+   */
+  public boolean contains(String ticker) {
+    return find(ticker) != null;
+  }
+
+  /**
+   * Adds a stock, or replaces the stock with the same ticker symbol while keeping its place in
+   * the insertion order.
+   *
+   * @param stock the stock to add or replace
+   */
+  public void put(Stock stock) {
+    Entry existing = find(stock.getTicker());
+    int position;
+    if (existing != null) {
+      position = existing.position;
+    } else {
+      if (orderSize == 1 << (orderShift + BITS)) {
+        //the order trie is full, so it grows a level
+        Object[] root = new Object[WIDTH];
+        root[0] = order;
+        order = root;
+        orderShift += BITS;
+      }
+      position = orderSize++;
+      size++;
+    }
+    Entry entry = new Entry(stock, position);
+    index = indexPut(index, hash(stock.getTicker()), 0, entry);
+    order = orderSet(order, orderShift, position, entry);
+  }
+
+  /**
+   * Removes the stock with the given ticker symbol.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the removed stock, or null if it wasn't held
+   */
+  public Stock remove(String ticker) {
+    Entry entry = find(ticker);
+    if (entry == null) {
+      return null;
+    }
+    index = indexRemove(index, hash(ticker), 0, ticker);
+    order = orderSet(order, orderShift, entry.position, null);
+    size--;
+    //renumbers the stocks once most of the order trie is removed slots
+    if (orderSize > WIDTH && orderSize - size > size) {
+      compact();
+    }
+    return entry.stock;
+  }
+
+  /**
+   * Gets the number of stocks held.
+   * @return the number of stocks
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Checks if no stocks are held.
+   * @return true if there are no stocks
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the first stock added that is still held.
+   * @return the first stock, or null if there are none
+   */
+  public Stock first() {
+    Iterator<Stock> stocks = iterator();
+    return stocks.hasNext() ? stocks.next() : null;
+  }
+
+  /**
+   * Gets the stocks held in insertion order.
+   * @return an unmodifiable list of the stocks
+   */
+  public List<Stock> toList() {
+    List<Stock> list = new ArrayList<>(size);
+    for (Stock stock : this) {
+      list.add(stock);
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  /**
+   * Finds the stocks that differ between these holdings and other holdings: stocks held in only
+   * one of them, or held in both with different shares or dates. Nodes the two share are
+   * skipped, so comparing holdings with a recent copy of them takes time proportional to the
+   * changes made since, not to the number of stocks.
+   *
+   * @param other the holdings to compare with
+   * @return the tickers of the stocks that differ, in alphabetical order
+   */
+  public Set<String> changedTickers(Holdings other) {
+    Set<String> changed = new TreeSet<>();
+    diff(index, other.index, changed);
+    return changed;
+  }
+
+  /**
+   * Iterates over the stocks held in insertion order, as they were when the iterator was made.
+   * @return an iterator over the stocks
+   */
+  @Override
+  public Iterator<Stock> iterator() {
+    return new Iterator<Stock>() {
+      private final Object[] root = order;
+      private final int shift = orderShift;
+      private final int end = orderSize;
+      //the leaf of the order trie holding the current position
+      private Object[] leaf;
+      private int position = advance(0);
+
+      //finds the next position at or after start that holds a stock
+      private int advance(int start) {
+        for (int next = start; next < end; next++) {
+          if (leaf == null || (next & MASK) == 0) {
+            leaf = leafFor(root, shift, next);
+          }
+          if (leaf[next & MASK] != null) {
+            return next;
+          }
+        }
+        return end;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return position < end;
+      }
+
+      @Override
+      public Stock next() {
+        if (position >= end) {
+          throw new NoSuchElementException();
+        }
+        Stock stock = ((Entry) leaf[position & MASK]).stock;
+        position = advance(position + 1);
+        return stock;
+      }
+    };
+  }
+
+  /**
+   * Overrides the equals method so holdings with equal stocks in the same order are equal.
+   * @param o any object
+   * @return whether a given object is equal to these holdings
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Holdings)) {
+      return false;
+    }
+    return toList().equals(((Holdings) o).toList());
+  }
+
+  /**
+   * Overrides the hashcode so equal holdings have equal hash codes.
+   * @return an integer of the hash code
+   */
+  @Override
+  public int hashCode() {
+    return toList().hashCode();
+  }
+
+  //finds the entry of the ticker in the hash trie, or null
+  private Entry find(String ticker) {
+    int hash = hash(ticker);
+    Object[] node = index;
+    int shift = 0;
+    while (node != null) {
+      Object slot = node[(hash >>> shift) & MASK];
+      if (slot instanceof Entry) {
+        Entry entry = (Entry) slot;
+        return entry.ticker.equals(ticker) ? entry : null;
+      }
+      if (slot instanceof Entry[]) {
+        for (Entry entry : (Entry[]) slot) {
+          if (entry.ticker.equals(ticker)) {
+            return entry;
+          }
+        }
+        return null;
+      }
+      node = (Object[]) slot;
+      shift += BITS;
+    }
+    return null;
+  }
+
+  //returns a copy of the node path with the entry added or replaced
+  private static Object[] indexPut(Object[] node, int hash, int shift, Entry entry) {
+    Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+    int i = (hash >>> shift) & MASK;
+    Object slot = copy[i];
+    if (slot == null) {
+      copy[i] = entry;
+    } else if (slot instanceof Entry) {
+      Entry existing = (Entry) slot;
+      if (existing.ticker.equals(entry.ticker)) {
+        copy[i] = entry;
+      } else if (shift + BITS >= Integer.SIZE) {
+        //no hash bits are left, so the two share a collision bucket
+        copy[i] = new Entry[] {existing, entry};
+      } else {
+        Object[] child = indexPut(null, hash(existing.ticker), shift + BITS, existing);
+        copy[i] = indexPut(child, hash, shift + BITS, entry);
+      }
+    } else if (slot instanceof Entry[]) {
+      Entry[] bucket = (Entry[]) slot;
+      List<Entry> entries = new ArrayList<>();
+      for (Entry other : bucket) {
+        if (!other.ticker.equals(entry.ticker)) {
+          entries.add(other);
+        }
+      }
+      entries.add(entry);
+      copy[i] = entries.toArray(new Entry[0]);
+    } else {
+      copy[i] = indexPut((Object[]) slot, hash, shift + BITS, entry);
+    }
+    return copy;
+  }
+
+  //returns a copy of the node path with the ticker removed, or null if the node is left empty
+  private static Object[] indexRemove(Object[] node, int hash, int shift, String ticker) {
+    Object[] copy = node.clone();
+    int i = (hash >>> shift) & MASK;
+    Object slot = copy[i];
+    if (slot instanceof Entry) {
+      copy[i] = null;
+    } else if (slot instanceof Entry[]) {
+      List<Entry> entries = new ArrayList<>();
+      for (Entry entry : (Entry[]) slot) {
+        if (!entry.ticker.equals(ticker)) {
+          entries.add(entry);
+        }
+      }
+      copy[i] = entries.size() == 1 ? entries.get(0) : entries.toArray(new Entry[0]);
+    } else {
+      copy[i] = indexRemove((Object[]) slot, hash, shift + BITS, ticker);
+    }
+    for (Object remaining : copy) {
+      if (remaining != null) {
+        return copy;
+      }
+    }
+    return null;
+  }
+
+  //returns a copy of the order trie path with the slot at the position set
+  private static Object[] orderSet(Object[] node, int shift, int position, Entry entry) {
+    Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+    int i = (position >>> shift) & MASK;
+    if (shift == 0) {
+      copy[i] = entry;
+    } else {
+      copy[i] = orderSet((Object[]) copy[i], shift - BITS, position, entry);
+    }
+    return copy;
+  }
+
+  //finds the leaf of the order trie holding the position, which must be before orderSize
+  private static Object[] leafFor(Object[] root, int shift, int position) {
+    Object[] node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(position >>> level) & MASK];
+    }
+    return node;
+  }
+
+  //rebuilds both tries with the stocks renumbered from zero, dropping removed slots
+  private void compact() {
+    List<Stock> stocks = toList();
+    index = null;
+    order = new Object[WIDTH];
+    orderShift = 0;
+    orderSize = 0;
+    size = 0;
+    for (Stock stock : stocks) {
+      put(stock);
+    }
+  }
+
+  //collects the tickers whose entries differ under two nodes of the hash trie
+  private static void diff(Object left, Object right, Set<String> changed) {
+    if (left == right) {
+      return;
+    }
+    if (left instanceof Object[] && !(left instanceof Entry[])
+            && right instanceof Object[] && !(right instanceof Entry[])) {
+      Object[] leftNode = (Object[]) left;
+      Object[] rightNode = (Object[]) right;
+      for (int i = 0; i < WIDTH; i++) {
+        diff(leftNode[i], rightNode[i], changed);
+      }
+      return;
+    }
+    //the shapes differ here, so compares every stock under both sides
+    Map<String, Stock> leftStocks = new HashMap<>();
+    Map<String, Stock> rightStocks = new HashMap<>();
+    collect(left, leftStocks);
+    collect(right, rightStocks);
+    for (Map.Entry<String, Stock> stock : leftStocks.entrySet()) {
+      if (!Objects.equals(stock.getValue(), rightStocks.remove(stock.getKey()))) {
+        changed.add(stock.getKey());
+      }
+    }
+    changed.addAll(rightStocks.keySet());
+  }
+
+  //collects every stock under a slot of the hash trie
+  private static void collect(Object slot, Map<String, Stock> stocks) {
+    if (slot instanceof Entry) {
+      stocks.put(((Entry) slot).ticker, ((Entry) slot).stock);
+    } else if (slot instanceof Entry[]) {
+      for (Entry entry : (Entry[]) slot) {
+        stocks.put(entry.ticker, entry.stock);
+      }
+    } else if (slot != null) {
+      for (Object child : (Object[]) slot) {
+        collect(child, stocks);
+      }
+    }
+  }
+
+  //spreads the bits of the hash code since each level uses only five of them
+  private static int hash(String ticker) {
+    int h = ticker.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  //a stock along with its place in the insertion order
+  private static final class Entry {
+    private final String ticker;
+    private final Stock stock;
+    private final int position;
+
+    private Entry(Stock stock, int position) {
+      this.ticker = stock.getTicker();
+      this.stock = stock;
+      this.position = position;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package stockmarket;
+
+import java.util.Objects;
+
+/**
+ * Represents a tax lot: shares of a stock bought on one date at one price. Lots are immutable.
+ *
+ * <p>A lot may not know its price, such as one of a portfolio read from a file saved without its
+ * lots. Its price is then the closing price on its date, looked up only when asked for.
+ */
+public class Lot {
+  private final String ticker;
+  private final double shares;
+  private final String date;
+  private final double price;
+
+  /**
+   * Constructs a Lot with the given ticker symbol, number of shares, purchase date and price.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares left in the lot
+   * @param date   the purchase date in the format "YYYY-MM-DD"
+   * @param price  the price paid per share, or NaN if it isn't known
+   */
+  public Lot(String ticker, double shares, String date, double price) {
+    this.ticker = ticker;
+    this.shares = shares;
+    this.date = date;
+    this.price = price;
+  }
+
+  /**
+   * Gets the stock ticker symbol.
+   * @return the stock ticker symbol
+   */
+  public String getTicker() {
+    return ticker;
+  }
+
+  /**
+   * Gets the number of shares left in the lot.
+   * @return the number of shares
+   */
+  public double getShares() {
+    return shares;
+  }
+
+  /**
+   * Gets the date the lot was bought, which identifies it among the lots of its stock.
+   * @return the purchase date
+   */
+  public String getDate() {
+    return date;
+  }
+
+  /**
+   * Gets the price paid per share. A lot that doesn't know its price looks up the closing price
+   * on its date.
+   * @return the price per share
+   * @throws IllegalArgumentException if the price isn't known and can't be found
+   */
+  public double getPrice() {
+    if (Double.isNaN(price)) {
+      return Portfolio.getClosingPrice(ticker, date);
+    }
+    return price;
+  }
+
+  /**
+   * Checks if the price paid for the lot is known, so getting it looks nothing up.
+   * @return true if the lot has a price
+   */
+  public boolean isPriced() {
+    return !Double.isNaN(price);
+  }
+
+  /**
+   * Gets the cost basis of the shares left in the lot, looking up the price if it isn't known.
+   * @return the number of shares times the price paid
+   * @throws IllegalArgumentException if the price isn't known and can't be found
+   */
+  public double getCostBasis() {
+    return shares * getPrice();
+  }
+
+  /**
+   * Overrides the equals method so lots with the same fields are equal.
+   * @param o any object
+   * @return whether a given object is equal to this lot
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Lot)) {
+      return false;
+    }
+    Lot lot = (Lot) o;
+    return Double.compare(lot.shares, shares) == 0
+            && Double.compare(lot.price, price) == 0
+            && ticker.equals(lot.ticker)
+            && date.equals(lot.date);
+  }
+
+  /**
+   * Overrides the hashcode so equal lots have equal hash codes.
+   * @return an integer of the hash code
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(ticker, shares, date, price);
+  }
+
+  /**
+   * Gets a readable summary of the lot.
+   * @return the shares, ticker, date and price of the lot
+   */
+  @Override
+  public String toString() {
+    return shares + " " + ticker + " bought " + date + " at "
+            + (isPriced() ? String.valueOf(price) : "the closing price");
+  }
+}
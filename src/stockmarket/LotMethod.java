@@ -0,0 +1,21 @@
+package stockmarket;
+
+/**
+ * Represents the ways of choosing which tax lots of a stock a sale comes out of.
+ */
+public enum LotMethod {
+  /**
+   * Sells the oldest lots first.
+   */
+  FIFO,
+
+  /**
+   * Sells the newest lots first.
+   */
+  LIFO,
+
+  /**
+   * Sells a lot picked by its purchase date, then the oldest lots if that isn't enough.
+   */
+  SPECIFIC_ID
+}
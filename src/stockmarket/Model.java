@@ -2,6 +2,9 @@ package stockmarket;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Represents the model in the stock market simulation application.
@@ -40,6 +43,35 @@ public interface Model {
   public List<String> calculateXDayCrossover(String ticker, String startDate, String endDate,
                                              int x);
 
+  /**
+   * Calculates the x-day crossovers for several window sizes of a given stock over the same date
+   * range. Every window's moving average is calculated in one shared pass over the prices.
+   *
+   * @param ticker    the stock ticker symbol
+   * @param startDate the start date in the format "YYYY-MM-DD"
+   * @param endDate   the end date in the format "YYYY-MM-DD"
+   * @param windows   the numbers of days for the crossovers
+   * @return a map of each number of days to the list of days that are crossovers for it
+   * @throws IllegalArgumentException if windows is empty or not positive, or if the dates are
+   *         invalid or not in range for the largest window
+   */
+  public Map<Integer, List<String>> calculateXDayCrossovers(String ticker, String startDate,
+                                                          String endDate, Set<Integer> windows);
+
+  /**
+   * Lazily produces the x-day crossovers for a given stock and x over a given date range. The
+   * inputs are checked right away, but each day is only evaluated once the previous crossover
+   * has been consumed, so callers can print results as they arrive and stop early.
+   *
+   * @param ticker    the stock ticker symbol
+   * @param startDate the start date in the format "YYYY-MM-DD"
+   * @param endDate   the end date in the format "YYYY-MM-DD"
+   * @param x         the number of days for the crossover
+   * @return a stream of days that are x-day crossovers over date range
+   */
+  public Stream<String> streamXDayCrossover(String ticker, String startDate, String endDate,
+                                            int x);
+
   /**
    * Creates a new stock portfolio.
    *
@@ -47,6 +79,28 @@ public interface Model {
    */
   public void createPortfolio(String portfolioName);
 
+  /**
+   * Creates a what-if copy of a portfolio under a new name, to try trades on without changing
+   * the original. The copy shares the original's holdings until either one trades.
+   *
+   * @param portfolioName the name of the portfolio to copy
+   * @param forkName the name of the copy
+   * @throws IllegalArgumentException if the portfolio doesn't exist or the new name is empty or
+   *         taken
+   */
+  public void forkPortfolio(String portfolioName, String forkName);
+
+  /**
+   * Compares the shares held by two portfolios, such as a what-if copy and its original.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param otherName the name of the portfolio to compare with
+   * @return a map of each stock ticker whose holding differs to the first portfolio's shares
+   *         minus the second's
+   * @throws IllegalArgumentException if either portfolio doesn't exist
+   */
+  public Map<String, Double> diffPortfolios(String portfolioName, String otherName);
+
   /**
    * Finds a portfolio by its name.
    *
@@ -70,6 +124,44 @@ public interface Model {
   public void updateStockInPortfolio(String portfolioName, String ticker, double shares,
                                      String date, boolean isAdding);
 
+  /**
+   * Imports trades from a CSV file with a header line and one trade per line in the format
+   * "portfolio,date,ticker,action,shares", where action is "buy" or "sell". The trades of each
+   * portfolio are sorted by date and applied together as one change. Every portfolio's trades
+   * are checked before any are applied, so if any trade is invalid nothing is imported.
+   *
+   * @param filePath the path of the CSV file
+   * @return a map of each portfolio name to the number of trades imported into it
+   * @throws IllegalArgumentException if the file can't be read, a line is invalid, a portfolio
+   *         doesn't exist, or a portfolio's trades can't be made
+   */
+  public Map<String, Integer> importTrades(String filePath);
+
+  /**
+   * Adds a recurring investment plan to a portfolio, buying the plan's amount of its basket of
+   * stocks on every scheduled date that has prices, all as one change.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param plan the recurring plan
+   * @return the number of investments made
+   * @throws IllegalArgumentException if the portfolio doesn't exist, already has a plan with the
+   *         same name, or the first investment is before the portfolio's latest date
+   */
+  public int addRecurringPlan(String portfolioName, RecurringPlan plan);
+
+  /**
+   * Extends a portfolio's recurring investment plan to a later end date, making only the
+   * investments not made yet.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param planName the name of the plan
+   * @param endDate the new end date in the format "YYYY-MM-DD"
+   * @return the number of investments made
+   * @throws IllegalArgumentException if the portfolio or plan doesn't exist, or the end date is
+   *         before the plan's current end date
+   */
+  public int extendRecurringPlan(String portfolioName, String planName, String endDate);
+
   /**
    * Calculates the value of a given portfolio on a given date.
    *
@@ -80,6 +172,61 @@ public interface Model {
    */
   public double calculatePortfolioValue(String portfolioName, String date);
 
+  /**
+   * Calculates the value of several portfolios on several dates at once. The distinct stock and
+   * date pairs held across all the portfolios are priced once each, then the portfolios are
+   * valued in parallel from those prices.
+   *
+   * @param portfolioNames the names of the portfolios
+   * @param dates          the dates in the format "YYYY-MM-DD"
+   * @return a map of each portfolio name to a map of each date to the portfolio's value,
+   *         in the order given
+   * @throws IllegalArgumentException if a portfolio isn't found, or a date is in the future or
+   *         invalid for a portfolio
+   */
+  public Map<String, Map<String, Double>> calculatePortfolioValues(List<String> portfolioNames,
+                                                                  List<String> dates);
+
+  /**
+   * Calculates the value of every portfolio on every trading day in a date range, as a product
+   * of a matrix of the shares each portfolio holds and a matrix of closing prices.
+   *
+   * @param startDate the start date in the format "YYYY-MM-DD"
+   * @param endDate   the end date in the format "YYYY-MM-DD"
+   * @return a grid of the value of each portfolio on each trading day
+   * @throws IllegalArgumentException if the start date is after the end date
+   */
+  public ValueGrid calculateValueGrid(String startDate, String endDate);
+
+  /**
+   * Finds the portfolios that have traded a stock, which are the ones whose values change when
+   * its prices do.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the names of the portfolios that have traded the stock
+   */
+  public Set<String> getPortfoliosHolding(String ticker);
+
+  /**
+   * Gets the tax lots of a portfolio: the lots of each stock still held, their cost basis, and
+   * the gain realized by every sale so far.
+   *
+   * @param portfolioName the name of the portfolio
+   * @return the tax lots of the portfolio
+   */
+  public TaxLots getTaxLots(String portfolioName);
+
+  /**
+   * Calculates the gain, or loss if negative, on the shares a portfolio holds if they were sold
+   * on a date, from the cost basis of their tax lots.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the unrealized gain
+   * @throws IllegalArgumentException if date is in future or invalid
+   */
+  public double calculateUnrealizedGain(String portfolioName, String date);
+
   /**
    * Gets value distribution of a given portfolio on a given date.
    *
@@ -114,6 +261,27 @@ public interface Model {
    */
   public void rebalancePortfolio(String portfolioName, List<Integer> percentages, String date);
 
+  /**
+   * Plans the trades that would rebalance a portfolio on a date, without changing it.
+   *
+   * @param portfolioName the name of the portfolio to rebalance
+   * @param percentages the intended distribution percentage of each stock ticker held
+   * @param date the date of re-balance
+   * @return the planned trades, keyed by ticker
+   * @throws IllegalArgumentException if the percentages don't add up to 100 or don't cover
+   *         exactly the stocks held, or if date is in future or invalid
+   */
+  public RebalancePlan previewRebalance(String portfolioName, Map<String, Integer> percentages,
+                                        String date);
+
+  /**
+   * Makes every trade of a previewed rebalance as one change to the portfolio.
+   *
+   * @param plan the plan returned by previewRebalance
+   * @throws IllegalArgumentException if the portfolio changed since the plan was made
+   */
+  public void commitRebalance(RebalancePlan plan);
+
   /**
    * Visualizes either a stock or a portfolio of stocks given the start date, and end date. The
    * scale at which the stock or portfolio's value is represented is either absolute (starting
@@ -129,18 +297,83 @@ public interface Model {
   public List<String> visualizePerformanceOverTime(String name, String startDate, String endDate,
                                                    boolean isPortfolio, boolean isAbsolute);
 
+  /**
+   * Lazily produces the rows of visualizePerformanceOverTime. Each row is only calculated once
+   * the previous row has been consumed, so callers can print rows as they arrive and stop early.
+   * @param name the name of the portfolio or the stock ticker
+   * @param startDate the start date of the portfolio/stock's performance
+   * @param endDate the end date of the portfolio/stock's performance
+   * @param isPortfolio true if representing a portfolio, false if representing a stock in portfolio
+   * @param isAbsolute true (absolute) if scale begins at one, false (relative) if scale begins at
+   *                   a base value
+   * @return a stream of strings that represents each row of the visualization
+   */
+  public Stream<String> streamPerformanceOverTime(String name, String startDate, String endDate,
+                                                  boolean isPortfolio, boolean isAbsolute);
+
   /**
    * Saves a snapshot of a portfolio to an XML file. When a portfolio is saved, the portfolio will
-   * be removed from the program, and stored as an XML file locally until later loaded again.
+   * be removed from the program, and stored as an XML file locally until later loaded again. A
+   * file name ending in ".spf" is saved in the binary format instead.
    * @param portfolioName the name of the portfolio
    * @param fileName the file name of the newly created XML file
    */
   public void savePortfolio(String portfolioName, String fileName);
 
+  /**
+   * Saves a snapshot of a portfolio to a file in the given format, then removes the portfolio
+   * from the program until it is loaded again.
+   * @param portfolioName the name of the portfolio
+   * @param fileName the file name of the newly created file
+   * @param format the format to save the portfolio in
+   * @throws IllegalArgumentException if there is no such portfolio or the file can't be written
+   */
+  public void savePortfolio(String portfolioName, String fileName, PortfolioFormat format);
+
+  /**
+   * Saves a snapshot of a portfolio to a file on a background thread, removing the portfolio
+   * from the program right away. The file is replaced atomically, and saves to the same file
+   * that are still waiting are combined so only the latest state is written. If the save fails
+   * the portfolio is put back.
+   * @param portfolioName the name of the portfolio
+   * @param fileName the file name of the newly created file
+   * @param format the format to save the portfolio in
+   * @return a future completed once the file is on disk, or completed exceptionally if it
+   *         couldn't be written
+   * @throws IllegalArgumentException if there is no such portfolio
+   */
+  public CompletableFuture<Void> savePortfolioAsync(String portfolioName, String fileName,
+                                                    PortfolioFormat format);
+
+  /**
+   * Saves every portfolio that has changed since it was last written, each to a file named after
+   * it, without removing any from the program. Portfolios are written in parallel by a bounded
+   * number of threads; unchanged ones are skipped.
+   * @param format the format to save the portfolios in
+   * @return the portfolios written, skipped and failed
+   */
+  public SaveReport saveAll(PortfolioFormat format);
+
   /**
    * Loads a previously saved, or user created XML file following the structure of a portfolio. Once
-   * the portfolio is loaded, it is added to program.
-   * @param fileName the file name of an XML file representing a portfolio
+   * the portfolio is loaded, it is added to program. Binary files are detected and loaded too; a
+   * file name without an extension loads the newer of its XML and binary files. A portfolio
+   * still being saved in the background can't be loaded until its save is done.
+   * @param fileName the file name of an XML or binary file representing a portfolio
+   * @throws IllegalArgumentException if the file can't be loaded or the portfolio is being saved
    */
   public void loadPortfolio(String fileName);
+
+  /**
+   * Loads many saved portfolios at once. The files are parsed in parallel and the portfolios
+   * are added to the program together: if any file can't be loaded, or any portfolio clashes
+   * with a different one of the same name, none are added. Parsing looks up no prices, so the
+   * price histories of the stocks they hold are then loaded in parallel, once per stock, and are
+   * ready when first used. Journal snapshots of the portfolios are written in the background.
+   * @param fileNames the file names of XML or binary files representing portfolios
+   * @return the names of the portfolios loaded, in the order of the files
+   * @throws IllegalArgumentException if a file can't be loaded, a different portfolio with the
+   *         same name exists, or one of them is being saved
+   */
+  public List<String> loadPortfolios(List<String> fileNames);
 }
\ No newline at end of file
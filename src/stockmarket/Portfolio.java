@@ -3,32 +3,46 @@ package stockmarket;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 
-import data.AlphaVantage;
-
 /**
- * Represents a portfolio of stocks with a name, list of stocks, and latest date.
+ * Represents a portfolio of stocks with a name, holdings keyed by ticker, and latest date. Every
+ * trade is also recorded in a ledger, so the holdings and value of the portfolio can be found on
+ * any past date, not only with today's shares.
+ *
+ * <p>Portfolios are safe to share between threads. The holdings, ledger and latest date are kept
+ * together in an immutable state with a version number. Reads work on the current state without
+ * locking or changing anything, so valuations never block trades. A trade builds the next state
+ * from the current one and swaps it in only if the version hasn't changed in the meantime,
+ * retrying from the newer state otherwise.
  */
 @XmlRootElement(name = "Portfolio")
 public class Portfolio {
   private String name;
-  private List<Stock> stocks;
-  private String latestDate;
+  private final AtomicReference<State> state;
+  //the latest version known to be written to a file, or -1 if none has been
+  private final AtomicLong persistedVersion = new AtomicLong(-1);
 
   /**
    * Default constructor required for JAXB.
    */
   public Portfolio() {
     this.name = "";
-    this.stocks = new ArrayList<>();
-    this.latestDate = "";
+    this.state = new AtomicReference<>(new State(0, new Holdings(), new TradeLedger(), "",
+            new ValuationCache(), Collections.emptyMap(), new TaxLots()));
   }
 
   /**
@@ -38,20 +52,60 @@ public class Portfolio {
    */
   public Portfolio(String name) {
     this.name = name;
-    this.stocks = new ArrayList<>();
-    this.latestDate = "";
+    this.state = new AtomicReference<>(new State(0, new Holdings(), new TradeLedger(), "",
+            new ValuationCache(), Collections.emptyMap(), new TaxLots()));
+  }
+
+  //constructs a portfolio that starts from an existing state
+  private Portfolio(String name, State state) {
+    this.name = name;
+    this.state = new AtomicReference<>(state);
   }
 
   /**
-   * Constructs a Portfolio with the given name and stocks and unset latest date.
+   * Constructs a Portfolio with the given name and stocks and unset latest date. The saved trades
+   * and tax lots are kept if they hold the same shares as the stocks. Otherwise only the last
+   * trade date of each stock is known, so the ledger starts with each stock bought in full on
+   * that date and each stock is one lot bought on that date, whose price is only looked up when
+   * a cost basis or gain needs it. Constructing the portfolio never looks up a price.
    *
    * @param name the name of the portfolio
    * @param stocks the stocks in the portfolio
+   * @param plans the recurring investment plans of the portfolio
+   * @param saved the saved tax lots of the portfolio, or null if they weren't saved
+   * @param trades the saved trades of the portfolio in date order, or null if they weren't saved
    */
-  private Portfolio(String name, List<Stock> stocks) {
+  private Portfolio(String name, List<Stock> stocks, List<RecurringPlan> plans, TaxLots saved,
+                    List<Trade> trades) {
     this.name = name;
-    this.stocks = stocks;
-    this.latestDate = "";
+    TradeLedger ledger = new TradeLedger();
+    if (trades != null) {
+      for (Trade trade : trades) {
+        ledger = ledger.append(trade);
+      }
+    }
+    List<Stock> byDate = new ArrayList<>(stocks);
+    byDate.sort(Comparator.comparing(Stock::getDateAdded));
+    if (trades == null || !holdsSame(ledger.getHoldings(), stocks)) {
+      ledger = new TradeLedger();
+      for (Stock stock : byDate) {
+        ledger = ledger.append(new Trade(stock.getTicker(), stock.getShares(),
+                stock.getDateAdded(), true));
+      }
+    }
+    TaxLots lots = saved;
+    if (saved == null || !holdsSame(sharesInLots(saved), stocks)) {
+      lots = saved == null ? new TaxLots() : new TaxLots().withMethod(saved.getMethod());
+      for (Stock stock : byDate) {
+        lots = lots.buy(stock.getTicker(), stock.getShares(), stock.getDateAdded(), Double.NaN);
+      }
+    }
+    Map<String, RecurringPlan> plansByName = new LinkedHashMap<>();
+    for (RecurringPlan plan : plans) {
+      plansByName.put(plan.getName(), plan);
+    }
+    this.state = new AtomicReference<>(new State(0, new Holdings(stocks), ledger, "",
+            new ValuationCache(), Collections.unmodifiableMap(plansByName), lots));
   }
 
   /**
@@ -64,13 +118,13 @@ public class Portfolio {
   }
 
   /**
-   * Gets the list of stocks of a portfolio.
-   * @return a list of stocks
+   * Gets the list of stocks of a portfolio, in the order they were first added.
+   * @return an unmodifiable list of stocks
    */
   @XmlElementWrapper(name = "stocks")
   @XmlElement(name = "stock")
   public List<Stock> getStocks() {
-    return stocks;
+    return state.get().holdings.toList();
   }
 
   /**
@@ -79,21 +133,146 @@ public class Portfolio {
    */
   @XmlElement
   public String getLatestDate() {
-    return latestDate;
+    return state.get().latestDate;
+  }
+
+  /**
+   * Gets the version of the portfolio, which goes up by one with every change.
+   * @return the version number
+   */
+  public long getVersion() {
+    return state.get().version;
+  }
+
+  /**
+   * Gets the latest version of the portfolio known to be written to a file.
+   * @return the persisted version number, or -1 if the portfolio has never been written
+   */
+  public long getPersistedVersion() {
+    return persistedVersion.get();
+  }
+
+  /**
+   * Records that a version of the portfolio has been written to a file. Versions can finish
+   * writing out of order, so an older version never replaces a newer one.
+   * @param version the version number written
+   */
+  public void markPersisted(long version) {
+    persistedVersion.accumulateAndGet(version, Math::max);
+  }
+
+  /**
+   * Checks if the portfolio has changed since it was last written to a file.
+   * @return true if the current version hasn't been written
+   */
+  public boolean isDirty() {
+    return getVersion() != persistedVersion.get();
+  }
+
+  /**
+   * Gets the cached values, distributions and compositions of the current version of the
+   * portfolio. A trade keeps only the entries before its date.
+   * @return the valuation cache
+   */
+  public ValuationCache getValuationCache() {
+    return state.get().valuations;
+  }
+
+  /**
+   * Gets every trade made in the portfolio in chronological order.
+   * @return an unmodifiable list of trades
+   */
+  public List<Trade> getTrades() {
+    return state.get().ledger.getTrades();
+  }
+
+  /**
+   * Gets the recurring investment plans of the portfolio, in the order they were added.
+   * @return an unmodifiable list of plans
+   */
+  public List<RecurringPlan> getRecurringPlans() {
+    return List.copyOf(state.get().plans.values());
+  }
+
+  /**
+   * Makes a what-if copy of the portfolio under a new name. The copy starts from the current
+   * state of this portfolio and shares all of it, so forking takes constant time however large
+   * the portfolio is. Trades on either one afterwards copy only what they change and never affect
+   * the other.
+   *
+   * @param forkName the name of the copy
+   * @return the copy
+   */
+  public Portfolio fork(String forkName) {
+    return new Portfolio(forkName, state.get());
   }
 
   /**
-   * Updates the globally most recent date if the provided date is more recent.
-   * Otherwise, throws exception.
+   * Finds how the shares held differ from another portfolio, such as a fork's parent. Holdings
+   * the two still share are skipped, so comparing a fork with its parent takes time
+   * proportional to the trades made since forking.
    *
-   * @param newDate the new date to check and potentially update
+   * @param other the portfolio to compare with
+   * @return a map of each stock ticker whose holding differs to this portfolio's shares minus the
+   *         other's, in alphabetical order
+   */
+  public Map<String, Double> diff(Portfolio other) {
+    Holdings holdings = state.get().holdings;
+    Holdings otherHoldings = other.state.get().holdings;
+    Map<String, Double> changes = new LinkedHashMap<>();
+    for (String ticker : holdings.changedTickers(otherHoldings)) {
+      Stock stock = holdings.get(ticker);
+      Stock otherStock = otherHoldings.get(ticker);
+      changes.put(ticker, (stock == null ? 0.0 : stock.getShares())
+              - (otherStock == null ? 0.0 : otherStock.getShares()));
+    }
+    return changes;
+  }
+
+  /**
+   * Gets the shares of each stock held at the end of the given date. Unlike getComposition,
+   * this can look at any past date and does not count as a portfolio operation.
+   *
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return a map of each stock ticker held to its number of shares
+   */
+  public Map<String, Double> getHoldingsAsOf(String date) {
+    return state.get().ledger.getHoldingsAsOf(date);
+  }
+
+  /**
+   * Gets the shares of each stock that calculateTotalValue would value on the given date, after
+   * the same checks, so the portfolio can be valued with prices looked up elsewhere.
+   *
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return a map of each stock ticker held on the date to its number of shares
+   * @throws IllegalArgumentException if date is in the future or before latestDate
+   */
+  public Map<String, Double> getHoldingsToValue(String date) {
+    LocalDate givenDate = LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    State current = state.get();
+
+    if (current.holdings.isEmpty()) {
+      if (givenDate.isAfter(LocalDate.now())) {
+        throw new IllegalArgumentException("Date cannot be in the future.");
+      }
+      return new HashMap<>();
+    }
+
+    checkValuationDate(current, givenDate);
+    return current.ledger.getHoldingsAsOf(date);
+  }
+
+  /**
+   * Checks that the provided date is not before the globally most recent date of a state.
+   *
+   * @param latestDate the latest date of the state
+   * @param newDate the new date to check
    * @throws IllegalArgumentException if new date is before latestDate
    */
-  private void updateLatestDate(String newDate) {
-    if (latestDate == null || latestDate.isEmpty()
-            || newDate.compareTo(latestDate) >= 0) {
-      latestDate = newDate;
-    } else {
+  private static void checkChronological(String latestDate, String newDate) {
+    if (latestDate != null && !latestDate.isEmpty()
+            && newDate.compareTo(latestDate) < 0) {
       throw new IllegalArgumentException("Portfolio operations must be performed chronologically. "
               + "The date " + newDate + " is before the more recent date " + latestDate
               + " previously entered.");
@@ -112,25 +291,65 @@ public class Portfolio {
    *         if new date is before latestDate
    */
   public void updateStock(String ticker, double shares, String date, boolean isAdding) {
-    boolean containsStock = false;
-    int stockIndex = -1;
-    //find stock in stocks list if it's there already
-    for (int i = 0; i < stocks.size(); i++) {
-      if (stocks.get(i).getTicker().equals(ticker)) {
-        containsStock = true;
-        stockIndex = i;
-        break;
+    //throws exception when invalid date
+    Utils.checkDate(date, ticker);
+
+    while (true) {
+      State current = state.get();
+      State next = trade(current, ticker, shares, date, isAdding, null);
+      if (state.compareAndSet(current, next)) {
+        return;
       }
+      //another trade got in first, so try again against the newer state
     }
+  }
 
+  /**
+   * Sells shares of a stock out of the tax lot bought on a given date, then out of the other
+   * lots by the portfolio's lot method if that lot isn't enough.
+   *
+   * @param ticker  the stock ticker symbol to sell
+   * @param shares  the number of shares to sell
+   * @param date    the date the stock is sold
+   * @param lotDate the purchase date of the lot to sell from
+   * @throws IllegalArgumentException when stock market isn't open on that date for that stock,
+   *         if new date is before latestDate, or if there is no lot bought on lotDate
+   */
+  public void sellFromLot(String ticker, double shares, String date, String lotDate) {
     //throws exception when invalid date
     Utils.checkDate(date, ticker);
 
-    //updates latest date or throws exception if before latest
-    updateLatestDate(date);
+    while (true) {
+      State current = state.get();
+      State next = trade(current, ticker, shares, date, false, lotDate);
+      if (state.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Builds the state after buying or selling a stock, leaving the given state unchanged.
+   *
+   * @param current the state to trade from
+   * @param ticker the stock ticker symbol to add/sell
+   * @param shares the number of shares of the stock to add/sell
+   * @param date the date the stock is added/sold
+   * @param isAdding whether the stock is being bought or sold
+   * @param lotDate the purchase date of the tax lot to sell first, or null to use the lot method
+   * @return the state after the trade
+   * @throws IllegalArgumentException if the trade is before latestDate or sells too many shares
+   */
+  private State trade(State current, String ticker, double shares, String date,
+                      boolean isAdding, String lotDate) {
+    //throws exception if before latest
+    checkChronological(current.latestDate, date);
 
-    if (containsStock) {
-      double newShares = stocks.get(stockIndex).getShares();
+    //find stock in the holdings if it's there already
+    Stock existing = current.holdings.get(ticker);
+    double newShares = 0;
+    if (existing != null) {
+      newShares = existing.getShares();
       if (isAdding) { // buying
         newShares += shares;
       } else { // selling
@@ -141,75 +360,439 @@ public class Portfolio {
                   + ") than existing (" + newShares + ")");
         }
       }
-      if (newShares > 0) {
-        //update the stock with the new shares count
-        stocks.set(stockIndex, new Stock(ticker, newShares, date));
-      } else {
-        //remove the stock if no shares are left
-        stocks.remove(stockIndex);
-      }
     } else {
       if (isAdding) {
-        stocks.add(new Stock(ticker, shares, date));
+        newShares = shares;
       } else {
         throw new IllegalArgumentException("Cannot sell a stock (" + ticker + ") that doesn't" +
                 " exist in this portfolio '" + name + "'");
       }
     }
+
+    Trade trade = new Trade(ticker, shares, date, isAdding);
+    TradeLedger ledger = current.ledger.append(trade);
+    TaxLots lots = recordLots(current.lots, trade, lotDate);
+    Holdings holdings = current.holdings.copy();
+    if (existing == null || newShares > 0) {
+      //add the stock, or update it with the new shares count in the same place
+      holdings.put(new Stock(ticker, newShares, date));
+    } else {
+      //remove the stock if no shares are left
+      holdings.remove(ticker);
+    }
+    //valuations before the trade date are unchanged by it
+    return new State(current.version + 1, holdings, ledger, date,
+            current.valuations.before(date), current.plans, lots);
   }
 
   /**
-   * Calculates the individual value of a stock in the portfolio on a given date.
+   * Buys and sells many stocks at once, such as when importing a trade history. The trades are
+   * applied in date order, keeping the order of trades on the same date. Each stock's trade dates
+   * are checked in one pass over its price history instead of one search per trade, and the
+   * portfolio changes once, with its latest date set to the last trade. Either every trade is
+   * applied or, if any is invalid, none are.
    *
-   * @param stock     the stock to calculate the value for
-   * @param givenDate the date to calculate the value on
-   * @return the value of the stock on the given date
-   * @throws IllegalArgumentException if date is in the future, invalid, or before latestDate
+   * @param trades the trades to make
+   * @throws IllegalArgumentException if a stock market isn't open on a trade date, the first
+   *         trade is before latestDate, or a sale is more than the shares held
    */
-  private double calculateStockValue(Stock stock, LocalDate givenDate) {
-    if (givenDate.isAfter(LocalDate.now())) {
-      throw new IllegalArgumentException("Date cannot be in the future.");
+  public void updateStocks(List<Trade> trades) {
+    if (trades.isEmpty()) {
+      return;
     }
+    List<Trade> byDate = new ArrayList<>(trades);
+    byDate.sort(Comparator.comparing(Trade::getDate));
+    checkTradingDates(byDate);
 
-    //updates latest date or throws exception if before latest
-    updateLatestDate(givenDate.toString());
+    while (true) {
+      State current = state.get();
+      State next = trade(current, byDate);
+      if (state.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
 
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    LocalDate stockDateAdded = LocalDate.parse(stock.getDateAdded(), formatter);
-    //value of stock is 0 if added after given date
-    if (stockDateAdded.isAfter(givenDate)) {
-      return 0.0;
+  /**
+   * Checks that a batch of trades could be made now, as updateStocks would check them, without
+   * making any of them.
+   *
+   * @param trades the trades to check
+   * @throws IllegalArgumentException if a stock market isn't open on a trade date, the first
+   *         trade is before latestDate, or a sale is more than the shares held
+   */
+  public void checkTrades(List<Trade> trades) {
+    if (trades.isEmpty()) {
+      return;
+    }
+    List<Trade> byDate = new ArrayList<>(trades);
+    byDate.sort(Comparator.comparing(Trade::getDate));
+    checkTradingDates(byDate);
+    trade(state.get(), byDate);
+  }
+
+  /**
+   * Checks that every trade is on a day its stock has a price, walking each stock's price
+   * history once alongside its trades.
+   *
+   * @param trades the trades sorted by date
+   * @throws IllegalArgumentException if a date isn't a trading day
+   */
+  private static void checkTradingDates(List<Trade> trades) {
+    Map<String, List<String>> datesByTicker = new LinkedHashMap<>();
+    for (Trade trade : trades) {
+      datesByTicker.computeIfAbsent(trade.getTicker(), k -> new ArrayList<>())
+              .add(trade.getDate());
+    }
+    for (Map.Entry<String, List<String>> entry : datesByTicker.entrySet()) {
+      String ticker = entry.getKey();
+      PriceSeries series = PriceSeries.of(ticker);
+      int cursor = 0;
+      for (String date : entry.getValue()) {
+        while (cursor < series.size() && series.getDate(cursor).compareTo(date) < 0) {
+          cursor++;
+        }
+        if (cursor == series.size() || !series.getDate(cursor).equals(date)) {
+          throw new IllegalArgumentException(date + " does not exist in this stock " + ticker);
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds the state after a batch of trades, leaving the given state unchanged. The holdings
+   * are copied once and each stock changed is updated once, in the same order trading one at a
+   * time would leave them.
+   *
+   * @param current the state to trade from
+   * @param trades the trades sorted by date
+   * @return the state after every trade
+   * @throws IllegalArgumentException if the first trade is before latestDate or a sale is more
+   *         than the shares held
+   */
+  private State trade(State current, List<Trade> trades) {
+    String firstDate = trades.get(0).getDate();
+    checkChronological(current.latestDate, firstDate);
+
+    //shares of each stock changed, in the order it would now be listed
+    Map<String, Double> changed = new LinkedHashMap<>();
+    Map<String, String> lastDates = new HashMap<>();
+    Set<String> soldOut = new HashSet<>();
+    TradeLedger ledger = current.ledger;
+    TaxLots lots = current.lots;
+    for (Trade trade : trades) {
+      String ticker = trade.getTicker();
+      Double held = changed.get(ticker);
+      if (held == null && !soldOut.contains(ticker) && current.holdings.contains(ticker)) {
+        held = current.holdings.get(ticker).getShares();
+      }
+      double newShares;
+      if (trade.isAdding()) {
+        newShares = held == null ? trade.getShares() : held + trade.getShares();
+      } else if (held == null) {
+        throw new IllegalArgumentException("Cannot sell a stock (" + ticker + ") that doesn't" +
+                " exist in this portfolio '" + name + "'");
+      } else if (trade.getShares() <= held) {
+        newShares = held - trade.getShares();
+      } else {
+        throw new IllegalArgumentException("Cannot sell more shares (" + trade.getShares()
+                + ") than existing (" + held + ")");
+      }
+
+      ledger = ledger.append(trade);
+      lots = recordLots(lots, trade, null);
+      lastDates.put(ticker, trade.getDate());
+      if (newShares > 0 || trade.isAdding()) {
+        changed.put(ticker, newShares);
+      } else {
+        //a stock with no shares left is dropped, and listed last if bought again
+        changed.remove(ticker);
+        soldOut.add(ticker);
+      }
     }
 
-    //gets list of stock info for a stock in the portfolio
-    List<StockInfo> stockInfoList = AlphaVantage.getStock(stock.getTicker());
-    boolean dateFound = false;
-    LocalDate min = new Utils().minMaxDate(stockInfoList, true);
-    LocalDate max = new Utils().minMaxDate(stockInfoList, false);
+    Holdings holdings = current.holdings.copy();
+    for (String ticker : soldOut) {
+      holdings.remove(ticker);
+    }
+    for (Map.Entry<String, Double> entry : changed.entrySet()) {
+      holdings.put(new Stock(entry.getKey(), entry.getValue(), lastDates.get(entry.getKey())));
+    }
+    String latestDate = trades.get(trades.size() - 1).getDate();
+    return new State(current.version + 1, holdings, ledger, latestDate,
+            current.valuations.before(firstDate), current.plans, lots);
+  }
 
-    if (givenDate.isBefore(min) || givenDate.isAfter(max)) {
-      throw new IllegalArgumentException("Date " + givenDate + " is invalid.");
+  /**
+   * Adds a recurring investment plan and makes every investment it has scheduled so far that
+   * the stocks have prices for, all as one change.
+   *
+   * @param plan the plan to add
+   * @return the number of investments made
+   * @throws IllegalArgumentException if the portfolio already has a plan with the same name, or
+   *         the first investment is before latestDate
+   */
+  public int addRecurringPlan(RecurringPlan plan) {
+    while (true) {
+      State current = state.get();
+      if (current.plans.containsKey(plan.getName())) {
+        throw new IllegalArgumentException("Plan '" + plan.getName() + "' already exists.");
+      }
+      State next = invest(current, plan);
+      if (state.compareAndSet(current, next)) {
+        return investmentsMade(current, next, plan);
+      }
     }
+  }
+
+  /**
+   * Extends a recurring investment plan to a later end date and makes the investments it adds
+   * that the stocks have prices for. Extending to the same end date makes the investments that
+   * were waiting for prices, such as after new price data arrives.
+   *
+   * @param planName the name of the plan
+   * @param endDate the new end date in the format "YYYY-MM-DD"
+   * @return the number of investments made
+   * @throws IllegalArgumentException if there is no such plan, the end date is before the
+   *         current one, or the next investment is before latestDate
+   */
+  public int extendRecurringPlan(String planName, String endDate) {
+    while (true) {
+      State current = state.get();
+      RecurringPlan plan = current.plans.get(planName);
+      if (plan == null) {
+        throw new IllegalArgumentException("Plan '" + planName + "' not found.");
+      }
+      State next = invest(current, plan.extendTo(endDate));
+      if (state.compareAndSet(current, next)) {
+        return investmentsMade(current, next, plan);
+      }
+    }
+  }
 
-    double closingPrice = 0.0;
-    //parse through list to add closing price for the given date if the date is found in the list
-    for (StockInfo info : stockInfoList) {
-      if (info.getTimestamp().equals(givenDate.toString())) {
-        closingPrice = info.getClose();
-        dateFound = true;
+  /**
+   * Builds the state after making a plan's scheduled investments that the stocks have prices
+   * for, with the plan stored and its next date moved past them. The trading days are found in
+   * one pass over each stock's prices, and every purchase is made in one batch.
+   *
+   * @param current the state to invest from
+   * @param plan the plan to invest by
+   * @return the state after the investments
+   * @throws IllegalArgumentException if the first investment is before latestDate
+   */
+  private State invest(State current, RecurringPlan plan) {
+    List<String> tickers = new ArrayList<>(plan.getWeights().keySet());
+    PriceSeries[] series = new PriceSeries[tickers.size()];
+    int[] cursors = new int[tickers.size()];
+    for (int i = 0; i < series.length; i++) {
+      series[i] = PriceSeries.of(tickers.get(i));
+      cursors[i] = series[i].ceilingIndex(plan.getNextDate());
+    }
+
+    List<Trade> trades = new ArrayList<>();
+    LocalDate scheduled = LocalDate.parse(plan.getNextDate());
+    LocalDate end = LocalDate.parse(plan.getEndDate());
+    String lastDay = "";
+    while (!scheduled.isAfter(end)) {
+      String day = commonTradingDay(series, cursors, scheduled.toString());
+      if (day == null) {
+        //not every stock has a price yet, so the rest waits for more data
         break;
       }
+      //scheduled dates that fall on the same trading day are one investment
+      if (!day.equals(lastDay)) {
+        for (int i = 0; i < series.length; i++) {
+          double amount = plan.getAmount() * plan.getWeights().get(tickers.get(i)) / 100.0;
+          trades.add(new Trade(tickers.get(i), amount / series[i].getClose(cursors[i]), day,
+                  true));
+        }
+        lastDay = day;
+      }
+      scheduled = scheduled.plusDays(plan.getIntervalDays());
+    }
+
+    Map<String, RecurringPlan> plans = new LinkedHashMap<>(current.plans);
+    plans.put(plan.getName(), plan.nextOn(scheduled.toString()));
+    State traded = trades.isEmpty() ? current : trade(current, trades);
+    return new State(current.version + 1, traded.holdings, traded.ledger, traded.latestDate,
+            traded.valuations, Collections.unmodifiableMap(plans), traded.lots);
+  }
+
+  /**
+   * Finds the first day on or after a date that every stock has a price, moving each stock's
+   * cursor forward to that day.
+   *
+   * @param series the price series of each stock
+   * @param cursors the index in each series to search from, moved to the day found
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the trading day, or null if some stock has no prices on or after the date yet
+   */
+  private static String commonTradingDay(PriceSeries[] series, int[] cursors, String date) {
+    String day = date;
+    boolean agreed = false;
+    while (!agreed) {
+      agreed = true;
+      for (int i = 0; i < series.length; i++) {
+        while (cursors[i] < series[i].size() && series[i].getDate(cursors[i]).compareTo(day) < 0) {
+          cursors[i]++;
+        }
+        if (cursors[i] == series[i].size()) {
+          return null;
+        }
+        if (series[i].getDate(cursors[i]).compareTo(day) > 0) {
+          day = series[i].getDate(cursors[i]);
+          agreed = false;
+        }
+      }
     }
-    if (!dateFound) {
+    return day;
+  }
+
+  //counts the investments a plan made between two states from the trades added
+  private static int investmentsMade(State before, State after, RecurringPlan plan) {
+    return (after.ledger.size() - before.ledger.size()) / plan.getWeights().size();
+  }
+
+  //checks if the shares of each stock are the same as those of the stocks given
+  private static boolean holdsSame(Map<String, Double> shares, List<Stock> stocks) {
+    if (shares.size() != stocks.size()) {
+      return false;
+    }
+    for (Stock stock : stocks) {
+      if (Math.abs(shares.getOrDefault(stock.getTicker(), 0.0) - stock.getShares()) > 1e-6) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //adds up the shares held in the tax lots of each stock
+  private static Map<String, Double> sharesInLots(TaxLots lots) {
+    Map<String, Double> shares = new HashMap<>();
+    for (Map.Entry<String, List<Lot>> queue : lots.getLots().entrySet()) {
+      double total = 0.0;
+      for (Lot lot : queue.getValue()) {
+        total += lot.getShares();
+      }
+      shares.put(queue.getKey(), total);
+    }
+    return shares;
+  }
+
+  //records a trade in the tax lots at the closing price of its date
+  private static TaxLots recordLots(TaxLots lots, Trade trade, String lotDate) {
+    double price = getClosingPrice(trade.getTicker(), trade.getDate());
+    if (trade.isAdding()) {
+      return lots.buy(trade.getTicker(), trade.getShares(), trade.getDate(), price);
+    }
+    return lots.sell(trade.getTicker(), trade.getShares(), price, lotDate);
+  }
+
+  /**
+   * Gets the tax lots of the portfolio, with the cost basis of each stock held and the gain
+   * realized by every sale so far.
+   * @return the tax lots
+   */
+  public TaxLots getTaxLots() {
+    return state.get().lots;
+  }
+
+  /**
+   * Sets how sales choose which tax lots to sell from. Portfolios sell the oldest lots first
+   * until this is set.
+   *
+   * @param method the lot selection method
+   */
+  public void setLotMethod(LotMethod method) {
+    while (true) {
+      State current = state.get();
+      State next = new State(current.version + 1, current.holdings, current.ledger,
+              current.latestDate, current.valuations, current.plans,
+              current.lots.withMethod(method));
+      if (state.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Calculates the gain, or loss if negative, on the shares held if they were sold on a date:
+   * their value minus their cost basis. This takes one price lookup per stock held, however many
+   * lots there are.
+   *
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the unrealized gain
+   * @throws IllegalArgumentException if date is in future, invalid, or before latestDate
+   */
+  public double getUnrealizedGain(String date) {
+    LocalDate givenDate = LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    State current = state.get();
+    checkValuationDate(current, givenDate);
+
+    double gain = 0.0;
+    for (Stock stock : current.holdings) {
+      gain += calculateStockValue(stock.getTicker(), stock.getShares(), givenDate)
+              - current.lots.getCostBasis(stock.getTicker());
+    }
+    return gain;
+  }
+
+  /**
+   * Calculates the value of a number of shares of a stock on a given date.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares held on the given date
+   * @param givenDate the date to value the shares on
+   * @return the value of the shares on the given date
+   * @throws IllegalArgumentException if the stock has no price on the given date
+   */
+  private double calculateStockValue(String ticker, double shares, LocalDate givenDate) {
+    return getClosingPrice(ticker, givenDate.toString()) * shares;
+  }
+
+  /**
+   * Gets the closing price of a stock on a given date, as used to value portfolios.
+   *
+   * @param ticker the stock ticker symbol
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the closing price on the date
+   * @throws IllegalArgumentException if the stock has no price on the given date
+   */
+  static double getClosingPrice(String ticker, String date) {
+    PriceSeries series = PriceSeries.of(ticker);
+    if (date.compareTo(series.getDate(0)) < 0
+            || date.compareTo(series.getDate(series.size() - 1)) > 0) {
+      throw new IllegalArgumentException("Date " + date + " is invalid.");
+    }
+
+    int index = series.indexOf(date);
+    if (index < 0) {
       throw new IllegalArgumentException(
-              "Cannot find stock " + stock.getTicker() + " with this date:" + givenDate);
+              "Cannot find stock " + ticker + " with this date:" + date);
     }
 
-    return closingPrice * stock.getShares();
+    return series.getClose(index);
   }
 
   /**
-   * Calculates the total value of the portfolio on a given date.
+   * Checks that a date can be valued against a state. Valuing doesn't change the state.
+   *
+   * @param current the state being valued
+   * @param givenDate the date being valued
+   * @throws IllegalArgumentException if date is in the future or before latestDate
+   */
+  private static void checkValuationDate(State current, LocalDate givenDate) {
+    if (givenDate.isAfter(LocalDate.now())) {
+      throw new IllegalArgumentException("Date cannot be in the future.");
+    }
+
+    //throws exception if before latest
+    checkChronological(current.latestDate, givenDate.toString());
+  }
+
+  /**
+   * Calculates the total value of the portfolio on a given date, using the shares held on that
+   * date.
    *
    * @param date the date in the format "YYYY-MM-DD"
    * @return the value of the portfolio on the given date
@@ -218,24 +801,39 @@ public class Portfolio {
   public double calculateTotalValue(String date) {
     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     LocalDate givenDate = LocalDate.parse(date, formatter);
-    double totalValue = 0.0;
+    State current = state.get();
 
-    if (stocks.isEmpty()) {
+    if (current.holdings.isEmpty()) {
       if (givenDate.isAfter(LocalDate.now())) {
         throw new IllegalArgumentException("Date cannot be in the future.");
       }
       return 0.0;
     }
 
-    for (Stock stock : stocks) {
-      totalValue += calculateStockValue(stock, givenDate);
+    checkValuationDate(current, givenDate);
+    Double cached = current.valuations.get("value", date);
+    if (cached != null) {
+      return cached;
     }
+    return computeValue(current, givenDate);
+  }
 
+  //values a state on a date and caches the result
+  private double computeValue(State current, LocalDate givenDate) {
+    String date = givenDate.toString();
+    double totalValue = 0.0;
+    Map<String, Double> holdings = current.ledger.getHoldingsAsOf(date);
+    for (Map.Entry<String, Double> holding : holdings.entrySet()) {
+      totalValue += calculateStockValue(holding.getKey(), holding.getValue(), givenDate);
+    }
+
+    current.valuations.put("value", date, totalValue, holdings.keySet());
     return totalValue;
   }
 
   /**
-   * Gets the distribution of values of stocks in the portfolio on a specific date.
+   * Gets the distribution of values of stocks in the portfolio on a specific date, using the
+   * shares held on that date.
    *
    * @param date the date in the format "YYYY-MM-DD"
    * @return the distribution of values in the format of a map object with stock ticker
@@ -245,27 +843,70 @@ public class Portfolio {
   public Map<String, Double> getDistribution(String date) {
     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     LocalDate givenDate = LocalDate.parse(date, formatter);
-    Map<String, Double> distribution = new HashMap<>();
+    State current = state.get();
 
-    if (stocks.isEmpty()) {
+    if (current.holdings.isEmpty()) {
       if (givenDate.isAfter(LocalDate.now())) {
         throw new IllegalArgumentException("Date cannot be in the future.");
       }
-      return distribution;
+      return new HashMap<>();
     }
 
-    for (Stock stock : stocks) {
-      double stockValue = calculateStockValue(stock, givenDate);
+    checkValuationDate(current, givenDate);
+    Map<String, Double> cached = current.valuations.get("distribution", date);
+    if (cached == null) {
+      cached = computeDistribution(current, givenDate);
+    }
+    return new HashMap<>(cached);
+  }
+
+  //gets the distribution of a state on a date and caches the result
+  private Map<String, Double> computeDistribution(State current, LocalDate givenDate) {
+    String date = givenDate.toString();
+    Map<String, Double> distribution = new HashMap<>();
+    Map<String, Double> holdings = current.ledger.getHoldingsAsOf(date);
+    for (Map.Entry<String, Double> holding : holdings.entrySet()) {
+      double stockValue = calculateStockValue(holding.getKey(), holding.getValue(), givenDate);
       if (stockValue > 0) {
-        distribution.put(stock.getTicker(), stockValue);
+        distribution.put(holding.getKey(), stockValue);
       }
     }
 
+    distribution = Collections.unmodifiableMap(distribution);
+    current.valuations.put("distribution", date, distribution, holdings.keySet());
     return distribution;
   }
 
   /**
-   * Gets the composition of shares of stocks in the portfolio on a specific date.
+   * Recalculates the cached values and distributions that used a stock's prices, after its
+   * price history has been refreshed. Entries that can no longer be valued, such as a date the
+   * new history doesn't have, are left out of the cache.
+   *
+   * @param ticker the stock ticker symbol whose prices changed
+   * @return the number of cached entries recalculated
+   */
+  public int refreshValuations(String ticker) {
+    State current = state.get();
+    int refreshed = 0;
+    for (Map.Entry<String, String> stale : current.valuations.invalidate(ticker)) {
+      LocalDate givenDate = LocalDate.parse(stale.getValue());
+      try {
+        if (stale.getKey().equals("value")) {
+          computeValue(current, givenDate);
+        } else if (stale.getKey().equals("distribution")) {
+          computeDistribution(current, givenDate);
+        }
+        refreshed++;
+      } catch (IllegalArgumentException e) {
+        //the date can't be valued with the new prices, it will fail again when asked for
+      }
+    }
+    return refreshed;
+  }
+
+  /**
+   * Gets the composition of shares of stocks in the portfolio on a specific date, using the
+   * shares held on that date.
    *
    * @param date the date in the format "YYYY-MM-DD"
    * @return the composition of shares in the format of a map object with stock ticker
@@ -275,27 +916,92 @@ public class Portfolio {
   public Map<String, Double> getComposition(String date) {
     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     LocalDate givenDate = LocalDate.parse(date, formatter);
-    Map<String, Double> composition = new HashMap<>();
 
-    if (givenDate.isAfter(LocalDate.now())) {
-      throw new IllegalArgumentException("Date cannot be in the future.");
+    State current = state.get();
+
+    checkValuationDate(current, givenDate);
+    Map<String, Double> cached = current.valuations.get("composition", date);
+    if (cached == null) {
+      cached = Collections.unmodifiableMap(current.ledger.getHoldingsAsOf(date));
+      //shares don't depend on prices
+      current.valuations.put("composition", date, cached, Collections.emptyList());
     }
 
-    updateLatestDate(date);
+    return new HashMap<>(cached);
+  }
 
-    if (stocks.isEmpty()) {
-      return composition;
+  /**
+   * Calculates the value of the portfolio on each date of a chart, from the start date to the end
+   * date at the increments of the given timespan. The dates are the trading days of the first
+   * stock in the portfolio, as in a performance visualization.
+   *
+   * @param startDate the first date in the format "YYYY-MM-DD"
+   * @param endDate the last date in the format "YYYY-MM-DD"
+   * @param step the timespan between dates
+   * @return the value of the portfolio on each date, in order
+   * @throws IllegalArgumentException if the portfolio has no stocks
+   */
+  public double[] valueSeries(String startDate, String endDate, Timespan step) {
+    Stock first = state.get().holdings.first();
+    if (first == null) {
+      throw new IllegalArgumentException("Portfolio '" + name + "' has no stocks to value.");
     }
+    return valueSeries(step.getDateIncrements(startDate, endDate, first.getTicker()));
+  }
 
-    for (Stock stock : stocks) {
-      LocalDate stockDateAdded = LocalDate.parse(stock.getDateAdded(), formatter);
-      //put stocks added on or before the given date
-      if (!stockDateAdded.isAfter(givenDate)) {
-        composition.put(stock.getTicker(), stock.getShares());
+  /**
+   * Calculates the value of the portfolio on each of the given dates in one pass: the trades and
+   * each holding's price history are walked forward with a cursor instead of being searched for
+   * every date. Each stock is valued at its last closing price on or before the date, using the
+   * shares held on that date. Like getHoldingsAsOf, this is a read of past values and does not
+   * count as a portfolio operation.
+   *
+   * @param dates the dates to value the portfolio on, in chronological order
+   * @return the value of the portfolio on each date, in the same order
+   * @throws IllegalArgumentException if the dates are not in chronological order
+   */
+  public double[] valueSeries(List<LocalDate> dates) {
+    double[] values = new double[dates.size()];
+    List<Trade> trades = state.get().ledger.getTrades();
+    Map<String, Double> holdings = new LinkedHashMap<>();
+    Map<String, PriceSeries> series = new HashMap<>();
+    //index of the last trading day on or before the current date, per stock
+    Map<String, Integer> cursors = new HashMap<>();
+    int nextTrade = 0;
+
+    for (int i = 0; i < values.length; i++) {
+      String date = dates.get(i).toString();
+      if (i > 0 && dates.get(i).isBefore(dates.get(i - 1))) {
+        throw new IllegalArgumentException("Dates must be in chronological order.");
       }
-    }
 
-    return composition;
+      //applies the trades made up to this date
+      while (nextTrade < trades.size() && trades.get(nextTrade).getDate().compareTo(date) <= 0) {
+        Trade trade = trades.get(nextTrade);
+        double shares = holdings.getOrDefault(trade.getTicker(), 0.0) + trade.getShareChange();
+        if (shares > 0) {
+          holdings.put(trade.getTicker(), shares);
+        } else {
+          holdings.remove(trade.getTicker());
+        }
+        nextTrade++;
+      }
+
+      double total = 0.0;
+      for (Map.Entry<String, Double> holding : holdings.entrySet()) {
+        PriceSeries prices = series.computeIfAbsent(holding.getKey(), PriceSeries::of);
+        int cursor = cursors.getOrDefault(holding.getKey(), -1);
+        while (cursor + 1 < prices.size() && prices.getDate(cursor + 1).compareTo(date) <= 0) {
+          cursor++;
+        }
+        cursors.put(holding.getKey(), cursor);
+        if (cursor >= 0) {
+          total += prices.getClose(cursor) * holding.getValue();
+        }
+      }
+      values[i] = total;
+    }
+    return values;
   }
 
   /**
@@ -304,36 +1010,138 @@ public class Portfolio {
    *
    * @param percentages the intended distribution percentages
    * @param date the date  in the format "YYYY-MM-DD"
+   * @return the plan whose trades were made
    * @throws IllegalArgumentException if percentage list is empty or doesn't match portfolio size
    *         or if date is in future, invalid, or before latestDate
    */
-  public void rebalance(List<Integer> percentages, String date) {
-    if (percentages == null || percentages.isEmpty() || percentages.size() != stocks.size()) {
+  public RebalancePlan rebalance(List<Integer> percentages, String date) {
+    //every trade of the rebalance is swapped in at once, so no one sees it half done
+    RebalancePlan plan = planRebalance(percentages, date);
+    while (!commitRebalance(plan, false)) {
+      //another trade got in first, so plan again against the newer state
+      plan = planRebalance(percentages, date);
+    }
+    return plan;
+  }
+
+  /**
+   * Plans a rebalance by the order the stocks are listed in, without changing the portfolio.
+   *
+   * @param percentages the intended distribution percentages, in the order of getStocks
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the trades that would rebalance the portfolio
+   * @throws IllegalArgumentException if percentage list is empty or doesn't match portfolio size
+   *         or if date is in future, invalid, or before latestDate
+   */
+  public RebalancePlan planRebalance(List<Integer> percentages, String date) {
+    State current = state.get();
+    if (percentages == null || percentages.isEmpty()
+            || percentages.size() != current.holdings.size()) {
       throw new IllegalArgumentException("Percentages list cannot be empty " +
               "and must match the number of stocks in the portfolio.");
     }
 
-    double totalValue = calculateTotalValue(date);
+    //percentages match the stocks in the order they were first added
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    int i = 0;
+    for (Stock stock : current.holdings) {
+      weights.put(stock.getTicker(), percentages.get(i++));
+    }
+    return plan(current, weights, date);
+  }
 
-    for (int i = 0; i < percentages.size(); i++) {
-      Stock stock = this.stocks.get(i);
-      double intendedStockValue = totalValue * (percentages.get(i) / 100.0);
-      double actualStockValue = calculateStockValue(stock,
-              LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd")));
-      double pricePerShare = actualStockValue / stock.getShares();
+  /**
+   * Plans a rebalance without changing the portfolio. Each stock's price is looked up once and
+   * every trade is worked out in one pass over the holdings.
+   *
+   * @param percentages the intended distribution percentage of each stock ticker held
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the trades that would rebalance the portfolio
+   * @throws IllegalArgumentException if the percentages don't cover exactly the stocks held or
+   *         if date is in future, invalid, or before latestDate
+   */
+  public RebalancePlan planRebalance(Map<String, Integer> percentages, String date) {
+    return plan(state.get(), percentages, date);
+  }
 
-      double valueDiff = Math.abs(actualStockValue - intendedStockValue);
-      double updateSharesBy = valueDiff / pricePerShare;
-      //double newShares = intendedStockValue / pricePerShare;
+  /**
+   * Makes every trade of a rebalance plan as one change.
+   *
+   * @param plan a plan made from the current version of this portfolio
+   * @throws IllegalArgumentException if the plan is for another portfolio or the portfolio has
+   *         changed since the plan was made
+   */
+  public void commitRebalance(RebalancePlan plan) {
+    if (!plan.getPortfolioName().equals(name)) {
+      throw new IllegalArgumentException("The rebalance was planned for another portfolio.");
+    }
+    commitRebalance(plan, true);
+  }
+
+  //plans a rebalance of a state, with percentages keyed by ticker
+  private RebalancePlan plan(State current, Map<String, Integer> percentages, String date) {
+    LocalDate givenDate = LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+    if (percentages == null || percentages.isEmpty()
+            || percentages.size() != current.holdings.size()) {
+      throw new IllegalArgumentException("Percentages list cannot be empty " +
+              "and must match the number of stocks in the portfolio.");
+    }
+    for (String ticker : percentages.keySet()) {
+      if (!current.holdings.contains(ticker)) {
+        throw new IllegalArgumentException("Cannot rebalance a stock (" + ticker + ") that "
+                + "doesn't exist in this portfolio '" + name + "'");
+      }
+    }
+    checkValuationDate(current, givenDate);
+
+    //one price lookup per stock
+    Map<String, Double> prices = new LinkedHashMap<>();
+    double totalValue = 0.0;
+    for (Stock stock : current.holdings) {
+      double price = getClosingPrice(stock.getTicker(), date);
+      prices.put(stock.getTicker(), price);
+      totalValue += price * stock.getShares();
+    }
+
+    Map<String, Trade> trades = new LinkedHashMap<>();
+    for (Stock stock : current.holdings) {
+      double price = prices.get(stock.getTicker());
+      double intendedStockValue = totalValue * (percentages.get(stock.getTicker()) / 100.0);
+      double actualStockValue = price * stock.getShares();
+      //never sells more than is held, even after rounding
+      double updateSharesBy = Math.min(Math.abs(actualStockValue - intendedStockValue) / price,
+              actualStockValue > intendedStockValue ? stock.getShares() : Double.MAX_VALUE);
 
       if (actualStockValue > intendedStockValue) { //sell to rebalance
-        updateStock(stock.getTicker(), updateSharesBy, date, false);
+        trades.put(stock.getTicker(), new Trade(stock.getTicker(), updateSharesBy, date, false));
       } else if (actualStockValue < intendedStockValue) { //buy to rebalance
-        updateStock(stock.getTicker(), updateSharesBy, date, true);
+        trades.put(stock.getTicker(), new Trade(stock.getTicker(), updateSharesBy, date, true));
       }
     }
+    return new RebalancePlan(name, current.version, date, totalValue, trades);
+  }
+
+  /**
+   * Swaps in the state after a plan's trades if the portfolio is still at the plan's version.
+   *
+   * @param plan the rebalance plan
+   * @param strict whether a changed portfolio is an error rather than a reason to plan again
+   * @return true if the plan was committed
+   * @throws IllegalArgumentException if strict and the portfolio changed since the plan was made
+   */
+  private boolean commitRebalance(RebalancePlan plan, boolean strict) {
+    State current = state.get();
+    boolean committed = current.version == plan.getVersion()
+            && (plan.getTrades().isEmpty() || state.compareAndSet(current,
+                    trade(current, new ArrayList<>(plan.getTrades().values()))));
+    if (!committed && strict) {
+      throw new IllegalArgumentException("Portfolio '" + name + "' has changed since the "
+              + "rebalance was planned.");
+    }
+    return committed;
   }
 
+
   /**
    * Overrides the equals method and evaluates a portfolio with the same stocks in
    * the same order and the same portfolio name as equal to on another.
@@ -350,6 +1158,8 @@ public class Portfolio {
       return false;
     }
     Portfolio portfolio = (Portfolio) o;
+    State current = state.get();
+    State other = portfolio.state.get();
 
     //check name equality first
     if (!Objects.equals(name, portfolio.getName())) {
@@ -357,22 +1167,17 @@ public class Portfolio {
     }
 
     //check stocks size first for early return
-    if (stocks.size() != portfolio.stocks.size()) {
+    if (current.holdings.size() != other.holdings.size()) {
       return false;
     }
 
     //check latest date
-    if (!Objects.equals(latestDate, portfolio.latestDate)) {
+    if (!Objects.equals(current.latestDate, other.latestDate)) {
       return false;
     }
 
-    //check each stock
-    for (int i = 0; i < stocks.size(); i++) {
-      if (!stocks.get(i).equals(portfolio.stocks.get(i))) {
-        return false;
-      }
-    }
-    return true;
+    //check each stock in order
+    return current.holdings.equals(other.holdings);
   }
 
   /**
@@ -382,7 +1187,31 @@ public class Portfolio {
    */
   @Override
   public int hashCode() {
-    return Objects.hash(name, stocks, latestDate);
+    State current = state.get();
+    return Objects.hash(name, current.holdings, current.latestDate);
+  }
+
+  //an immutable state of the portfolio, the holdings are never changed once in a state
+  private static final class State {
+    private final long version;
+    private final Holdings holdings;
+    private final TradeLedger ledger;
+    private final String latestDate;
+    private final ValuationCache valuations;
+    //recurring investment plans by name, in the order they were added
+    private final Map<String, RecurringPlan> plans;
+    private final TaxLots lots;
+
+    private State(long version, Holdings holdings, TradeLedger ledger, String latestDate,
+                  ValuationCache valuations, Map<String, RecurringPlan> plans, TaxLots lots) {
+      this.version = version;
+      this.holdings = holdings;
+      this.ledger = ledger;
+      this.latestDate = latestDate;
+      this.valuations = valuations;
+      this.plans = plans;
+      this.lots = lots;
+    }
   }
 
   /**
@@ -392,7 +1221,10 @@ public class Portfolio {
   public static class PortfolioBuilder {
     private String name;
     private List<Stock> stocks = new ArrayList<>();
+    private List<RecurringPlan> plans = new ArrayList<>();
     private String latestDate;
+    private TaxLots lots;
+    private List<Trade> trades;
 
     /**
      * Constructs a PortfolioBuilder with fields initialized to an empty
@@ -424,13 +1256,46 @@ public class Portfolio {
       return this;
     }
 
+    /**
+     * Adds a recurring investment plan to the portfolio builder. The plan's investments before
+     * its next date are taken to be in the stocks already.
+     * @param plan a recurring plan of the portfolio
+     * @return the current updated builder
+     */
+    public PortfolioBuilder addPlan(RecurringPlan plan) {
+      this.plans.add(plan);
+      return this;
+    }
+
+    /**
+     * Sets the tax lots the portfolio was saved with. Without them, each stock starts as one lot
+     * whose price is looked up when first needed.
+     * @param lots the saved tax lots
+     * @return the current updated builder
+     */
+    public PortfolioBuilder lots(TaxLots lots) {
+      this.lots = lots;
+      return this;
+    }
+
+    /**
+     * Sets the trades the portfolio was saved with, so its holdings on past dates are kept.
+     * Without them, each stock starts as bought in full on the date it was added.
+     * @param trades the saved trades in date order
+     * @return the current updated builder
+     */
+    public PortfolioBuilder trades(List<Trade> trades) {
+      this.trades = trades;
+      return this;
+    }
+
     /**
      * Builds a Portfolio object with the previously inputted fields of the
      * portfolio builder.
      * @return a portfolio
      */
     public Portfolio build() {
-      return new Portfolio(name, stocks);
+      return new Portfolio(name, stocks, plans, lots, trades);
     }
   }
 }
@@ -0,0 +1,269 @@
+package stockmarket;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Represents the catalog of saved portfolios in a directory: for each portfolio name, the file it
+ * was saved to with that file's size and last-modified time. The catalog is kept in a file of its
+ * own, one line per portfolio, so thousands of saved portfolios are listed by reading that one
+ * file, without opening or parsing any portfolio file.
+ *
+ * <p>Saves made through the program keep the catalog up to date. If the catalog file is missing,
+ * or refresh is called, it is rebuilt from the directory listing, naming each portfolio after its
+ * file; this reads only file attributes. When a file has both an XML and a binary version, the
+ * newer one is listed.
+ */
+public class PortfolioCatalog {
+  /**
+   * The name of the catalog file in the portfolio directory.
+   */
+  public static final String FILE_NAME = "catalog.tsv";
+
+  private final Path directory;
+  private final Path catalogPath;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  //whether the catalog has changed since it was last written
+  private volatile boolean changed;
+
+  /**
+   * Constructs the catalog of a directory, reading the catalog file or building it from the
+   * directory listing if there is none.
+   * @param directory the portfolio directory
+   * @throws IllegalArgumentException if the catalog can't be read or built
+   */
+  public PortfolioCatalog(String directory) {
+    this.directory = Paths.get(directory);
+    this.catalogPath = this.directory.resolve(FILE_NAME);
+    try {
+      if (Files.isRegularFile(catalogPath)) {
+        read();
+      } else {
+        refresh();
+        flush();
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read the portfolio catalog of '" + directory
+              + "'.", e);
+    }
+  }
+
+  /**
+   * Gets the catalog entry of a portfolio.
+   * @param portfolioName the name of the portfolio
+   * @return the entry, or null if no saved portfolio has that name
+   */
+  public Entry get(String portfolioName) {
+    return entries.get(portfolioName);
+  }
+
+  /**
+   * Gets the file each saved portfolio was saved to.
+   * @return an unmodifiable map of each portfolio name to its file name, in name order
+   */
+  public Map<String, String> getFiles() {
+    Map<String, String> files = new TreeMap<>();
+    for (Entry entry : entries.values()) {
+      files.put(entry.getName(), entry.getFileName());
+    }
+    return Collections.unmodifiableMap(files);
+  }
+
+  /**
+   * Gets the number of saved portfolios.
+   * @return the number of entries
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Records that a portfolio was saved to a file, reading the file's size and last-modified time.
+   * @param portfolioName the name of the portfolio
+   * @param path the file it was saved to
+   * @throws IllegalArgumentException if the file's attributes can't be read
+   */
+  public void put(String portfolioName, Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      entries.put(portfolioName, new Entry(portfolioName, path.getFileName().toString(),
+              attributes.size(), attributes.lastModifiedTime().toMillis()));
+      changed = true;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read file '" + path.getFileName() + "'.", e);
+    }
+  }
+
+  /**
+   * Removes a portfolio from the catalog, such as when its file is gone.
+   * @param portfolioName the name of the portfolio
+   */
+  public void remove(String portfolioName) {
+    if (entries.remove(portfolioName) != null) {
+      changed = true;
+    }
+  }
+
+  /**
+   * Rebuilds the catalog from the portfolio files in the directory, naming each portfolio after
+   * its file. No portfolio file is opened.
+   * @throws IOException if the directory can't be listed
+   */
+  public void refresh() throws IOException {
+    Map<String, Entry> found = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path path : files) {
+        String fileName = path.getFileName().toString();
+        String name = PortfolioFormat.stripExtension(fileName);
+        if (name.equals(fileName)) {
+          continue;
+        }
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          //deleted while listing
+          continue;
+        }
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+        Entry entry = new Entry(name, fileName, attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+        Entry other = found.get(name);
+        if (other == null || entry.getLastModified() > other.getLastModified()) {
+          found.put(name, entry);
+        }
+      }
+    }
+    entries.clear();
+    entries.putAll(found);
+    changed = true;
+  }
+
+  /**
+   * Writes the catalog file if the catalog has changed. The file is replaced atomically.
+   * @throws IllegalArgumentException if the catalog file can't be written
+   */
+  public synchronized void flush() {
+    if (!changed) {
+      return;
+    }
+    changed = false;
+    Path temporary = Paths.get(catalogPath + ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        for (Entry entry : new TreeMap<>(entries).values()) {
+          writer.write(encode(entry.getName()) + "\t" + encode(entry.getFileName()) + "\t"
+                  + entry.getSize() + "\t" + entry.getLastModified());
+          writer.newLine();
+        }
+      }
+      Files.move(temporary, catalogPath, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      changed = true;
+      throw new IllegalArgumentException("Could not write the portfolio catalog.", e);
+    }
+  }
+
+  /**
+   * Gets the path of a catalogued portfolio's file.
+   * @param entry the catalog entry
+   * @return the path of the file in the portfolio directory
+   */
+  public Path resolve(Entry entry) {
+    return directory.resolve(entry.getFileName());
+  }
+
+  //reads the whole catalog file at once
+  private void read() throws IOException {
+    List<String> lines = Files.readAllLines(catalogPath, StandardCharsets.UTF_8);
+    for (String line : lines) {
+      String[] fields = line.split("\t");
+      if (fields.length != 4) {
+        continue;
+      }
+      try {
+        String name = decode(fields[0]);
+        entries.put(name, new Entry(name, decode(fields[1]), Long.parseLong(fields[2]),
+                Long.parseLong(fields[3])));
+      } catch (IllegalArgumentException e) {
+        //a damaged line only loses that entry
+      }
+    }
+  }
+
+  private static String encode(String text) {
+    return URLEncoder.encode(text, StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String text) {
+    return URLDecoder.decode(text, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Represents one saved portfolio in the catalog. Entries are immutable.
+   */
+  public static final class Entry {
+    private final String name;
+    private final String fileName;
+    private final long size;
+    private final long lastModified;
+
+    private Entry(String name, String fileName, long size, long lastModified) {
+      this.name = name;
+      this.fileName = fileName;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Gets the name of the portfolio.
+     * @return the portfolio name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Gets the name of the file the portfolio was saved to.
+     * @return the file name, with its extension
+     */
+    public String getFileName() {
+      return fileName;
+    }
+
+    /**
+     * Gets the size of the file when it was catalogued.
+     * @return the size in bytes
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Gets the last-modified time of the file when it was catalogued.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package stockmarket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class saves portfolios to and loads them from the portfolio directory, in any of the
+ * portfolio formats. The format of a file being loaded is detected from its contents, so a
+ * portfolio can be loaded by name without knowing how it was saved.
+ */
+public class PortfolioFiles {
+  /**
+   * The directory portfolios are saved in.
+   */
+  public static final String DIRECTORY = "src/portfolio/";
+
+  /**
+   * Saves a portfolio to a file in the portfolio directory. The file is replaced atomically, so
+   * it holds either the old portfolio or the new one even if the program crashes mid-save.
+   * @param portfolio the portfolio to save
+   * @param fileName the name of the file, the extension of the format is added if missing
+   * @param format the format to save the portfolio in
+   * @return the path of the file written
+   * @throws IllegalArgumentException if the file can't be written
+   */
+  public static Path save(Portfolio portfolio, String fileName, PortfolioFormat format) {
+    Path path = path(fileName, format);
+    write(portfolio, path, format);
+    return path;
+  }
+
+  /**
+   * Gets the path a portfolio would be saved to.
+   * @param fileName the name of the file, the extension of the format is added if missing
+   * @param format the format the portfolio is saved in
+   * @return the path of the file
+   */
+  public static Path path(String fileName, PortfolioFormat format) {
+    return Paths.get(DIRECTORY + PortfolioFormat.stripExtension(fileName)
+            + format.getExtension());
+  }
+
+  /**
+   * Writes a portfolio to a new temporary file beside the given path, forces it to disk and then
+   * renames it over the path in one atomic step.
+   * @param portfolio the portfolio to write
+   * @param path the path of the file
+   * @param format the format to write the portfolio in
+   * @throws IllegalArgumentException if the file can't be written
+   */
+  public static void write(Portfolio portfolio, Path path, PortfolioFormat format) {
+    Path temporary = null;
+    try {
+      //a unique temporary file, so two saves to one path never write the same file
+      temporary = Files.createTempFile(path.toAbsolutePath().getParent(),
+              path.getFileName().toString(), ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+        if (format == PortfolioFormat.XML) {
+          XMLParser.write(portfolio, out);
+        } else {
+          BinaryParser.write(portfolio, out, format == PortfolioFormat.COMPRESSED_BINARY);
+        }
+        out.flush();
+        channel.force(true);
+      }
+      Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      deleteQuietly(temporary);
+      throw new IllegalArgumentException("Could not save portfolio '" + portfolio.getName()
+              + "' to file '" + path.getFileName() + "'.", e);
+    }
+  }
+
+  /**
+   * Loads a portfolio from a file in the portfolio directory. A file name without an extension
+   * loads whichever of its XML and binary files exists, the newer one if both do. The portfolio
+   * is marked as persisted, so it isn't written again until it changes.
+   * @param fileName the name of the file, with or without an extension
+   * @return the portfolio
+   * @throws IllegalArgumentException if there is no such file or it isn't a valid portfolio
+   */
+  public static Portfolio load(String fileName) {
+    return load(find(fileName));
+  }
+
+  /**
+   * Loads a portfolio from a file, in whichever format it was saved. The portfolio is marked as
+   * persisted, so it isn't written again until it changes.
+   * @param path the path of the file
+   * @return the portfolio
+   * @throws IllegalArgumentException if the file can't be read or isn't a valid portfolio
+   */
+  public static Portfolio load(Path path) {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+      Portfolio portfolio = BinaryParser.isBinary(in) ? BinaryParser.read(in) : XMLParser.read(in);
+      //a portfolio just loaded matches its file
+      portfolio.markPersisted(portfolio.getVersion());
+      return portfolio;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not load portfolio file '" + path.getFileName()
+              + "'.", e);
+    }
+  }
+
+  /**
+   * Finds the file a portfolio would be loaded from.
+   * @param fileName the name of the file, with or without an extension
+   * @return the path of the file
+   * @throws IllegalArgumentException if there is no such file
+   */
+  public static Path find(String fileName) {
+    String baseName = PortfolioFormat.stripExtension(fileName);
+    if (!baseName.equals(fileName)) {
+      Path path = Paths.get(DIRECTORY + fileName);
+      if (Files.isRegularFile(path)) {
+        return path;
+      }
+    } else {
+      Path xml = Paths.get(DIRECTORY + baseName + PortfolioFormat.XML.getExtension());
+      Path binary = Paths.get(DIRECTORY + baseName + PortfolioFormat.BINARY.getExtension());
+      boolean hasXml = Files.isRegularFile(xml);
+      boolean hasBinary = Files.isRegularFile(binary);
+      if (hasXml && hasBinary) {
+        return lastModified(binary) > lastModified(xml) ? binary : xml;
+      } else if (hasXml || hasBinary) {
+        return hasXml ? xml : binary;
+      }
+    }
+    throw new IllegalArgumentException("No saved portfolio file '" + fileName + "' found.");
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      if (path != null) {
+        Files.deleteIfExists(path);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static long lastModified(Path path) {
+    try {
+      return Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
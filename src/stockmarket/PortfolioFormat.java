@@ -0,0 +1,60 @@
+package stockmarket;
+
+/**
+ * Represents the file formats a portfolio can be saved in. XML is the readable format used to
+ * exchange portfolios; the binary formats are smaller and much faster to load.
+ */
+public enum PortfolioFormat {
+  /**
+   * The XML format read and written by XMLParser.
+   */
+  XML(".xml"),
+
+  /**
+   * The binary format read and written by BinaryParser.
+   */
+  BINARY(".spf"),
+
+  /**
+   * The binary format, compressed with Deflater.
+   */
+  COMPRESSED_BINARY(".spf");
+
+  private final String extension;
+
+  PortfolioFormat(String extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * Gets the extension of files saved in this format.
+   * @return the extension, including the '.'
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Gets the format a file name asks to be saved in, binary if it ends with ".spf" and XML
+   * otherwise.
+   * @param fileName the file name, with or without an extension
+   * @return the format of the file
+   */
+  public static PortfolioFormat ofFileName(String fileName) {
+    return fileName.endsWith(BINARY.extension) ? BINARY : XML;
+  }
+
+  /**
+   * Removes the extension of a portfolio file from a file name, if it has one.
+   * @param fileName the file name, with or without an extension
+   * @return the file name without an XML or binary extension
+   */
+  public static String stripExtension(String fileName) {
+    for (PortfolioFormat format : values()) {
+      if (fileName.endsWith(format.extension)) {
+        return fileName.substring(0, fileName.length() - format.extension.length());
+      }
+    }
+    return fileName;
+  }
+}
@@ -0,0 +1,160 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the portfolios of a stock model, indexed by name. Lookups take constant time, and
+ * registering and replacing a portfolio are single atomic steps, so concurrent requests never
+ * create the same portfolio twice and readers never see a portfolio that is only partly loaded.
+ * Portfolios are listed in the order they were first registered; listing is weakly consistent,
+ * reflecting some state of the registry at or after the time it started.
+ */
+public class PortfolioRegistry {
+  private final ConcurrentMap<String, Registered> portfolios;
+  private final AtomicLong nextOrder;
+
+  /**
+   * Constructs an empty portfolio registry.
+   */
+  public PortfolioRegistry() {
+    this.portfolios = new ConcurrentHashMap<>();
+    this.nextOrder = new AtomicLong();
+  }
+
+  /**
+   * Gets the portfolio with the given name.
+   *
+   * @param name the name of the portfolio
+   * @return the portfolio, or null if there is none with that name
+   */
+  public Portfolio get(String name) {
+    Registered registered = portfolios.get(name);
+    return registered == null ? null : registered.portfolio;
+  }
+
+  /**
+   * Registers a portfolio unless one with the same name already exists.
+   *
+   * @param portfolio the portfolio to register
+   * @return true if the portfolio was registered, false if the name was taken
+   */
+  public boolean registerIfAbsent(Portfolio portfolio) {
+    //the order is only used if the portfolio is registered, so gaps are harmless
+    return portfolios.putIfAbsent(portfolio.getName(),
+            new Registered(nextOrder.getAndIncrement(), portfolio)) == null;
+  }
+
+  /**
+   * Registers a loaded portfolio. If a portfolio with the same name exists it is replaced in
+   * place, but only if it holds the same stocks, since a different portfolio must not be
+   * overwritten.
+   *
+   * @param portfolio the loaded portfolio
+   * @return the portfolio replaced, or null if there was none
+   * @throws IllegalArgumentException if a different portfolio with the same name exists
+   */
+  public Portfolio registerOrReplace(Portfolio portfolio) {
+    Registered[] previous = new Registered[1];
+    replace(portfolio, previous);
+    return previous[0] == null ? null : previous[0].portfolio;
+  }
+
+  /**
+   * Registers loaded portfolios together, each as registerOrReplace would. Either all of them
+   * are registered or, if one clashes with a different portfolio of the same name, none are:
+   * those the batch already registered are removed again and any they replaced are put back.
+   *
+   * @param loaded the loaded portfolios
+   * @return the portfolio each one replaced, or null where there was none, in the same order
+   * @throws IllegalArgumentException if a different portfolio with the same name as one of them
+   *         exists
+   */
+  public List<Portfolio> registerAllOrReplace(List<Portfolio> loaded) {
+    List<Registered> added = new ArrayList<>();
+    List<Registered> replaced = new ArrayList<>();
+    try {
+      for (Portfolio portfolio : loaded) {
+        Registered[] previous = new Registered[1];
+        added.add(replace(portfolio, previous));
+        replaced.add(previous[0]);
+      }
+    } catch (IllegalArgumentException e) {
+      //undone newest first, so a name registered twice in the batch ends up as it began
+      for (int i = added.size() - 1; i >= 0; i--) {
+        String name = added.get(i).portfolio.getName();
+        if (replaced.get(i) == null) {
+          portfolios.remove(name, added.get(i));
+        } else {
+          portfolios.replace(name, added.get(i), replaced.get(i));
+        }
+      }
+      throw e;
+    }
+    List<Portfolio> previous = new ArrayList<>();
+    for (Registered registered : replaced) {
+      previous.add(registered == null ? null : registered.portfolio);
+    }
+    return previous;
+  }
+
+  //registers or replaces a portfolio, keeping what it replaced in previous[0]
+  private Registered replace(Portfolio portfolio, Registered[] previous) {
+    return portfolios.compute(portfolio.getName(), (name, existing) -> {
+      previous[0] = existing;
+      if (existing == null) {
+        return new Registered(nextOrder.getAndIncrement(), portfolio);
+      }
+      if (!existing.portfolio.equals(portfolio)) {
+        throw new IllegalArgumentException("Portfolio already exists.");
+      }
+      return new Registered(existing.order, portfolio);
+    });
+  }
+
+  /**
+   * Removes the given portfolio, if it is still the one registered under its name.
+   *
+   * @param portfolio the portfolio to remove
+   * @return true if the portfolio was removed
+   */
+  public boolean remove(Portfolio portfolio) {
+    Registered registered = portfolios.get(portfolio.getName());
+    return registered != null && registered.portfolio == portfolio
+            && portfolios.remove(portfolio.getName(), registered);
+  }
+
+  /**
+   * Gets the number of portfolios registered.
+   * @return the number of portfolios
+   */
+  public int size() {
+    return portfolios.size();
+  }
+
+  /**
+   * Gets the portfolios in the order they were first registered.
+   * @return a new list of the portfolios
+   */
+  public List<Portfolio> list() {
+    List<Registered> registered = new ArrayList<>(portfolios.values());
+    registered.sort(Comparator.comparingLong(entry -> entry.order));
+    return registered.stream().map(entry -> entry.portfolio).collect(Collectors.toList());
+  }
+
+  //a registered portfolio along with when its name was first registered
+  private static class Registered {
+    private final long order;
+    private final Portfolio portfolio;
+
+    private Registered(long order, Portfolio portfolio) {
+      this.order = order;
+      this.portfolio = portfolio;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package stockmarket;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves portfolios on background I/O threads, so the caller, such as the Swing event thread,
+ * never waits for the disk. Each file is replaced atomically (PortfolioFiles.write).
+ *
+ * <p>Saves to the same file are coalesced: a save asked for while an earlier one to that file is
+ * still waiting or being written replaces what will be written next, so only the latest state is
+ * written once and every caller hears when it is on disk. Saves to different files are written
+ * in parallel, by at most the given number of threads. Coalescing only applies to callers of
+ * this class: the model removes a portfolio while it is saved, so it never saves one twice at
+ * once.
+ */
+public class PortfolioSaver {
+  //idle threads stop after this long, so a saver that isn't used holds no threads
+  private static final long KEEP_ALIVE_SECONDS = 30;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final ThreadPoolExecutor executor;
+  //only files with saves waiting or being written have a slot
+  private final Map<Path, Slot> slots = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a saver that writes up to the given number of files at once.
+   * @param threads the most files written at once
+   * @throws IllegalArgumentException if threads isn't positive
+   */
+  public PortfolioSaver(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of save threads must be positive.");
+    }
+    this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+              Thread thread = new Thread(task, "portfolio-saver-"
+                      + THREAD_COUNT.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Saves a portfolio in the background. The portfolio is copied as it is now, so changes made
+   * after this call aren't saved by it.
+   * @param portfolio the portfolio to save
+   * @param fileName the name of the file, the extension of the format is added if missing
+   * @param format the format to save the portfolio in
+   * @return a future completed with the path of the file once the portfolio, or a later state
+   *         of it saved to the same file, is on disk, or completed exceptionally with an
+   *         IllegalArgumentException if the file can't be written
+   */
+  public CompletableFuture<Path> save(Portfolio portfolio, String fileName,
+                                      PortfolioFormat format) {
+    Path path = PortfolioFiles.path(fileName, format);
+    Portfolio snapshot = portfolio.fork(portfolio.getName());
+    CompletableFuture<Path> saved = new CompletableFuture<>();
+    while (true) {
+      Slot slot = slots.computeIfAbsent(path, key -> new Slot());
+      boolean schedule;
+      synchronized (slot) {
+        //a slot removed once idle takes no more saves, the next one gets a new slot
+        if (slot.removed) {
+          continue;
+        }
+        slot.latest = snapshot;
+        slot.format = format;
+        slot.waiting.add(saved);
+        schedule = !slot.scheduled;
+        slot.scheduled = true;
+      }
+      if (schedule) {
+        executor.execute(() -> drain(path, slot));
+      }
+      return saved;
+    }
+  }
+
+  //writes the latest state asked for until no more saves to the file are waiting, then removes
+  //the slot
+  private void drain(Path path, Slot slot) {
+    while (true) {
+      Portfolio portfolio;
+      PortfolioFormat format;
+      List<CompletableFuture<Path>> done;
+      synchronized (slot) {
+        if (slot.waiting.isEmpty()) {
+          slot.scheduled = false;
+          slot.removed = true;
+          slots.remove(path, slot);
+          return;
+        }
+        portfolio = slot.latest;
+        format = slot.format;
+        done = slot.waiting;
+        slot.latest = null;
+        slot.waiting = new ArrayList<>();
+      }
+      try {
+        PortfolioFiles.write(portfolio, path, format);
+        done.forEach(future -> future.complete(path));
+      } catch (RuntimeException e) {
+        done.forEach(future -> future.completeExceptionally(e));
+      }
+    }
+  }
+
+  /**
+   * Represents the saves waiting to be written to one file.
+   */
+  private static final class Slot {
+    private Portfolio latest;
+    private PortfolioFormat format;
+    private List<CompletableFuture<Path>> waiting = new ArrayList<>();
+    //whether a thread is writing, or about to write, this file
+    private boolean scheduled;
+    //whether the slot was removed from the saver once nothing was left to write
+    private boolean removed;
+  }
+}
@@ -0,0 +1,640 @@
+package stockmarket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Represents an embedded store that keeps any number of portfolios in one file, instead of one
+ * file per portfolio.
+ *
+ * <p>The data file is only ever appended to. It starts with a header of the magic number
+ * "SPS\0", a version and a generation number, followed by records. A record is:
+ * <ul>
+ *   <li>its length</li>
+ *   <li>its entries, each a portfolio name and either the portfolio in the binary portfolio
+ *   format (BinaryParser) or a mark that the portfolio was deleted</li>
+ *   <li>a CRC32 of the entries, so a record torn by a crash is found and cut off</li>
+ * </ul>
+ * A record is whole or ignored, so the portfolios written by one putAll are updated together.
+ * An in-memory index maps each name to where its latest portfolio is in the file, and reads
+ * copy it straight out of a memory mapping of the file.
+ *
+ * <p>On close the index is written to a snapshot file beside the data file, with the data file's
+ * generation and length. On opening, the snapshot is read and only the records after it are
+ * scanned; without a snapshot for this generation the whole file is scanned. Portfolios that
+ * have been replaced or deleted leave dead bytes behind, and once they outweigh the live ones a
+ * background thread rewrites the file with only the live portfolios, under a new generation.
+ */
+public class PortfolioStore implements Closeable {
+  private static final int MAGIC = 0x53505300;
+  private static final int INDEX_MAGIC = 0x53505349;
+  private static final int VERSION = 1;
+  //magic, version and generation
+  private static final int HEADER_BYTES = 16;
+  //a longer length can only be a torn or corrupt record
+  private static final int MAX_RECORD_BYTES = 1 << 26;
+  //the body length of an entry that deletes its portfolio
+  private static final int DELETED = -1;
+
+  private final Path path;
+  private final Path indexPath;
+  private final long compactBytes;
+  //held while appending to or replacing the data file
+  private final Object writeLock = new Object();
+  private final ExecutorService background;
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+  private volatile Data data;
+  private volatile boolean closed;
+
+  /**
+   * Opens the store in a data file, compacting it in the background once at least a megabyte of
+   * it is dead.
+   * @param path the path of the data file, created if missing
+   * @throws IllegalArgumentException if the file can't be opened or isn't a portfolio store
+   */
+  public PortfolioStore(String path) {
+    this(path, 1 << 20);
+  }
+
+  /**
+   * Opens the store in a data file.
+   * @param path the path of the data file, created if missing
+   * @param compactBytes the dead bytes at which the file is compacted, if they also outweigh
+   *                     the live ones
+   * @throws IllegalArgumentException if the file can't be opened or isn't a portfolio store
+   */
+  public PortfolioStore(String path, long compactBytes) {
+    this.path = Paths.get(path);
+    this.indexPath = Paths.get(path + ".idx");
+    this.compactBytes = compactBytes;
+    try {
+      this.data = open();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not open portfolio store '" + path + "': "
+              + e.getMessage(), e);
+    }
+    this.background = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "portfolio-store");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Gets a portfolio from the store. The portfolio is marked as persisted.
+   * @param portfolioName the name of the portfolio
+   * @return a new copy of the portfolio, or null if the store has no portfolio with that name
+   * @throws IllegalArgumentException if the portfolio can't be read
+   */
+  public Portfolio get(String portfolioName) {
+    while (true) {
+      Data current = data;
+      Location location = current.index.get(portfolioName);
+      if (location == null) {
+        return null;
+      }
+      try {
+        Portfolio portfolio = BinaryParser.read(new ByteArrayInputStream(read(current,
+                location)));
+        portfolio.markPersisted(portfolio.getVersion());
+        return portfolio;
+      } catch (ClosedChannelException e) {
+        if (current == data) {
+          throw new IllegalArgumentException("Portfolio store is closed.", e);
+        }
+        //the file was compacted while reading, so the portfolio is read from the new one
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Could not read portfolio '" + portfolioName
+                + "' from the store.", e);
+      }
+    }
+  }
+
+  /**
+   * Checks whether the store has a portfolio.
+   * @param portfolioName the name of the portfolio
+   * @return true if the store has a portfolio with that name
+   */
+  public boolean contains(String portfolioName) {
+    return data.index.containsKey(portfolioName);
+  }
+
+  /**
+   * Gets the names of the portfolios in the store.
+   * @return an unmodifiable set of the names, in order
+   */
+  public SortedSet<String> names() {
+    return Collections.unmodifiableSortedSet(new TreeSet<>(data.index.keySet()));
+  }
+
+  /**
+   * Gets the number of portfolios in the store.
+   * @return the number of portfolios
+   */
+  public int size() {
+    return data.index.size();
+  }
+
+  /**
+   * Writes a portfolio to the store, replacing any with the same name. The portfolio is copied
+   * as it is now, forced to disk before this returns, and marked as persisted.
+   * @param portfolio the portfolio to write
+   * @throws IllegalArgumentException if the portfolio can't be written
+   */
+  public void put(Portfolio portfolio) {
+    putAll(List.of(portfolio));
+  }
+
+  /**
+   * Writes portfolios to the store in one record, so after a crash either all of them or none
+   * of them are updated. Each is copied as it is now and marked as persisted once on disk.
+   * @param portfolios the portfolios to write
+   * @throws IllegalArgumentException if the portfolios can't be written
+   */
+  public void putAll(Collection<Portfolio> portfolios) {
+    Map<String, Portfolio> snapshots = new LinkedHashMap<>();
+    for (Portfolio portfolio : portfolios) {
+      snapshots.put(portfolio.getName(), portfolio.fork(portfolio.getName()));
+    }
+    if (snapshots.isEmpty()) {
+      return;
+    }
+    Map<String, byte[]> bodies = new LinkedHashMap<>();
+    try {
+      for (Portfolio snapshot : snapshots.values()) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BinaryParser.write(snapshot, body, false);
+        bodies.put(snapshot.getName(), body.toByteArray());
+      }
+    } catch (IOException e) {
+      //writing to memory can't fail
+      throw new IllegalStateException(e);
+    }
+    append(bodies);
+    for (Portfolio portfolio : portfolios) {
+      portfolio.markPersisted(snapshots.get(portfolio.getName()).getVersion());
+    }
+  }
+
+  /**
+   * Deletes a portfolio from the store.
+   * @param portfolioName the name of the portfolio
+   * @return true if the store had the portfolio
+   * @throws IllegalArgumentException if the deletion can't be written
+   */
+  public boolean delete(String portfolioName) {
+    synchronized (writeLock) {
+      if (!data.index.containsKey(portfolioName)) {
+        return false;
+      }
+      Map<String, byte[]> deletion = new LinkedHashMap<>();
+      deletion.put(portfolioName, null);
+      append(deletion);
+      return true;
+    }
+  }
+
+  /**
+   * Rewrites the data file with only the live portfolios, then replaces the old file in one
+   * atomic step. Reads carry on during the rewrite; writes wait for it.
+   * @throws IllegalArgumentException if the file can't be rewritten
+   */
+  public void compact() {
+    synchronized (writeLock) {
+      checkOpen();
+      Data old = data;
+      Path temporary = Paths.get(path + ".compact");
+      long generation = ThreadLocalRandom.current().nextLong();
+      Map<String, Location> index = new ConcurrentHashMap<>();
+      try {
+        long end;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+          write(channel, header(generation));
+          end = HEADER_BYTES;
+          for (Map.Entry<String, Location> entry : old.index.entrySet()) {
+            Map<String, byte[]> live = new LinkedHashMap<>();
+            live.put(entry.getKey(), read(old, entry.getValue()));
+            Record record = encode(live, end);
+            write(channel, record.bytes);
+            end += record.bytes.length;
+            index.putAll(record.locations);
+          }
+          channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        data = new Data(FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE), generation, index, end, 0);
+        old.channel.close();
+        writeIndex(data);
+      } catch (IOException e) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw new IllegalArgumentException("Could not compact portfolio store '" + path + "'.",
+                e);
+      }
+    }
+  }
+
+  /**
+   * Waits for a running background compaction to finish, writes the index snapshot and closes
+   * the data file.
+   * @throws IllegalArgumentException if the index snapshot can't be written
+   */
+  @Override
+  public void close() {
+    synchronized (writeLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    background.shutdown();
+    try {
+      background.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (writeLock) {
+      try {
+        writeIndex(data);
+        data.channel.close();
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Could not close portfolio store '" + path + "'.", e);
+      }
+    }
+  }
+
+  //appends one record of entries, a null body deleting its portfolio, and updates the index
+  private void append(Map<String, byte[]> bodies) {
+    synchronized (writeLock) {
+      checkOpen();
+      Data current = data;
+      Record record = encode(bodies, current.end);
+      try {
+        current.channel.position(current.end);
+        write(current.channel, record.bytes);
+        current.channel.force(false);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Could not write to portfolio store '" + path + "'.",
+                e);
+      }
+      current.end += record.bytes.length;
+      apply(current, record.locations, record.deleted);
+      long live = current.end - HEADER_BYTES - current.dead;
+      if (current.dead >= compactBytes && current.dead > live
+              && compactionScheduled.compareAndSet(false, true)) {
+        background.execute(this::compactInBackground);
+      }
+    }
+  }
+
+  //compacts the data file unless the store was closed first, run on the background thread
+  private void compactInBackground() {
+    compactionScheduled.set(false);
+    synchronized (writeLock) {
+      if (closed) {
+        return;
+      }
+      try {
+        compact();
+      } catch (IllegalArgumentException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  //updates the index with a record's entries, counting what they replace as dead
+  private static void apply(Data data, Map<String, Location> locations,
+                            Map<String, Integer> deleted) {
+    for (Map.Entry<String, Location> entry : locations.entrySet()) {
+      Location replaced = data.index.put(entry.getKey(), entry.getValue());
+      if (replaced != null) {
+        data.dead += replaced.entryBytes;
+      }
+    }
+    for (Map.Entry<String, Integer> entry : deleted.entrySet()) {
+      Location replaced = data.index.remove(entry.getKey());
+      data.dead += entry.getValue() + (replaced == null ? 0 : replaced.entryBytes);
+    }
+  }
+
+  //frames entries as a record to be written at the given offset
+  private static Record encode(Map<String, byte[]> bodies, long offset) {
+    Record record = new Record();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream entries = new DataOutputStream(bytes);
+    try {
+      entries.writeInt(bodies.size());
+      for (Map.Entry<String, byte[]> entry : bodies.entrySet()) {
+        int start = bytes.size();
+        entries.writeUTF(entry.getKey());
+        byte[] body = entry.getValue();
+        if (body == null) {
+          entries.writeInt(DELETED);
+          record.deleted.put(entry.getKey(), bytes.size() - start);
+        } else {
+          entries.writeInt(body.length);
+          //the body starts after the record's length field and what's written so far
+          long bodyOffset = offset + 4 + bytes.size();
+          entries.write(body);
+          record.locations.put(entry.getKey(), new Location(bodyOffset, body.length,
+                  bytes.size() - start));
+        }
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.size() + 8);
+      DataOutputStream out = new DataOutputStream(framed);
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      out.writeInt((int) crc.getValue());
+      record.bytes = framed.toByteArray();
+    } catch (IOException e) {
+      //writing to memory can't fail
+      throw new IllegalStateException(e);
+    }
+    if (record.bytes.length - 8 > MAX_RECORD_BYTES) {
+      throw new IllegalArgumentException("Portfolios are too large to write in one record.");
+    }
+    return record;
+  }
+
+  //opens the data file and builds its index from the snapshot and the records after it
+  private Data open() throws IOException {
+    Files.deleteIfExists(Paths.get(path + ".compact"));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (channel.size() == 0) {
+        long generation = ThreadLocalRandom.current().nextLong();
+        write(channel, header(generation));
+        channel.force(true);
+        return new Data(channel, generation, new ConcurrentHashMap<>(), HEADER_BYTES, 0);
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        //reads the whole header
+      }
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC
+              || header.getInt() != VERSION) {
+        throw new IOException("Not a portfolio store.");
+      }
+      Data data = readIndex(channel, header.getLong());
+      scan(data);
+      return data;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  //reads the index snapshot if it's of this generation, or starts an empty index
+  private Data readIndex(FileChannel channel, long generation) throws IOException {
+    Data empty = new Data(channel, generation, new ConcurrentHashMap<>(), HEADER_BYTES, 0);
+    if (!Files.isRegularFile(indexPath)) {
+      return empty;
+    }
+    byte[] bytes = Files.readAllBytes(indexPath);
+    if (bytes.length < 4) {
+      return empty;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 4);
+    if (ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) crc.getValue()) {
+      return empty;
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (in.readInt() != INDEX_MAGIC || in.readLong() != generation) {
+      return empty;
+    }
+    long end = in.readLong();
+    long dead = in.readLong();
+    if (end > channel.size()) {
+      return empty;
+    }
+    Map<String, Location> index = new ConcurrentHashMap<>();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      index.put(name, new Location(in.readLong(), in.readInt(), in.readInt()));
+    }
+    return new Data(channel, generation, index, end, dead);
+  }
+
+  //applies the records after the end of the index, cutting off a torn record at the end
+  private static void scan(Data data) throws IOException {
+    FileChannel channel = data.channel;
+    channel.position(data.end);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel)));
+    while (true) {
+      byte[] header = in.readNBytes(4);
+      if (header.length < 4) {
+        break;
+      }
+      int length = ByteBuffer.wrap(header).getInt();
+      if (length < 4 || length > MAX_RECORD_BYTES) {
+        break;
+      }
+      byte[] entries = in.readNBytes(length);
+      byte[] checksum = in.readNBytes(4);
+      CRC32 crc = new CRC32();
+      crc.update(entries);
+      if (entries.length < length || checksum.length < 4
+              || ByteBuffer.wrap(checksum).getInt() != (int) crc.getValue()) {
+        break;
+      }
+      Record record = decode(entries, data.end);
+      data.end += length + 8;
+      apply(data, record.locations, record.deleted);
+    }
+    if (channel.size() > data.end) {
+      channel.truncate(data.end);
+      channel.force(false);
+    }
+  }
+
+  //reads the entries of a record written at the given offset
+  private static Record decode(byte[] entries, long offset) throws IOException {
+    Record record = new Record();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(entries));
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      int start = entries.length - in.available();
+      String name = in.readUTF();
+      int length = in.readInt();
+      if (length == DELETED) {
+        record.deleted.put(name, entries.length - in.available() - start);
+        continue;
+      }
+      long bodyOffset = offset + 4 + entries.length - in.available();
+      if (length < 0 || in.readNBytes(length).length < length) {
+        throw new IOException("Portfolio store record is malformed.");
+      }
+      record.locations.put(name, new Location(bodyOffset, length,
+              entries.length - in.available() - start));
+    }
+    return record;
+  }
+
+  //copies a portfolio's body out of the memory mapping, mapping more of the file if it grew
+  private static byte[] read(Data data, Location location) throws IOException {
+    byte[] body = new byte[location.length];
+    long end = location.offset + location.length;
+    if (end > Integer.MAX_VALUE) {
+      //past what one mapping can hold
+      ByteBuffer buffer = ByteBuffer.wrap(body);
+      while (buffer.hasRemaining()) {
+        if (data.channel.read(buffer, location.offset + buffer.position()) < 0) {
+          throw new IOException("Portfolio store ends unexpectedly.");
+        }
+      }
+      return body;
+    }
+    MappedByteBuffer mapped = data.mapped;
+    if (mapped == null || mapped.capacity() < end) {
+      synchronized (data) {
+        mapped = data.mapped;
+        if (mapped == null || mapped.capacity() < end) {
+          long size = Math.min(data.channel.size(), Integer.MAX_VALUE);
+          mapped = data.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+          data.mapped = mapped;
+        }
+      }
+    }
+    mapped.duplicate().position((int) location.offset).get(body);
+    return body;
+  }
+
+  //writes the index and where it ends in the data file to the snapshot file
+  private void writeIndex(Data data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(INDEX_MAGIC);
+    out.writeLong(data.generation);
+    out.writeLong(data.end);
+    out.writeLong(data.dead);
+    List<Map.Entry<String, Location>> entries = new ArrayList<>(data.index.entrySet());
+    out.writeInt(entries.size());
+    for (Map.Entry<String, Location> entry : entries) {
+      out.writeUTF(entry.getKey());
+      out.writeLong(entry.getValue().offset);
+      out.writeInt(entry.getValue().length);
+      out.writeInt(entry.getValue().entryBytes);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+
+    Path temporary = Paths.get(indexPath + ".tmp");
+    try (BufferedOutputStream file = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+      bytes.writeTo(file);
+    }
+    Files.move(temporary, indexPath, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static byte[] header(long generation) {
+    return ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(generation)
+            .array();
+  }
+
+  private static void write(FileChannel channel, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalArgumentException("Portfolio store is closed.");
+    }
+  }
+
+  /**
+   * Represents one generation of the data file: its channel, mapping and index.
+   */
+  private static final class Data {
+    private final FileChannel channel;
+    private final long generation;
+    private final Map<String, Location> index;
+    //where the next record is appended, guarded by the write lock
+    private long end;
+    //the bytes of entries that were replaced or deleted, guarded by the write lock
+    private long dead;
+    private volatile MappedByteBuffer mapped;
+
+    private Data(FileChannel channel, long generation, Map<String, Location> index, long end,
+                 long dead) {
+      this.channel = channel;
+      this.generation = generation;
+      this.index = index;
+      this.end = end;
+      this.dead = dead;
+    }
+  }
+
+  /**
+   * Represents where a portfolio is in the data file.
+   */
+  private static final class Location {
+    private final long offset;
+    private final int length;
+    //the whole entry, name included, which becomes dead when it's replaced
+    private final int entryBytes;
+
+    private Location(long offset, int length, int entryBytes) {
+      this.offset = offset;
+      this.length = length;
+      this.entryBytes = entryBytes;
+    }
+  }
+
+  /**
+   * Represents a framed record and the entries in it.
+   */
+  private static final class Record {
+    private byte[] bytes;
+    private final Map<String, Location> locations = new LinkedHashMap<>();
+    //deleted portfolio name -> the bytes of its entry
+    private final Map<String, Integer> deleted = new LinkedHashMap<>();
+  }
+}
@@ -0,0 +1,139 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import data.AlphaVantage;
+
+/**
+ * Represents the price history of a stock as chronologically sorted arrays of dates and closing
+ * prices. Dates in the "YYYY-MM-DD" format sort the same way as strings and as dates, so lookups
+ * are binary searches instead of scans through the list of stock information.
+ */
+public class PriceSeries {
+  //price series of each ticker, rebuilt when the underlying history is replaced
+  private static final Map<String, PriceSeries> SERIES = new ConcurrentHashMap<>();
+
+  private final List<StockInfo> source;
+  private final String[] dates;
+  private final double[] closes;
+
+  /**
+   * Constructs a price series from a list of stock information in any order.
+   *
+   * @param history the stock information of a stock
+   * @throws IllegalArgumentException if the history is empty
+   */
+  public PriceSeries(List<StockInfo> history) {
+    if (history == null || history.isEmpty()) {
+      throw new IllegalArgumentException("Price history cannot be empty.");
+    }
+    List<StockInfo> sorted = new ArrayList<>(history);
+    sorted.sort(Comparator.comparing(StockInfo::getTimestamp));
+    this.source = history;
+    this.dates = new String[sorted.size()];
+    this.closes = new double[sorted.size()];
+    for (int i = 0; i < sorted.size(); i++) {
+      dates[i] = sorted.get(i).getTimestamp();
+      closes[i] = sorted.get(i).getClose();
+    }
+  }
+
+  /**
+   * Gets the price series of the given ticker, loading its history if needed. The series is
+   * shared until the ticker's stock information is replaced.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the price series of the stock
+   */
+  public static PriceSeries of(String ticker) {
+    List<StockInfo> history = AlphaVantage.getStock(ticker);
+    PriceSeries series = SERIES.get(ticker);
+    if (series == null || series.source != history) {
+      series = new PriceSeries(history);
+      SERIES.put(ticker, series);
+    }
+    return series;
+  }
+
+  /**
+   * Gets the number of trading days in the series.
+   * @return the number of trading days
+   */
+  public int size() {
+    return dates.length;
+  }
+
+  /**
+   * Gets the date of the trading day at the given index.
+   * @param index the index in chronological order
+   * @return the date in the format "YYYY-MM-DD"
+   */
+  public String getDate(int index) {
+    return dates[index];
+  }
+
+  /**
+   * Gets the closing price of the trading day at the given index.
+   * @param index the index in chronological order
+   * @return the closing price
+   */
+  public double getClose(int index) {
+    return closes[index];
+  }
+
+  /**
+   * Gets the index of the given date.
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the index of the date, or -1 if the market wasn't open on that date
+   */
+  public int indexOf(String date) {
+    int index = Arrays.binarySearch(dates, date);
+    return index >= 0 ? index : -1;
+  }
+
+  /**
+   * Gets the index of the last trading day on or before the given date.
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the index, or -1 if the date is before the first trading day
+   */
+  public int floorIndex(String date) {
+    int index = Arrays.binarySearch(dates, date);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * Gets the index of the first trading day on or after the given date.
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the index, or the size of the series if the date is after the last trading day
+   */
+  public int ceilingIndex(String date) {
+    int index = Arrays.binarySearch(dates, date);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /**
+   * Calculates the x-day moving average at the given index: the average closing price of that
+   * trading day and the x - 1 trading days before it.
+   *
+   * @param index the index of the trading day
+   * @param x     the number of days for the moving average
+   * @return the x-day moving average
+   * @throws IllegalArgumentException if there are fewer than x trading days up to the index
+   */
+  public double movingAverage(int index, int x) {
+    if (x <= 0 || index - x + 1 < 0) {
+      throw new IllegalArgumentException("Date was not found: not enough history for a "
+              + x + "-day moving average on " + dates[index] + ".");
+    }
+    double total = 0.0;
+    for (int i = 0; i < x; i++) {
+      total += closes[index - i];
+    }
+    return total / x;
+  }
+}
@@ -0,0 +1,78 @@
+package stockmarket;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents the trades that would rebalance a portfolio on a date, planned from one version of
+ * the portfolio without changing it. The trades are keyed by ticker, so they don't depend on the
+ * order the stocks are listed in. A plan can only be committed to the version it was planned
+ * from.
+ */
+public class RebalancePlan {
+  private final String portfolioName;
+  private final long version;
+  private final String date;
+  private final double totalValue;
+  private final Map<String, Trade> trades;
+
+  /**
+   * Constructs a rebalance plan.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param version the version of the portfolio the plan was made from
+   * @param date the date of the rebalance in the format "YYYY-MM-DD"
+   * @param totalValue the value of the portfolio on the date
+   * @param trades the trade for each stock that needs one, keyed by ticker
+   */
+  public RebalancePlan(String portfolioName, long version, String date, double totalValue,
+                       Map<String, Trade> trades) {
+    this.portfolioName = portfolioName;
+    this.version = version;
+    this.date = date;
+    this.totalValue = totalValue;
+    this.trades = Collections.unmodifiableMap(new LinkedHashMap<>(trades));
+  }
+
+  /**
+   * Gets the name of the portfolio to rebalance.
+   * @return the portfolio name
+   */
+  public String getPortfolioName() {
+    return portfolioName;
+  }
+
+  /**
+   * Gets the version of the portfolio the plan was made from.
+   * @return the version number
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the date of the rebalance.
+   * @return the date in the format "YYYY-MM-DD"
+   */
+  public String getDate() {
+    return date;
+  }
+
+  /**
+   * Gets the value of the portfolio on the date of the rebalance, which the trades don't change.
+   * @return the total value
+   */
+  public double getTotalValue() {
+    return totalValue;
+  }
+
+  /**
+   * Gets the trades of the rebalance. Stocks already at their intended weight have no trade.
+   * @return an unmodifiable map of each stock ticker to its trade, in the order the stocks are
+   *         listed in the portfolio
+   */
+  public Map<String, Trade> getTrades() {
+    return trades;
+  }
+}
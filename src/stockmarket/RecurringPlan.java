@@ -0,0 +1,180 @@
+package stockmarket;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a recurring investment plan: buying a fixed amount of money's worth of a weighted
+ * basket of stocks every few days between two dates. The plan remembers the next date it is
+ * scheduled to buy on, so purchases already made are never repeated and the plan can be
+ * extended as more price data arrives. Plans are immutable.
+ */
+public class RecurringPlan {
+  private final String name;
+  private final double amount;
+  private final Map<String, Integer> weights;
+  private final int intervalDays;
+  private final String startDate;
+  private final String endDate;
+  private final String nextDate;
+
+  /**
+   * Constructs a recurring plan that hasn't bought anything yet.
+   *
+   * @param name the name of the plan
+   * @param amount the amount of money to invest each time
+   * @param weights the percentage of each investment going to each stock ticker
+   * @param intervalDays the number of days between investments
+   * @param startDate the date of the first investment in the format "YYYY-MM-DD"
+   * @param endDate the last date an investment can be scheduled on in the format "YYYY-MM-DD"
+   * @throws IllegalArgumentException if the name is empty, the amount or interval isn't
+   *         positive, a ticker is invalid, the percentages don't add up to 100, or the start date
+   *         is after the end date
+   */
+  public RecurringPlan(String name, double amount, Map<String, Integer> weights,
+                       int intervalDays, String startDate, String endDate) {
+    this(name, amount, weights, intervalDays, startDate, endDate, startDate);
+  }
+
+  /**
+   * Constructs a recurring plan that has bought up to, but not including, the next date.
+   *
+   * @param name the name of the plan
+   * @param amount the amount of money to invest each time
+   * @param weights the percentage of each investment going to each stock ticker
+   * @param intervalDays the number of days between investments
+   * @param startDate the date of the first investment in the format "YYYY-MM-DD"
+   * @param endDate the last date an investment can be scheduled on in the format "YYYY-MM-DD"
+   * @param nextDate the next date an investment is scheduled on in the format "YYYY-MM-DD"
+   * @throws IllegalArgumentException if the name is empty, the amount or interval isn't
+   *         positive, a ticker is invalid, the percentages don't add up to 100, or the start date
+   *         is after the end date
+   */
+  public RecurringPlan(String name, double amount, Map<String, Integer> weights,
+                       int intervalDays, String startDate, String endDate, String nextDate) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("Plan name was not provided.");
+    }
+    if (amount <= 0) {
+      throw new IllegalArgumentException("Amount to invest must be positive.");
+    }
+    if (intervalDays <= 0) {
+      throw new IllegalArgumentException("Days between investments must be positive.");
+    }
+    if (weights == null || weights.isEmpty()) {
+      throw new IllegalArgumentException("Plan must invest in at least one stock.");
+    }
+    int totalPercentage = 0;
+    for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+      Utils.validTicker(weight.getKey());
+      if (weight.getValue() <= 0) {
+        throw new IllegalArgumentException("Percentages must be positive.");
+      }
+      totalPercentage += weight.getValue();
+    }
+    if (totalPercentage != 100) {
+      throw new IllegalArgumentException("Percentages must add up to 100.");
+    }
+    try {
+      LocalDate.parse(startDate);
+      LocalDate.parse(endDate);
+      LocalDate.parse(nextDate);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Plan dates must be in the format YYYY-MM-DD.");
+    }
+    Utils.checkDateStartEnd(startDate, endDate);
+
+    this.name = name;
+    this.amount = amount;
+    this.weights = Collections.unmodifiableMap(new LinkedHashMap<>(weights));
+    this.intervalDays = intervalDays;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.nextDate = nextDate;
+  }
+
+  /**
+   * Gets the name of the plan.
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the amount of money invested each time.
+   * @return the amount
+   */
+  public double getAmount() {
+    return amount;
+  }
+
+  /**
+   * Gets the percentage of each investment going to each stock.
+   * @return an unmodifiable map of each stock ticker to its percentage
+   */
+  public Map<String, Integer> getWeights() {
+    return weights;
+  }
+
+  /**
+   * Gets the number of days between investments.
+   * @return the number of days
+   */
+  public int getIntervalDays() {
+    return intervalDays;
+  }
+
+  /**
+   * Gets the date of the first investment.
+   * @return the start date
+   */
+  public String getStartDate() {
+    return startDate;
+  }
+
+  /**
+   * Gets the last date an investment can be scheduled on.
+   * @return the end date
+   */
+  public String getEndDate() {
+    return endDate;
+  }
+
+  /**
+   * Gets the next date an investment is scheduled on. Each investment is made on the first day
+   * on or after its scheduled date that every stock in the plan has a price.
+   * @return the next scheduled date
+   */
+  public String getNextDate() {
+    return nextDate;
+  }
+
+  /**
+   * Makes a copy of this plan that runs until a later date.
+   *
+   * @param newEndDate the new end date in the format "YYYY-MM-DD"
+   * @return the extended plan
+   * @throws IllegalArgumentException if the new end date is before the current one
+   */
+  public RecurringPlan extendTo(String newEndDate) {
+    if (newEndDate.compareTo(endDate) < 0) {
+      throw new IllegalArgumentException("A plan can only be extended to a later date.");
+    }
+    return new RecurringPlan(name, amount, weights, intervalDays, startDate, newEndDate,
+            nextDate);
+  }
+
+  /**
+   * Makes a copy of this plan with its next investment scheduled on a later date.
+   *
+   * @param date the next scheduled date in the format "YYYY-MM-DD"
+   * @return the plan after the investments before the date
+   */
+  public RecurringPlan nextOn(String date) {
+    return new RecurringPlan(name, amount, weights, intervalDays, startDate, endDate, date);
+  }
+}
@@ -0,0 +1,62 @@
+package stockmarket;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the outcome of saving every portfolio: the portfolios written, those skipped because
+ * they hadn't changed since they were last written, and those that couldn't be written.
+ */
+public class SaveReport {
+  private final List<String> written;
+  private final List<String> skipped;
+  private final Map<String, String> failed;
+
+  /**
+   * Constructs a save report.
+   *
+   * @param written the names of the portfolios written
+   * @param skipped the names of the portfolios skipped as unchanged
+   * @param failed each portfolio that couldn't be written to the reason why
+   */
+  public SaveReport(List<String> written, List<String> skipped, Map<String, String> failed) {
+    this.written = Collections.unmodifiableList(written);
+    this.skipped = Collections.unmodifiableList(skipped);
+    this.failed = Collections.unmodifiableMap(failed);
+  }
+
+  /**
+   * Gets the portfolios written.
+   * @return an unmodifiable list of portfolio names
+   */
+  public List<String> getWritten() {
+    return written;
+  }
+
+  /**
+   * Gets the portfolios skipped because they hadn't changed.
+   * @return an unmodifiable list of portfolio names
+   */
+  public List<String> getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Gets the portfolios that couldn't be written.
+   * @return an unmodifiable map of each portfolio name to the reason it couldn't be written
+   */
+  public Map<String, String> getFailed() {
+    return failed;
+  }
+
+  /**
+   * Gets a readable summary of the save.
+   * @return the number of portfolios written, skipped and failed
+   */
+  @Override
+  public String toString() {
+    return "Wrote " + written.size() + " portfolio(s), skipped " + skipped.size()
+            + " unchanged, " + failed.size() + " failed.";
+  }
+}
@@ -34,17 +34,38 @@ public class Stock {
    * @throws IllegalArgumentException if ticker is invalid, shares are negative, or date is invalid
    */
   public Stock(String ticker, double shares, String dateAdded) throws IllegalArgumentException {
+    this(ticker, shares, dateAdded, false);
+  }
+
+  //constructs a stock, checking its date against the stock's prices unless it was saved
+  private Stock(String ticker, double shares, String dateAdded, boolean saved) {
     Utils.validTicker(ticker);
     if (shares < 0) {
       throw new IllegalArgumentException("Shares cannot be negative");
     }
-    Utils.checkDate(dateAdded, ticker);
+    if (!saved) {
+      Utils.checkDate(dateAdded, ticker);
+    }
 
     this.ticker = ticker;
     this.shares = shares;
     this.dateAdded = dateAdded;
   }
 
+  /**
+   * Constructs a Stock read from a saved portfolio. Its date was checked against the stock's
+   * prices when it was traded, so it isn't checked again and reading looks up no prices.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares of the stock
+   * @param dateAdded the date the stock was added
+   * @return the stock
+   * @throws IllegalArgumentException if ticker is invalid or shares are negative
+   */
+  static Stock saved(String ticker, double shares, String dateAdded) {
+    return new Stock(ticker, shares, dateAdded, true);
+  }
+
   /**
    * Gets the stock ticker symbol.
    *
@@ -19,7 +19,10 @@ public class StockMarketProgram {
    * graphical user interface.
    */
   public static void main(String[] args) {
-    Model model = new StockModel();
+    //trades since the last save are journaled, and recovered the next time the program starts
+    TradeJournal journal = new TradeJournal(TradeJournal.DIRECTORY);
+    Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+    Model model = new StockModel(journal);
 
     // for text ui
     Readable readable = new InputStreamReader(System.in);
@@ -1,12 +1,28 @@
 package stockmarket;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import data.AlphaVantage;
 
@@ -17,8 +33,28 @@ import data.AlphaVantage;
 public class StockModel implements Model {
   //formats a string into a date time
   DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-  private final List<Portfolio> portfolios;
-  private final Map<String, String> loadablePortfolios; //portfolio name -> file name
+  //relative difference under which a running moving average is recalculated exactly
+  private static final double TIE_TOLERANCE = 1e-9;
+  //the most portfolio files written at once
+  private static final int SAVE_THREADS = 4;
+  //the most portfolios loaded on first access that are kept before the least recently found
+  private static final int LOADED_CAPACITY = 256;
+  private final PortfolioRegistry portfolios;
+  //the saved portfolios, which are loaded when first found
+  private final PortfolioCatalog catalog;
+  private final int loadedCapacity;
+  //portfolio name -> when it was last found, for portfolios loaded on first access
+  private final Map<String, Long> loadedOnDemand = new ConcurrentHashMap<>();
+  private final AnalyticsCache analyticsCache;
+  //stock ticker -> names of the portfolios that have traded it
+  private final Map<String, Set<String>> holders = new ConcurrentHashMap<>();
+  //records every trade so it survives a crash, or null if trades aren't journaled
+  private final TradeJournal journal;
+  //writes asynchronous saves on background threads
+  private final PortfolioSaver saver = new PortfolioSaver(SAVE_THREADS);
+  //portfolio name -> portfolio being saved in the background, guarded by the map's monitor;
+  //its old file isn't loaded meanwhile, since the save is replacing it
+  private final Map<String, Portfolio> pendingSaves = new HashMap<>();
 
   /**
    * Manually constructs a stock model.
@@ -26,40 +62,178 @@ public class StockModel implements Model {
    *                   and a list of the recent stocks.
    */
   public StockModel(List<Portfolio> portfolios) {
-    this.portfolios = portfolios;
-    this.loadablePortfolios = new HashMap<>();
-    loadablePortfolios.put("Testing", "Testing.xml");
+    this(new PortfolioCatalog(PortfolioFiles.DIRECTORY), LOADED_CAPACITY, null);
+    for (Portfolio portfolio : portfolios) {
+      if (this.portfolios.registerIfAbsent(portfolio)) {
+        index(portfolio);
+      }
+    }
   }
 
   /**
    * Constructs a stock model with no portfolios yet.
    */
   public StockModel() {
-    this.portfolios = new ArrayList<Portfolio>();
-    this.loadablePortfolios = new HashMap<>();
-    loadablePortfolios.put("Testing", "Testing.xml");
+    this(new PortfolioCatalog(PortfolioFiles.DIRECTORY), LOADED_CAPACITY, null);
+  }
+
+  /**
+   * Constructs a stock model that journals every trade, starting with the portfolios recovered
+   * from the journal: each one's latest snapshot with the trades made after it replayed.
+   * @param journal the journal to recover from and record trades in
+   * @throws IllegalArgumentException if the journal can't be recovered
+   */
+  public StockModel(TradeJournal journal) {
+    this(new PortfolioCatalog(PortfolioFiles.DIRECTORY), LOADED_CAPACITY, journal);
+    for (Portfolio portfolio : journal.recover()) {
+      if (portfolios.registerIfAbsent(portfolio)) {
+        index(portfolio);
+      }
+    }
   }
 
   /**
-   * Gets the list of portfolios of this stock model.
-   * @return a list of portfolios
+   * Constructs a stock model with no portfolios loaded yet, that loads the saved portfolios in a
+   * catalog when they are first found.
+   * @param catalog the catalog of saved portfolios
+   * @param loadedCapacity the most portfolios loaded on first access to keep; beyond this the
+   *                       least recently found one without unsaved changes is dropped
+   * @throws IllegalArgumentException if loadedCapacity isn't positive
+   */
+  public StockModel(PortfolioCatalog catalog, int loadedCapacity) {
+    this(catalog, loadedCapacity, null);
+  }
+
+  private StockModel(PortfolioCatalog catalog, int loadedCapacity, TradeJournal journal) {
+    if (loadedCapacity <= 0) {
+      throw new IllegalArgumentException("Number of loaded portfolios kept must be positive.");
+    }
+    this.portfolios = new PortfolioRegistry();
+    this.catalog = catalog;
+    this.loadedCapacity = loadedCapacity;
+    this.analyticsCache = new AnalyticsCache();
+    this.journal = journal;
+  }
+
+  /**
+   * Gets the list of portfolios of this stock model, in the order they were created.
+   * @return a new list of portfolios
    */
   public List<Portfolio> getPortfolios() {
-    return portfolios;
+    return portfolios.list();
   }
 
   /**
    * Gets the map with the loadable portfolio names to the file name associated
-   * with it.
-   * @return the map of loadable portfolios
+   * with it, from the catalog of saved portfolios.
+   * @return an unmodifiable map of loadable portfolios, in name order
    */
   public Map<String, String> getLoadablePortfolios() {
-    return loadablePortfolios;
+    return catalog.getFiles();
+  }
+
+  /**
+   * Gets the cache in front of the gain/loss, moving average and crossover queries, which
+   * reports its hit rate.
+   * @return the analytics cache
+   */
+  public AnalyticsCache getAnalyticsCache() {
+    return analyticsCache;
+  }
+
+  /**
+   * Reloads the price history of a stock, drops every cached analytics result computed from its
+   * old history, and recalculates the cached values of only the portfolios that hold it.
+   * @param ticker the stock ticker symbol
+   * @return the names of the portfolios whose cached values were recalculated
+   */
+  public Set<String> refreshStock(String ticker) {
+    AlphaVantage.refreshStock(ticker);
+    analyticsCache.invalidate(ticker);
+
+    Set<String> affected = getPortfoliosHolding(ticker);
+    for (String name : affected) {
+      Portfolio portfolio = portfolios.get(name);
+      if (portfolio != null) {
+        portfolio.refreshValuations(ticker);
+      }
+    }
+    return affected;
+  }
+
+  @Override
+  public Set<String> getPortfoliosHolding(String ticker) {
+    Set<String> names = holders.get(ticker);
+    return names == null ? Set.of() : Set.copyOf(names);
+  }
+
+  //adds a portfolio under every stock it has traded, since its past values depend on them all
+  private void index(Portfolio portfolio) {
+    for (Trade trade : portfolio.getTrades()) {
+      index(trade.getTicker(), portfolio.getName());
+    }
+  }
+
+  //adds a portfolio under a stock
+  private void index(String ticker, String portfolioName) {
+    holders.computeIfAbsent(ticker, k -> ConcurrentHashMap.newKeySet()).add(portfolioName);
+  }
+
+  //removes a portfolio from under every stock
+  private void unindex(Portfolio portfolio) {
+    for (Trade trade : portfolio.getTrades()) {
+      Set<String> names = holders.get(trade.getTicker());
+      if (names != null) {
+        names.remove(portfolio.getName());
+      }
+    }
   }
 
   @Override
   public double calculateGainLoss(String ticker, String startDate,
                                   String endDate) {
+    return analyticsCache.get("gain-loss", ticker,
+            () -> computeGainLoss(ticker, startDate, endDate), startDate, endDate);
+  }
+
+  @Override
+  public double calculateMovingAverage(String ticker, String date,
+                                       int x) {
+    return analyticsCache.get("moving-average", ticker,
+            () -> computeMovingAverage(ticker, date, x), date, x);
+  }
+
+  @Override
+  public List<String> calculateXDayCrossover(String ticker, String startDate,
+                                             String endDate, int x) {
+    List<String> crossoverDates = analyticsCache.get("crossover", ticker,
+            () -> computeXDayCrossover(ticker, startDate, endDate, x), startDate, endDate, x);
+    //callers get their own copy so the cached list can't be changed
+    return new ArrayList<>(crossoverDates);
+  }
+
+  @Override
+  public Map<Integer, List<String>> calculateXDayCrossovers(String ticker, String startDate,
+                                                          String endDate, Set<Integer> windows) {
+    //checked before copying, since a null set or window can't be sorted
+    if (windows == null || windows.isEmpty() || windows.stream().anyMatch(x -> x == null)) {
+      throw new IllegalArgumentException("Window sizes must be positive and not empty.");
+    }
+    SortedSet<Integer> sorted = new TreeSet<>(windows);
+    Map<Integer, List<String>> crossovers = analyticsCache.get("crossovers", ticker,
+            () -> computeXDayCrossovers(ticker, startDate, endDate, sorted),
+            startDate, endDate, sorted);
+    //callers get their own copies so the cached lists can't be changed
+    Map<Integer, List<String>> result = new TreeMap<>();
+    for (Map.Entry<Integer, List<String>> entry : crossovers.entrySet()) {
+      result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    }
+    return result;
+  }
+
+  //calculates the gain or loss of a stock over a time period without the cache
+  private double computeGainLoss(String ticker, String startDate,
+                                 String endDate) {
     List<StockInfo> stockInfo = AlphaVantage.getStock(ticker);
     //checks if dates and ticker are valid
     Utils.checkDateStartEnd(startDate, endDate);
@@ -90,9 +264,9 @@ public class StockModel implements Model {
     return endClose - startClose;
   }
 
-  @Override
-  public double calculateMovingAverage(String ticker, String date,
-                                       int x) {
+  //calculates the x-day moving average of a stock on a date without the cache
+  private double computeMovingAverage(String ticker, String date,
+                                      int x) {
     Utils.validTicker(ticker);
     List<StockInfo> stockInfo = AlphaVantage.getStock(ticker);
     double total = 0.0;
@@ -139,45 +313,88 @@ public class StockModel implements Model {
     return total / x;
   }
 
-  @Override
-  public List<String> calculateXDayCrossover(String ticker, String startDate,
-                                             String endDate, int x) {
-    //checks for invalid inputs
+  //calculates the x-day crossovers of a stock over a date range without the cache
+  private List<String> computeXDayCrossover(String ticker, String startDate,
+                                            String endDate, int x) {
+    return streamXDayCrossover(ticker, startDate, endDate, x).collect(Collectors.toList());
+  }
+
+  //calculates the crossovers of every window in one pass over the closing prices, keeping a
+  //running sum per window instead of re-adding each window for every day
+  private Map<Integer, List<String>> computeXDayCrossovers(String ticker, String startDate,
+                                                           String endDate,
+                                                           SortedSet<Integer> windows) {
+    //checks for invalid inputs, the largest window needs the most history
+    if (windows == null || windows.isEmpty() || windows.first() <= 0) {
+      throw new IllegalArgumentException("Window sizes must be positive and not empty.");
+    }
+    int largest = windows.last();
     Utils.validTicker(ticker);
     Utils.checkDateStartEnd(startDate, endDate);
-    List<String> crossoverDates = new ArrayList<>();
-    List<StockInfo> stockInfo = AlphaVantage.getStock(ticker);
-    if (!Utils.inRange(startDate, endDate, x, stockInfo)) {
+    if (!Utils.inRange(startDate, endDate, largest, AlphaVantage.getStock(ticker))) {
       throw new IllegalArgumentException("Start date or end date was not in range.");
     }
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    PriceSeries series = PriceSeries.of(ticker);
+    int first = series.ceilingIndex(startDate);
+    int last = series.floorIndex(endDate);
+    int lowest = first - largest + 1;
+    if (first <= last && lowest < 0) {
+      throw new IllegalArgumentException("Date was not found: " + series.getDate(first) + ".");
+    }
 
-    LocalDate current = LocalDate.parse(startDate, formatter);
-    LocalDate end = LocalDate.parse(endDate, formatter);
-    Map<String, Double> movingAverages = new HashMap<>();
+    int[] sizes = windows.stream().mapToInt(Integer::intValue).toArray();
+    double[] sums = new double[sizes.length];
+    Map<Integer, List<String>> crossovers = new TreeMap<>();
+    for (int size : sizes) {
+      crossovers.put(size, new ArrayList<>());
+    }
 
-    // Precompute moving averages for all dates in the range
-    for (StockInfo stock : stockInfo) {
-      LocalDate stockDate = LocalDate.parse(stock.getTimestamp(), formatter);
-      if ((stockDate.isEqual(current) || stockDate.isAfter(current)) && (stockDate.isEqual(end)
-              || stockDate.isBefore(end))) {
-        double movingAverage = calculateMovingAverage(ticker, stock.getTimestamp(), x);
-        movingAverages.put(stock.getTimestamp(), movingAverage);
-      }
-    }
-    while (current.isBefore(end) || current.isEqual(end)) {
-      String curr = current.format(formatter);
-      if (movingAverages.containsKey(curr)) {
-        double currentMovingAverage = movingAverages.get(curr);
-        for (StockInfo stock : stockInfo) {
-          if (stock.getTimestamp().equals(curr) && stock.getClose() > currentMovingAverage) {
-            crossoverDates.add(curr);
-          }
+    int from = Math.max(lowest, 0);
+    for (int i = from; i <= last; i++) {
+      double close = series.getClose(i);
+      for (int w = 0; w < sizes.length; w++) {
+        //slides the window forward by one day
+        sums[w] += close;
+        if (i - sizes[w] >= from) {
+          sums[w] -= series.getClose(i - sizes[w]);
+        }
+        if (i < first) {
+          continue;
+        }
+        double movingAverage = sums[w] / sizes[w];
+        //a running sum can drift by rounding, so near-ties are settled with an exact average
+        if (Math.abs(close - movingAverage) <= Math.abs(close) * TIE_TOLERANCE) {
+          movingAverage = series.movingAverage(i, sizes[w]);
+        }
+        if (close > movingAverage) {
+          crossovers.get(sizes[w]).add(series.getDate(i));
         }
       }
-      current = current.plusDays(1);
     }
-    return crossoverDates;
+    return crossovers;
+  }
+
+  @Override
+  public Stream<String> streamXDayCrossover(String ticker, String startDate, String endDate,
+                                            int x) {
+    //checks for invalid inputs before anything is streamed
+    Utils.validTicker(ticker);
+    Utils.checkDateStartEnd(startDate, endDate);
+    List<StockInfo> stockInfo = AlphaVantage.getStock(ticker);
+    if (!Utils.inRange(startDate, endDate, x, stockInfo)) {
+      throw new IllegalArgumentException("Start date or end date was not in range.");
+    }
+    PriceSeries series = PriceSeries.of(ticker);
+    int first = series.ceilingIndex(startDate);
+    int last = series.floorIndex(endDate);
+    if (first <= last && first - x + 1 < 0) {
+      throw new IllegalArgumentException("Date was not found: " + series.getDate(first) + ".");
+    }
+
+    //each day's moving average is only calculated once the previous day has been consumed
+    return IntStream.rangeClosed(first, last)
+            .filter(i -> series.getClose(i) > series.movingAverage(i, x))
+            .mapToObj(series::getDate);
   }
 
   @Override
@@ -185,22 +402,146 @@ public class StockModel implements Model {
     if (portfolioName == null || portfolioName.isEmpty()) {
       throw new IllegalArgumentException("Portfolio name was not provided.");
     }
-    for (Portfolio portfolio : this.portfolios) {
-      if (portfolio.getName().equals(portfolioName)) {
-        throw new IllegalArgumentException("Portfolio already exists.");
-      }
+    //checking and adding are one step, so two requests can't both create the portfolio
+    Portfolio portfolio = new Portfolio(portfolioName);
+    if (!portfolios.registerIfAbsent(portfolio)) {
+      throw new IllegalArgumentException("Portfolio already exists.");
+    }
+    if (journal != null) {
+      journal.track(portfolio);
+    }
+  }
+
+  @Override
+  public void forkPortfolio(String portfolioName, String forkName) {
+    if (forkName == null || forkName.isEmpty()) {
+      throw new IllegalArgumentException("Portfolio name was not provided.");
+    }
+    Portfolio fork = findPortfolio(portfolioName).fork(forkName);
+    if (!portfolios.registerIfAbsent(fork)) {
+      throw new IllegalArgumentException("Portfolio already exists.");
     }
-    portfolios.add(new Portfolio(portfolioName));
+    index(fork);
+    if (journal != null) {
+      journal.track(fork);
+    }
+  }
+
+  @Override
+  public Map<String, Double> diffPortfolios(String portfolioName, String otherName) {
+    return findPortfolio(portfolioName).diff(findPortfolio(otherName));
   }
 
   @Override
   public Portfolio findPortfolio(String portfolioName) {
-    for (Portfolio portfolio : this.portfolios) {
-      if (portfolio.getName().equals(portfolioName)) {
-        return portfolio;
+    Portfolio portfolio = portfolios.get(portfolioName);
+    if (portfolio != null) {
+      //only portfolios loaded on first access are tracked, the rest are never dropped
+      loadedOnDemand.computeIfPresent(portfolioName, (name, found) -> System.nanoTime());
+      return portfolio;
+    }
+    portfolio = loadOnDemand(portfolioName);
+    if (portfolio == null) {
+      throw new IllegalArgumentException("Portfolio not found.");
+    }
+    return portfolio;
+  }
+
+  //loads a saved portfolio from the catalog the first time it's found, or returns null
+  private Portfolio loadOnDemand(String portfolioName) {
+    PortfolioCatalog.Entry entry = catalog.get(portfolioName);
+    if (entry == null || isSaving(portfolioName)) {
+      return null;
+    }
+    Path path = catalog.resolve(entry);
+    if (!Files.isRegularFile(path)) {
+      //the file was deleted since it was catalogued
+      catalog.remove(portfolioName);
+      catalog.flush();
+      return null;
+    }
+    Portfolio loaded = PortfolioFiles.load(path);
+    if (!loaded.getName().equals(portfolioName)) {
+      //the catalog was rebuilt from a file named differently from the portfolio it holds
+      catalog.remove(portfolioName);
+      catalog.put(loaded.getName(), path);
+      catalog.flush();
+      return null;
+    }
+    boolean registered;
+    synchronized (pendingSaves) {
+      //checked again with registering, in case a save started while the file was read
+      if (pendingSaves.containsKey(portfolioName)) {
+        return null;
+      }
+      registered = portfolios.registerIfAbsent(loaded);
+    }
+    if (!registered) {
+      //another request loaded or created it first
+      Portfolio portfolio = portfolios.get(portfolioName);
+      if (portfolio == null) {
+        throw new IllegalArgumentException("Portfolio not found.");
+      }
+      return portfolio;
+    }
+    index(loaded);
+    if (journal != null) {
+      journal.track(loaded);
+    }
+    loadedOnDemand.put(portfolioName, System.nanoTime());
+    evict();
+    return loaded;
+  }
+
+  //checks that a loaded portfolio isn't being saved in the background, since its file is about
+  //to be replaced; called with pendingSaves held, so no save can start before it's registered
+  private void checkNotSaving(Portfolio portfolio) {
+    if (pendingSaves.containsKey(portfolio.getName())) {
+      throw new IllegalArgumentException("Portfolio '" + portfolio.getName()
+              + "' is being saved.");
+    }
+  }
+
+  //checks if a portfolio is being saved in the background
+  private boolean isSaving(String portfolioName) {
+    synchronized (pendingSaves) {
+      return pendingSaves.containsKey(portfolioName);
+    }
+  }
+
+  //drops the least recently found portfolios loaded on first access while there are too many,
+  //skipping any with changes not yet saved since they would be lost
+  private void evict() {
+    while (loadedOnDemand.size() > loadedCapacity) {
+      String oldest = null;
+      long oldestFound = Long.MAX_VALUE;
+      for (Map.Entry<String, Long> entry : loadedOnDemand.entrySet()) {
+        Portfolio portfolio = portfolios.get(entry.getKey());
+        if (portfolio != null && !portfolio.isDirty() && entry.getValue() < oldestFound) {
+          oldest = entry.getKey();
+          oldestFound = entry.getValue();
+        }
+      }
+      if (oldest == null) {
+        //every portfolio loaded on first access has unsaved changes
+        return;
+      }
+      Portfolio portfolio = portfolios.get(oldest);
+      loadedOnDemand.remove(oldest);
+      if (portfolio == null || !portfolios.remove(portfolio)) {
+        continue;
+      }
+      if (portfolio.isDirty()) {
+        //traded on between the check and the removal, so it's kept
+        portfolios.registerIfAbsent(portfolio);
+        loadedOnDemand.put(oldest, System.nanoTime());
+        continue;
+      }
+      unindex(portfolio);
+      if (journal != null) {
+        journal.forget(portfolio);
       }
     }
-    throw new IllegalArgumentException("Portfolio not found.");
   }
 
   @Override
@@ -216,7 +557,68 @@ public class StockModel implements Model {
     Portfolio portfolio = findPortfolio(portfolioName);
 
     //adds/deletes stock to/from portfolio
-    portfolio.updateStock(ticker, shares, date, isAdding);
+    journaled(portfolio, () -> {
+      portfolio.updateStock(ticker, shares, date, isAdding);
+      return List.of(new Trade(ticker, shares, date, isAdding));
+    });
+    index(ticker, portfolioName);
+  }
+
+  @Override
+  public Map<String, Integer> importTrades(String filePath) {
+    Map<String, List<Trade>> trades = TradeImporter.read(filePath);
+    //finds every portfolio first, so a missing one doesn't leave the import half done
+    Map<Portfolio, List<Trade>> byPortfolio = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Trade>> entry : trades.entrySet()) {
+      byPortfolio.put(findPortfolio(entry.getKey()), entry.getValue());
+    }
+    //checks every portfolio's trades before applying any, so a bad trade imports nothing
+    for (Map.Entry<Portfolio, List<Trade>> entry : byPortfolio.entrySet()) {
+      try {
+        entry.getKey().checkTrades(entry.getValue());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Could not import the trades of portfolio '"
+                + entry.getKey().getName() + "': " + e.getMessage(), e);
+      }
+    }
+
+    Map<String, Integer> imported = new LinkedHashMap<>();
+    for (Map.Entry<Portfolio, List<Trade>> entry : byPortfolio.entrySet()) {
+      Portfolio portfolio = entry.getKey();
+      journaled(portfolio, () -> {
+        portfolio.updateStocks(entry.getValue());
+        return entry.getValue();
+      });
+      for (Trade trade : entry.getValue()) {
+        index(trade.getTicker(), portfolio.getName());
+      }
+      imported.put(portfolio.getName(), entry.getValue().size());
+    }
+    return imported;
+  }
+
+  @Override
+  public int addRecurringPlan(String portfolioName, RecurringPlan plan) {
+    Portfolio portfolio = findPortfolio(portfolioName);
+    int made = portfolio.addRecurringPlan(plan);
+    for (String ticker : plan.getWeights().keySet()) {
+      index(ticker, portfolioName);
+    }
+    //plans aren't trades, so they are kept by a new snapshot
+    if (journal != null) {
+      journal.snapshot(portfolio);
+    }
+    return made;
+  }
+
+  @Override
+  public int extendRecurringPlan(String portfolioName, String planName, String endDate) {
+    Portfolio portfolio = findPortfolio(portfolioName);
+    int made = portfolio.extendRecurringPlan(planName, endDate);
+    if (journal != null) {
+      journal.snapshot(portfolio);
+    }
+    return made;
   }
 
   @Override
@@ -226,6 +628,75 @@ public class StockModel implements Model {
     return portfolio.calculateTotalValue(date);
   }
 
+  @Override
+  public Map<String, Map<String, Double>> calculatePortfolioValues(List<String> portfolioNames,
+                                                                  List<String> dates) {
+    //checks every portfolio and date and gathers the distinct stock and date pairs to price
+    Map<String, List<Map<String, Double>>> holdings = new LinkedHashMap<>();
+    Map<String, Set<String>> pricePoints = new HashMap<>();
+    for (String portfolioName : portfolioNames) {
+      Portfolio portfolio = findPortfolio(portfolioName);
+      List<Map<String, Double>> holdingsOnDates = new ArrayList<>();
+      for (String date : dates) {
+        Map<String, Double> held = portfolio.getHoldingsToValue(date);
+        for (String ticker : held.keySet()) {
+          pricePoints.computeIfAbsent(ticker, key -> new HashSet<>()).add(date);
+        }
+        holdingsOnDates.add(held);
+      }
+      holdings.put(portfolioName, holdingsOnDates);
+    }
+
+    //loads each price history once before reading them from several threads
+    for (String ticker : pricePoints.keySet()) {
+      AlphaVantage.getStock(ticker);
+    }
+    Map<String, Map<String, Double>> prices = new ConcurrentHashMap<>();
+    pricePoints.entrySet().parallelStream().forEach(points -> {
+      Map<String, Double> closes = new HashMap<>();
+      for (String date : points.getValue()) {
+        closes.put(date, Portfolio.getClosingPrice(points.getKey(), date));
+      }
+      prices.put(points.getKey(), closes);
+    });
+
+    //values every portfolio from the shared prices
+    Map<String, Map<String, Double>> values = new ConcurrentHashMap<>();
+    holdings.entrySet().parallelStream().forEach(portfolio -> {
+      Map<String, Double> valuesOnDates = new LinkedHashMap<>();
+      for (int i = 0; i < dates.size(); i++) {
+        double value = 0.0;
+        for (Map.Entry<String, Double> held : portfolio.getValue().get(i).entrySet()) {
+          value += prices.get(held.getKey()).get(dates.get(i)) * held.getValue();
+        }
+        valuesOnDates.put(dates.get(i), value);
+      }
+      values.put(portfolio.getKey(), valuesOnDates);
+    });
+
+    Map<String, Map<String, Double>> result = new LinkedHashMap<>();
+    for (String portfolioName : holdings.keySet()) {
+      result.put(portfolioName, values.get(portfolioName));
+    }
+    return result;
+  }
+
+  @Override
+  public ValueGrid calculateValueGrid(String startDate, String endDate) {
+    Utils.checkDateStartEnd(startDate, endDate);
+    return new ValuationKernel(portfolios.list(), startDate, endDate).multiply();
+  }
+
+  @Override
+  public TaxLots getTaxLots(String portfolioName) {
+    return findPortfolio(portfolioName).getTaxLots();
+  }
+
+  @Override
+  public double calculateUnrealizedGain(String portfolioName, String date) {
+    return findPortfolio(portfolioName).getUnrealizedGain(date);
+  }
+
   @Override
   public Map<String, Double> getPortfolioDistribution(String portfolioName, String date) {
     Portfolio portfolio = findPortfolio(portfolioName);
@@ -243,7 +714,45 @@ public class StockModel implements Model {
   @Override
   public void rebalancePortfolio(String portfolioName, List<Integer> percentages, String date) {
     Portfolio portfolio = findPortfolio(portfolioName);
+    checkTotalPercentage(percentages);
+    journaled(portfolio, () -> new ArrayList<>(portfolio.rebalance(percentages, date)
+            .getTrades().values()));
+  }
+
+  @Override
+  public RebalancePlan previewRebalance(String portfolioName, Map<String, Integer> percentages,
+                                        String date) {
+    Portfolio portfolio = findPortfolio(portfolioName);
+    checkTotalPercentage(percentages.values());
+    return portfolio.planRebalance(percentages, date);
+  }
+
+  @Override
+  public void commitRebalance(RebalancePlan plan) {
+    Portfolio portfolio = findPortfolio(plan.getPortfolioName());
+    journaled(portfolio, () -> {
+      portfolio.commitRebalance(plan);
+      return new ArrayList<>(plan.getTrades().values());
+    });
+  }
+
+  //makes a change to a portfolio, recording the trades it made in the journal if there is one;
+  //the trades are committed in the background, so a failed write is reported once it happens
+  private void journaled(Portfolio portfolio, Supplier<List<Trade>> change) {
+    if (journal == null) {
+      change.get();
+    } else {
+      journal.record(portfolio, change).whenComplete((done, error) -> {
+        if (error != null) {
+          //the journal writes a new snapshot in their place, so the trades aren't lost
+          error.printStackTrace();
+        }
+      });
+    }
+  }
 
+  //checks that rebalance percentages add up to 100
+  private static void checkTotalPercentage(Collection<Integer> percentages) {
     int totalPercentage = 0;
 
     for (Integer percentage : percentages) {
@@ -253,8 +762,6 @@ public class StockModel implements Model {
     if (totalPercentage != 100) {
       throw new IllegalArgumentException("Percentages must add up to 100 to rebalance.");
     }
-
-    portfolio.rebalance(percentages, date);
   }
 
   //between 5 and 30 lines, unless the time window is less than 5 days
@@ -295,9 +802,8 @@ public class StockModel implements Model {
     return new Timespan(isYear, isMonth, isDay, count);
   }
 
-  //get default scale of a portfolio, maximum number of asterisks is 40
-  private Scale getDefaultScale(Portfolio portfolio, List<LocalDate> dates, boolean isAbsolute) {
-    List<Stock> stocks = portfolio.getStocks();
+  //get default scale of a portfolio from its values, maximum number of asterisks is 40
+  private Scale getDefaultScale(double[] values, boolean isAbsolute) {
     Double minValue = null;
     Double maxValue = null;
 
@@ -305,20 +811,15 @@ public class StockModel implements Model {
     int base = 0;
     int scale = 0;
 
-    for (LocalDate date : dates) {
+    for (double value : values) {
       //find the minimum value of the dates for relative scale
-      if (minValue == null) {
-        minValue = portfolio.calculateTotalValue(formatter.format(date));
-      } else if (minValue > portfolio.calculateTotalValue(formatter.format(date))) {
-        minValue = portfolio.calculateTotalValue(formatter.format(date));
+      if (minValue == null || minValue > value) {
+        minValue = value;
       }
 
-
       //find the maximum value of the dates
-      if (maxValue == null) {
-        maxValue = portfolio.calculateTotalValue(formatter.format(date));
-      } else if (maxValue < portfolio.calculateTotalValue(formatter.format(date))) {
-        maxValue = portfolio.calculateTotalValue(formatter.format(date));
+      if (maxValue == null || maxValue < value) {
+        maxValue = value;
       }
     }
 
@@ -360,161 +861,253 @@ public class StockModel implements Model {
     return new Scale(base, scale);
   }
 
-  //get asterisks for a portfolio, max asterisks: 40
-  private List<String> getAsterisks(Portfolio portfolio, Scale scale, List<LocalDate> timeList,
-                                     Timespan timespan) {
-    List<Double> portfolioValues = new ArrayList<>();
-    List<Integer> asterisksCount = new ArrayList<>();
-    List<String> portfolioAsterisks = new ArrayList<>();
-
-    //gets the portfolio value for each date in the list of dates
-    for (LocalDate date : timeList) {
-      double portfolioValue = 0.0;
-      //gets the correct stock, or increments
-      for (Stock stock : portfolio.getStocks()) {
-        List<StockInfo> stockInfos = AlphaVantage.getStock(stock.getTicker());
-        //gets value of the stock at given date, adds to portfolio value of that date
-        for (StockInfo stockInfo : stockInfos) {
-          if (stockInfo.getTimestamp().equals(formatter.format(date))) {
-            //multiply closing value at date and the number of shares
-            portfolioValue += stockInfo.getClose() * stock.getShares();
-          }
-        }
-      }
-      portfolioValues.add(portfolioValue);
-    }
-
-    //calculate number of asterisks given the scale, converts into string format
-    int num = 0;
-    //adds asterisks for each date
-    for (Double value : portfolioValues) {
-      //calculates number of asterisks
-      //if absolute, base of scale would already be zero
-      num = (int) ((value - scale.getBase()) / scale.getScale());
-      asterisksCount.add(num);
+  //get asterisks for a portfolio value, max asterisks: 40
+  private String getAsterisks(Scale scale, double portfolioValue) {
+    //calculates number of asterisks
+    //if absolute, base of scale would already be zero
+    int count = (int) ((portfolioValue - scale.getBase()) / scale.getScale());
+    StringBuilder asterisks = new StringBuilder();
+    while (count >= 0) {
+      asterisks.append("*");
+      count -= 1;
     }
-
-    for (Integer value : asterisksCount) {
-      int count = value;
-      String asterisks = "";
-      while (count >= 0) {
-        asterisks += "*";
-        count -= 1;
-      }
-      portfolioAsterisks.add(asterisks);
-    }
-
-    return portfolioAsterisks;
+    return asterisks.toString();
   }
 
-  //get asterisks for a stock
-  private List<String> getAsterisks(List<StockInfo> stocks, Scale scale, List<LocalDate> timeList) {
-    List<Integer> asterisks = new ArrayList<>();
-    List<String> result = new ArrayList<>();
-
-    for (LocalDate date : timeList) {
-      int count = 0;
-      String asterisksString = "*";
-      //gets the correct stock closing value
-      for (StockInfo stockInfo : stocks) {
-        if (stockInfo.getTimestamp().equals(formatter.format(date))) {
-          count = (int) ((stockInfo.getClose() - scale.getBase()) / scale.getScale());
-        }
-      }
-
-      while (count >= 0) {
-        asterisksString += "*";
-        count -= 1;
-      }
+  //get asterisks for a stock on a date
+  private String getAsterisks(PriceSeries series, Scale scale, LocalDate date) {
+    int count = 0;
+    //gets the correct stock closing value
+    int index = series.indexOf(formatter.format(date));
+    if (index >= 0) {
+      count = (int) ((series.getClose(index) - scale.getBase()) / scale.getScale());
+    }
 
-      result.add(asterisksString);
+    StringBuilder asterisks = new StringBuilder("*");
+    while (count >= 0) {
+      asterisks.append("*");
+      count -= 1;
     }
-    return result;
+    return asterisks.toString();
   }
 
   @Override
   public List<String> visualizePerformanceOverTime(String name, String startDate, String endDate,
                                                    boolean isPortfolio, boolean isAbsolute) {
-    List<String> visualization = new ArrayList<>();
-    LocalDate start = LocalDate.parse(startDate, formatter);
-    LocalDate end = LocalDate.parse(endDate, formatter);
-
-    //data being visualized can either be from a stock or a portfolio
-    List<StockInfo> stockInfo = null;
-    Portfolio portfolio = null;
+    return streamPerformanceOverTime(name, startDate, endDate, isPortfolio, isAbsolute)
+            .collect(Collectors.toList());
+  }
 
-    //visualization constants
-    List<LocalDate> timeList = null;
-    List<String> asterisks = null;
-    Scale scale = null;
+  @Override
+  public Stream<String> streamPerformanceOverTime(String name, String startDate, String endDate,
+                                                  boolean isPortfolio, boolean isAbsolute) {
     Timespan timespan = getTimespan(startDate, endDate);
+    Stream<String> rows;
+    Scale scale;
 
     if (isPortfolio) {
-      portfolio = findPortfolio(name);
-      //using first
-      timeList = timespan.getDateIncrements(startDate, endDate, portfolio.getStocks()
-              .get(0).getTicker());
-      scale = getDefaultScale(portfolio, timeList, isAbsolute);
-      asterisks = getAsterisks(portfolio, scale, timeList, timespan);
+      Portfolio portfolio = findPortfolio(name);
+      //using first, the scale needs every date before the first row can be drawn
+      List<LocalDate> timeList = timespan.getDateIncrements(startDate, endDate,
+              portfolio.getStocks().get(0).getTicker());
+      //one pass over the trades and prices gives every value for the scale and the rows
+      double[] values = portfolio.valueSeries(timeList);
+      scale = getDefaultScale(values, isAbsolute);
+      rows = IntStream.range(0, values.length).mapToObj(i ->
+              timespan.convertIncrement(timeList.get(i)) + ": " + getAsterisks(scale, values[i]));
     } else { //when it's a stock
-      //gets the correct stock info from the API
-      stockInfo = AlphaVantage.getStock(name);
-      timeList = timespan.getDateIncrements(startDate, endDate, name);
-      scale = getDefaultScale(stockInfo, isAbsolute);
-      asterisks = getAsterisks(stockInfo, scale, timeList);
+      //gets the correct stock info from the API, the scale comes from its whole history
+      PriceSeries series = PriceSeries.of(name);
+      scale = getDefaultScale(AlphaVantage.getStock(name), isAbsolute);
+      rows = timespan.streamDateIncrements(startDate, endDate, name)
+              .map(date -> timespan.convertIncrement(date) + ": "
+                      + getAsterisks(series, scale, date));
     }
 
-    //time list and asterisk list must match
-    if (timeList.size() != asterisks.size()) {
-      throw new IllegalArgumentException("Time list mismatch.");
-    }
-    //convert list of LocalDates to String format
-    List<String> timeListString = timespan.convertIncrements(timeList);
-
-    //adds each line to the lines
     String type = "";
     if (isPortfolio) {
       type = "portfolio";
     } else {
       type = "stock";
     }
-    visualization.add("Performance of " + type + " '" + name + "' from " + startDate + " to "
-            + endDate + ": ");
-    //skips a line
-    visualization.add("");
-    for (int i = 0; i < asterisks.size(); i++) {
-      visualization.add(timeListString.get(i) + ": " + asterisks.get(i));
-    }
-    //skips a line
-    visualization.add("");
-    if (!isAbsolute) {
-      visualization.add("Base value: " + scale.getBase());
+    //header, then a skipped line, then each row as it's calculated
+    Stream<String> header = Stream.of("Performance of " + type + " '" + name + "' from "
+            + startDate + " to " + endDate + ": ", "");
+    //skips a line, then the scale
+    Stream<String> footer = null;
+    if (isAbsolute) {
+      footer = Stream.of("", "Scale: * = " + scale.getScale());
+    } else {
+      footer = Stream.of("", "Base value: " + scale.getBase(), "Scale: * = " + scale.getScale());
     }
-    visualization.add("Scale: * = " + scale.getScale());
+    return Stream.concat(Stream.concat(header, rows), footer);
+  }
 
+  @Override
+  public void savePortfolio(String portfolioName, String fileName) {
+    savePortfolio(portfolioName, fileName, PortfolioFormat.ofFileName(fileName));
+  }
 
-    return visualization;
+  @Override
+  public void savePortfolio(String portfolioName, String fileName, PortfolioFormat format) {
+    Portfolio portfolio = findPortfolio(portfolioName);
+    //the file is written before the portfolio is removed, so a failed save loses nothing
+    Path path = PortfolioFiles.save(portfolio, fileName, format);
+    if (this.portfolios.remove(portfolio)) {
+      unindex(portfolio);
+      loadedOnDemand.remove(portfolioName);
+      if (journal != null) {
+        journal.forget(portfolio);
+      }
+    }
+    catalog.put(portfolioName, path);
+    catalog.flush();
   }
 
   @Override
-  public void savePortfolio(String portfolioName, String fileName) {
+  public CompletableFuture<Void> savePortfolioAsync(String portfolioName, String fileName,
+                                                    PortfolioFormat format) {
     Portfolio portfolio = findPortfolio(portfolioName);
-    this.portfolios.remove(portfolio);
-    boolean result = XMLParser.toXML(portfolio, fileName);
-    loadablePortfolios.put(portfolioName, fileName + ".xml");
+    synchronized (pendingSaves) {
+      //removed right away, so no trade can be made that the save would miss
+      if (!this.portfolios.remove(portfolio)) {
+        throw new IllegalArgumentException("Portfolio not found.");
+      }
+      pendingSaves.put(portfolioName, portfolio);
+    }
+    unindex(portfolio);
+    loadedOnDemand.remove(portfolioName);
+    return saver.save(portfolio, fileName, format).handle((path, error) -> {
+      if (error != null) {
+        //the portfolio is put back, so a failed save loses nothing; the old file was never
+        //loaded in the meantime, so nothing else can have taken its place
+        boolean restored;
+        synchronized (pendingSaves) {
+          pendingSaves.remove(portfolioName);
+          restored = portfolios.registerIfAbsent(portfolio);
+        }
+        if (restored) {
+          index(portfolio);
+        }
+        throw error instanceof CompletionException ? (CompletionException) error
+                : new CompletionException(error);
+      }
+      //only this portfolio's journal, the name can't be reused until the save is done
+      if (journal != null) {
+        journal.forget(portfolio);
+      }
+      catalog.put(portfolioName, path);
+      catalog.flush();
+      synchronized (pendingSaves) {
+        pendingSaves.remove(portfolioName);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public SaveReport saveAll(PortfolioFormat format) {
+    List<String> skipped = new ArrayList<>();
+    Map<String, CompletableFuture<Path>> saves = new LinkedHashMap<>();
+    for (Portfolio portfolio : portfolios.list()) {
+      //the version is read from the same instant copy that is written
+      Portfolio snapshot = portfolio.fork(portfolio.getName());
+      long version = snapshot.getVersion();
+      if (version == portfolio.getPersistedVersion()) {
+        skipped.add(portfolio.getName());
+        continue;
+      }
+      //the saver's threads bound how many files are written at once
+      saves.put(portfolio.getName(), saver.save(snapshot, portfolio.getName(), format)
+              .whenComplete((path, error) -> {
+                if (error == null) {
+                  portfolio.markPersisted(version);
+                }
+              }));
+    }
+
+    List<String> written = new ArrayList<>();
+    Map<String, String> failed = new LinkedHashMap<>();
+    for (Map.Entry<String, CompletableFuture<Path>> save : saves.entrySet()) {
+      try {
+        catalog.put(save.getKey(), save.getValue().join());
+        written.add(save.getKey());
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        failed.put(save.getKey(), cause.getMessage());
+      }
+    }
+    //the catalog file is written once for the whole batch
+    catalog.flush();
+    return new SaveReport(written, skipped, failed);
   }
 
   @Override
   public void loadPortfolio(String fileName) {
-    Portfolio portfolio = XMLParser.fromXML(fileName);
-    Portfolio existingPortfolio = findPortfolio(portfolio.getName());
-    if (existingPortfolio == null) {
-      this.portfolios.add(XMLParser.fromXML(fileName));
-    } else if (existingPortfolio.equals(portfolio)) {
-      this.portfolios.remove(existingPortfolio);
-      this.portfolios.add(portfolio);
-    } else {
-      throw new IllegalArgumentException("Portfolio already exists.");
+    Path path = PortfolioFiles.find(fileName);
+    Portfolio portfolio = PortfolioFiles.load(path);
+    //the portfolio is fully parsed before it is registered, or replaces an equal one in place
+    Portfolio replaced;
+    synchronized (pendingSaves) {
+      checkNotSaving(portfolio);
+      replaced = portfolios.registerOrReplace(portfolio);
+    }
+    loaded(portfolio, replaced, path);
+    catalog.flush();
+  }
+
+  @Override
+  public List<String> loadPortfolios(List<String> fileNames) {
+    //every file is found first, so a missing one fails the load before any is parsed
+    List<Path> paths = fileNames.stream().map(PortfolioFiles::find)
+            .collect(Collectors.toList());
+    List<Portfolio> loaded = paths.parallelStream().map(PortfolioFiles::load)
+            .collect(Collectors.toList());
+    List<Portfolio> replaced;
+    synchronized (pendingSaves) {
+      for (Portfolio portfolio : loaded) {
+        checkNotSaving(portfolio);
+      }
+      replaced = portfolios.registerAllOrReplace(loaded);
+    }
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < loaded.size(); i++) {
+      loaded(loaded.get(i), replaced.get(i), paths.get(i));
+      names.add(loaded.get(i).getName());
+    }
+    catalog.flush();
+
+    //each stock's history is loaded once, however many portfolios hold it
+    Set<String> tickers = new HashSet<>();
+    for (Portfolio portfolio : loaded) {
+      for (Stock stock : portfolio.getStocks()) {
+        tickers.add(stock.getTicker());
+      }
+    }
+    tickers.parallelStream().forEach(ticker -> {
+      try {
+        PriceSeries.of(ticker);
+      } catch (RuntimeException e) {
+        //left to fail when the stock is first used, as it would without prefetching
+      }
+    });
+    return names;
+  }
+
+  //tracks a portfolio just registered from a file in place of the one it replaced, if any
+  private void loaded(Portfolio portfolio, Portfolio replaced, Path path) {
+    //loaded on purpose, so it's kept rather than dropped when others are loaded
+    loadedOnDemand.remove(portfolio.getName());
+    if (catalog.get(portfolio.getName()) == null) {
+      catalog.put(portfolio.getName(), path);
+    }
+    //stocks only the replaced portfolio traded no longer list it
+    if (replaced != null) {
+      unindex(replaced);
+    }
+    index(portfolio);
+    if (journal != null) {
+      journal.track(portfolio);
     }
   }
 }
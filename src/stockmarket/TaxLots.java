@@ -0,0 +1,358 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents the tax lots of a portfolio: for each stock, a queue of the lots still held, oldest
+ * first. The cost basis of each stock and the gain realized by every sale so far are kept up to
+ * date as lots are bought and sold, so the gain of a whole portfolio takes one step per stock
+ * rather than a replay of its trades.
+ *
+ * <p>Tax lots are immutable: buying or selling returns new tax lots. Only the queue of the stock
+ * traded is copied, the queues of the other stocks are shared.
+ *
+ * <p>Lots that don't know their price are left out of the running cost basis and gain. Their
+ * cost is added when a cost basis or gain is asked for, so their prices are only looked up then.
+ */
+public class TaxLots {
+  //shares left below this are rounding error from selling part of a lot
+  private static final double EPSILON = 1e-9;
+
+  private final Map<String, List<Lot>> lots;
+  private final Map<String, Double> costBases;
+  //the realized gain, less the cost of shares sold out of lots that don't know their price
+  private final double realizedGain;
+  private final LotMethod method;
+  //the shares sold out of lots that don't know their price, whose cost is still to be taken off
+  private final List<Lot> unpricedSales;
+  //the stocks with lots held that don't know their price
+  private final Set<String> unpriced;
+
+  /**
+   * Constructs empty tax lots that sell the oldest lots first.
+   */
+  public TaxLots() {
+    this(Collections.emptyMap(), Collections.emptyMap(), 0.0, LotMethod.FIFO,
+            Collections.emptyList(), Collections.emptySet());
+  }
+
+  private TaxLots(Map<String, List<Lot>> lots, Map<String, Double> costBases,
+                  double realizedGain, LotMethod method, List<Lot> unpricedSales,
+                  Set<String> unpriced) {
+    this.lots = lots;
+    this.costBases = costBases;
+    this.realizedGain = realizedGain;
+    this.method = method;
+    this.unpricedSales = unpricedSales;
+    this.unpriced = unpriced;
+  }
+
+  /**
+   * Restores tax lots as they were saved: the lots held, the shares sold out of lots that don't
+   * know their price, and the realized gain recorded without those.
+   *
+   * @param held the lots held, in any order
+   * @param unpricedSales the shares sold out of lots that don't know their price
+   * @param recordedGain the realized gain as returned by getRecordedGain
+   * @param method the lot selection method
+   * @return the tax lots
+   */
+  static TaxLots restore(List<Lot> held, List<Lot> unpricedSales, double recordedGain,
+                         LotMethod method) {
+    Map<String, List<Lot>> queues = new HashMap<>();
+    for (Lot lot : held) {
+      queues.computeIfAbsent(lot.getTicker(), ticker -> new ArrayList<>()).add(lot);
+    }
+    Map<String, List<Lot>> restored = new HashMap<>();
+    Map<String, Double> costBases = new HashMap<>();
+    Set<String> unpriced = new HashSet<>();
+    for (Map.Entry<String, List<Lot>> queue : queues.entrySet()) {
+      queue.getValue().sort(Comparator.comparing(Lot::getDate));
+      restored.put(queue.getKey(), Collections.unmodifiableList(queue.getValue()));
+      costBases.put(queue.getKey(), pricedCost(queue.getValue()));
+      if (hasUnpriced(queue.getValue())) {
+        unpriced.add(queue.getKey());
+      }
+    }
+    return new TaxLots(Collections.unmodifiableMap(restored),
+            Collections.unmodifiableMap(costBases), recordedGain, method,
+            Collections.unmodifiableList(new ArrayList<>(unpricedSales)),
+            Collections.unmodifiableSet(unpriced));
+  }
+
+  /**
+   * Makes a copy of these tax lots that sells lots by the given method.
+   *
+   * @param method the lot selection method
+   * @return the tax lots with the new method
+   */
+  public TaxLots withMethod(LotMethod method) {
+    return new TaxLots(lots, costBases, realizedGain, method, unpricedSales, unpriced);
+  }
+
+  /**
+   * Records a purchase as a new lot, kept in date order. A purchase on the same date as one of
+   * the stock's lots is added to that lot, since it was bought at the same closing price.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares bought
+   * @param date the purchase date in the format "YYYY-MM-DD"
+   * @param price the price paid per share, or NaN if it isn't known yet
+   * @return the tax lots after the purchase
+   */
+  public TaxLots buy(String ticker, double shares, String date, double price) {
+    List<Lot> queue = new ArrayList<>(getLots(ticker));
+    //purchases are nearly always the newest, so the place is found from the end
+    int position = queue.size();
+    while (position > 0 && queue.get(position - 1).getDate().compareTo(date) > 0) {
+      position--;
+    }
+    Lot before = position == 0 ? null : queue.get(position - 1);
+    boolean priced = !Double.isNaN(price);
+    if (before != null && before.getDate().equals(date) && before.isPriced() == priced
+            && (!priced || before.getPrice() == price)) {
+      queue.set(position - 1, new Lot(ticker, before.getShares() + shares, date, price));
+    } else {
+      queue.add(position, new Lot(ticker, shares, date, price));
+    }
+    double cost = priced ? shares * price : 0.0;
+    return replace(ticker, queue, costBases.getOrDefault(ticker, 0.0) + cost, realizedGain,
+            unpricedSales);
+  }
+
+  /**
+   * Records a sale by the lot selection method of these tax lots.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares sold
+   * @param price the price received per share
+   * @return the tax lots after the sale
+   * @throws IllegalArgumentException if the lots hold fewer shares than are sold
+   */
+  public TaxLots sell(String ticker, double shares, double price) {
+    return sell(ticker, shares, price, null);
+  }
+
+  /**
+   * Records a sale that comes out of the lot bought on the given date first, then by the lot
+   * selection method of these tax lots if that lot isn't enough. Realized gain goes up by the
+   * difference between the sale price and the price paid for each share sold.
+   *
+   * @param ticker the stock ticker symbol
+   * @param shares the number of shares sold
+   * @param price the price received per share
+   * @param lotDate the purchase date of the lot to sell first, or null to use the lot method
+   * @return the tax lots after the sale
+   * @throws IllegalArgumentException if there is no lot bought on lotDate or the lots hold fewer
+   *         shares than are sold
+   */
+  public TaxLots sell(String ticker, double shares, double price, String lotDate) {
+    List<Lot> queue = new ArrayList<>(getLots(ticker));
+    List<Lot> sales = new ArrayList<>(unpricedSales);
+    double left = shares;
+    double soldCost = 0.0;
+
+    if (lotDate != null) {
+      int index = indexOf(queue, lotDate);
+      if (index < 0) {
+        throw new IllegalArgumentException("No lot of " + ticker + " was bought on " + lotDate
+                + ".");
+      }
+      double taken = Math.min(left, queue.get(index).getShares());
+      soldCost += take(queue, index, taken, sales);
+      left -= taken;
+    }
+
+    //whatever the chosen lot didn't cover is sold by the method, oldest first for specific ID
+    boolean newestFirst = method == LotMethod.LIFO;
+    while (left > EPSILON && !queue.isEmpty()) {
+      int index = newestFirst ? queue.size() - 1 : 0;
+      double taken = Math.min(left, queue.get(index).getShares());
+      soldCost += take(queue, index, taken, sales);
+      left -= taken;
+    }
+    if (left > EPSILON) {
+      throw new IllegalArgumentException("Cannot sell more shares (" + shares
+              + ") than held in lots of " + ticker + ".");
+    }
+
+    double costBasis = queue.isEmpty() ? 0.0 : costBases.getOrDefault(ticker, 0.0) - soldCost;
+    return replace(ticker, queue, costBasis, realizedGain + shares * price - soldCost,
+            sales.size() == unpricedSales.size() ? unpricedSales
+                    : Collections.unmodifiableList(sales));
+  }
+
+  /**
+   * Gets the lots of a stock still held, oldest first.
+   *
+   * @param ticker the stock ticker symbol
+   * @return an unmodifiable list of lots, empty if none are held
+   */
+  public List<Lot> getLots(String ticker) {
+    return lots.getOrDefault(ticker, Collections.emptyList());
+  }
+
+  /**
+   * Gets the stocks that have lots held.
+   * @return an unmodifiable map of each stock ticker to its lots, oldest first
+   */
+  public Map<String, List<Lot>> getLots() {
+    return lots;
+  }
+
+  /**
+   * Gets the cost basis of the shares of a stock still held.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the total price paid for the shares still held
+   */
+  public double getCostBasis(String ticker) {
+    double costBasis = costBases.getOrDefault(ticker, 0.0);
+    if (unpriced.contains(ticker)) {
+      for (Lot lot : getLots(ticker)) {
+        if (!lot.isPriced()) {
+          costBasis += lot.getCostBasis();
+        }
+      }
+    }
+    return costBasis;
+  }
+
+  /**
+   * Gets the cost basis of every share still held.
+   * @return the total price paid for the shares still held
+   */
+  public double getCostBasis() {
+    double total = 0.0;
+    for (String ticker : costBases.keySet()) {
+      total += getCostBasis(ticker);
+    }
+    return total;
+  }
+
+  /**
+   * Gets the gain, or loss if negative, realized by every sale so far.
+   * @return the realized gain
+   */
+  public double getRealizedGain() {
+    double gain = realizedGain;
+    for (Lot sold : unpricedSales) {
+      gain -= sold.getCostBasis();
+    }
+    return gain;
+  }
+
+  /**
+   * Gets the realized gain without the cost of the shares sold out of lots that don't know their
+   * price, which is what is saved along with those shares.
+   * @return the recorded gain
+   */
+  double getRecordedGain() {
+    return realizedGain;
+  }
+
+  /**
+   * Gets the shares sold out of lots that don't know their price, each as a lot of the shares
+   * sold with the date they were bought.
+   * @return an unmodifiable list of the sold shares
+   */
+  List<Lot> getUnpricedSales() {
+    return unpricedSales;
+  }
+
+  /**
+   * Gets the lot selection method used by sales.
+   * @return the lot method
+   */
+  public LotMethod getMethod() {
+    return method;
+  }
+
+  //sells shares out of the lot at the index, removing it if empty, and returns their cost,
+  //which is 0 for a lot without a price since its shares are added to the sales instead
+  private static double take(List<Lot> queue, int index, double shares, List<Lot> sales) {
+    Lot lot = queue.get(index);
+    if (lot.getShares() - shares <= EPSILON) {
+      queue.remove(index);
+    } else {
+      queue.set(index, new Lot(lot.getTicker(), lot.getShares() - shares, lot.getDate(),
+              lot.isPriced() ? lot.getPrice() : Double.NaN));
+    }
+    if (!lot.isPriced()) {
+      sales.add(new Lot(lot.getTicker(), shares, lot.getDate(), Double.NaN));
+      return 0.0;
+    }
+    return shares * lot.getPrice();
+  }
+
+  //adds up the cost of the lots that know their price
+  private static double pricedCost(List<Lot> queue) {
+    double cost = 0.0;
+    for (Lot lot : queue) {
+      if (lot.isPriced()) {
+        cost += lot.getCostBasis();
+      }
+    }
+    return cost;
+  }
+
+  //checks if any lot doesn't know its price
+  private static boolean hasUnpriced(List<Lot> queue) {
+    for (Lot lot : queue) {
+      if (!lot.isPriced()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //finds the lot bought on the date, lots are sorted by date so this is a binary search
+  private static int indexOf(List<Lot> queue, String date) {
+    int low = 0;
+    int high = queue.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int compared = queue.get(middle).getDate().compareTo(date);
+      if (compared == 0) {
+        return middle;
+      } else if (compared < 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return -1;
+  }
+
+  //builds the tax lots with one stock's queue and cost basis replaced
+  private TaxLots replace(String ticker, List<Lot> queue, double costBasis, double realized,
+                          List<Lot> sales) {
+    Map<String, List<Lot>> nextLots = new HashMap<>(lots);
+    Map<String, Double> nextCostBases = new HashMap<>(costBases);
+    if (queue.isEmpty()) {
+      nextLots.remove(ticker);
+      nextCostBases.remove(ticker);
+    } else {
+      nextLots.put(ticker, Collections.unmodifiableList(queue));
+      nextCostBases.put(ticker, costBasis);
+    }
+    //the set of stocks with unpriced lots only changes for the rare portfolios that have any
+    Set<String> nextUnpriced = unpriced;
+    if (hasUnpriced(queue) != unpriced.contains(ticker)) {
+      Set<String> changed = new HashSet<>(unpriced);
+      if (!changed.remove(ticker)) {
+        changed.add(ticker);
+      }
+      nextUnpriced = Collections.unmodifiableSet(changed);
+    }
+    return new TaxLots(Collections.unmodifiableMap(nextLots),
+            Collections.unmodifiableMap(nextCostBases), realized, method, sales, nextUnpriced);
+  }
+}
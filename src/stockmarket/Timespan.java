@@ -5,7 +5,9 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import data.AlphaVantage;
 
@@ -79,21 +81,31 @@ public class Timespan {
    * @return a list of valid LocalDates at the proper incrementation
    */
   public List<LocalDate> getDateIncrements(String startDate, String endDate, String ticker) {
-    List<LocalDate> dateIncrements = new ArrayList<>();
+    return streamDateIncrements(startDate, endDate, ticker).collect(Collectors.toList());
+  }
+
+  /**
+   * Produces the same dates as getDateIncrements, but lazily: each date is only looked up once
+   * the previous one has been consumed.
+   * @param startDate The date that the visualization begins on
+   * @param endDate the date that the visualization ends on
+   * @param ticker The ticker value of a given stock
+   * @return a stream of valid LocalDates at the proper incrementation
+   */
+  public Stream<LocalDate> streamDateIncrements(String startDate, String endDate, String ticker) {
     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-    LocalDate current = LocalDate.parse(startDate, formatter);
+    LocalDate start = LocalDate.parse(startDate, formatter);
     LocalDate end = LocalDate.parse(endDate, formatter);
 
-    while (!current.isEqual(end)) {
-      dateIncrements.add(current);
-      //gets the next incremented date, if not valid, then finds the
-      current = LocalDate.parse(AlphaVantage.getStockInfo(ticker,
+    //the end date is always the last increment, after it there are no more dates
+    return Stream.iterate(start, Objects::nonNull, current -> {
+      if (!current.isBefore(end)) {
+        return null;
+      }
+      //gets the next incremented date, if not valid, then finds the closest valid one
+      return LocalDate.parse(AlphaVantage.getStockInfo(ticker,
               incrementedDate(current, end), this).getTimestamp(), formatter);
-
-    }
-    dateIncrements.add(end);
-
-    return dateIncrements;
+    });
   }
 
   /**
@@ -104,27 +116,31 @@ public class Timespan {
    */
   public List<String> convertIncrements(List<LocalDate> dateIncrements) {
     List<String> dateStrings = new ArrayList<>();
-    Function<LocalDate, String> converter = null;
+    for (LocalDate date : dateIncrements) {
+      dateStrings.add(convertIncrement(date));
+    }
+    return dateStrings;
+  }
+
+  /**
+   * Converts a single LocalDate into the proper string formatting for the chart's resolution:
+   * year, month, or day.
+   * @param date a LocalDate
+   * @return the converted string
+   */
+  public String convertIncrement(LocalDate date) {
     if (isYear) {
-      converter = x -> String.valueOf(x.getYear());
+      return String.valueOf(date.getYear());
     } else if (isMonth) {
-      converter = x -> x.getMonth().toString().charAt(0)
-              + x.getMonth().toString().substring(1, 3).toLowerCase()
-              + " " + x.getYear();
+      return date.getMonth().toString().charAt(0)
+              + date.getMonth().toString().substring(1, 3).toLowerCase()
+              + " " + date.getYear();
     } else if (isDay) {
-      converter = x -> x.getMonth().toString().charAt(0)
-              + x.getMonth().toString().substring(1, 3).toLowerCase()
-              + " " + x.getDayOfMonth() + ", " + x.getYear();
+      return date.getMonth().toString().charAt(0)
+              + date.getMonth().toString().substring(1, 3).toLowerCase()
+              + " " + date.getDayOfMonth() + ", " + date.getYear();
     }
-
-    if (converter == null) {
-      throw new IllegalArgumentException("Invalid timespan");
-    }
-
-    for (LocalDate date : dateIncrements) {
-      dateStrings.add(converter.apply(date));
-    }
-    return dateStrings;
+    throw new IllegalArgumentException("Invalid timespan");
   }
 
   //gets the next date increment, if month: last day of month, if year: last day of year
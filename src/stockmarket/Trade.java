@@ -0,0 +1,116 @@
+package stockmarket;
+
+import java.util.Objects;
+
+/**
+ * Represents a single buy or sell of a stock in a portfolio, with the ticker symbol, the number
+ * of shares traded, and the date of the trade. Trades are immutable.
+ */
+public class Trade {
+  private final String ticker;
+  private final double shares;
+  private final String date;
+  private final boolean isAdding;
+
+  /**
+   * Constructs a Trade with the given ticker symbol, number of shares, date and direction.
+   *
+   * @param ticker   the stock ticker symbol
+   * @param shares   the number of shares bought or sold
+   * @param date     the date of the trade in the format "YYYY-MM-DD"
+   * @param isAdding whether the stock is being bought or sold
+   * @throws IllegalArgumentException if ticker is invalid or shares are negative
+   */
+  public Trade(String ticker, double shares, String date, boolean isAdding) {
+    Utils.validTicker(ticker);
+    if (shares < 0) {
+      throw new IllegalArgumentException("Shares cannot be negative");
+    }
+    if (date == null || date.isEmpty()) {
+      throw new IllegalArgumentException("Trade date was not provided.");
+    }
+    this.ticker = ticker;
+    this.shares = shares;
+    this.date = date;
+    this.isAdding = isAdding;
+  }
+
+  /**
+   * Gets the stock ticker symbol.
+   * @return the stock ticker symbol
+   */
+  public String getTicker() {
+    return ticker;
+  }
+
+  /**
+   * Gets the number of shares bought or sold.
+   * @return the number of shares
+   */
+  public double getShares() {
+    return shares;
+  }
+
+  /**
+   * Gets the date of the trade.
+   * @return the date in the format "YYYY-MM-DD"
+   */
+  public String getDate() {
+    return date;
+  }
+
+  /**
+   * Gets whether the stock was bought or sold.
+   * @return true if bought, false if sold
+   */
+  public boolean isAdding() {
+    return isAdding;
+  }
+
+  /**
+   * Gets the change in shares this trade makes: positive when buying, negative when selling.
+   * @return the signed number of shares
+   */
+  public double getShareChange() {
+    return isAdding ? shares : -shares;
+  }
+
+  /**
+   * Overrides the equals method so trades with the same ticker, shares, date and direction are
+   * equal.
+   * @param o any object
+   * @return whether a given object is equal to this trade
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Trade)) {
+      return false;
+    }
+    Trade trade = (Trade) o;
+    return Double.compare(trade.shares, shares) == 0
+            && isAdding == trade.isAdding
+            && ticker.equals(trade.ticker)
+            && date.equals(trade.date);
+  }
+
+  /**
+   * Overrides the hashcode so equal trades have equal hash codes.
+   * @return an integer of the hash code
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(ticker, shares, date, isAdding);
+  }
+
+  /**
+   * Overrides the toString method to describe the trade.
+   * @return the trade as a string
+   */
+  @Override
+  public String toString() {
+    return (isAdding ? "buy " : "sell ") + shares + " " + ticker + " on " + date;
+  }
+}
@@ -0,0 +1,94 @@
+package stockmarket;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads trades from a CSV file, one trade per line after a header line, in the format
+ * "portfolio,date,ticker,action,shares", where action is "buy" or "sell". The file is read one
+ * line at a time, so only the trades themselves are kept in memory, and each portfolio's trades
+ * are sorted by date once the whole file is read.
+ */
+public class TradeImporter {
+
+  /**
+   * Reads the trades in a CSV file, grouped by portfolio.
+   *
+   * @param filePath the path of the CSV file
+   * @return a map of each portfolio name to its trades sorted by date, in the order the
+   *         portfolios first appear in the file
+   * @throws IllegalArgumentException if the file can't be read or a line is not a valid trade
+   */
+  public static Map<String, List<Trade>> read(String filePath) {
+    Map<String, List<Trade>> trades = new LinkedHashMap<>();
+    try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+      //skip header line
+      br.readLine();
+
+      String line;
+      int lineNumber = 1;
+      while ((line = br.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank()) {
+          continue;
+        }
+        String[] fields = line.split(",");
+        if (fields.length != 5) {
+          throw new IllegalArgumentException("Line " + lineNumber + " must have a portfolio, "
+                  + "date, ticker, action and shares.");
+        }
+        trades.computeIfAbsent(fields[0].trim(), k -> new ArrayList<>())
+                .add(parseTrade(fields, lineNumber));
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not read trades from " + filePath + ".");
+    }
+
+    //sorting is stable, so trades on the same date keep their order in the file
+    for (List<Trade> portfolioTrades : trades.values()) {
+      portfolioTrades.sort(Comparator.comparing(Trade::getDate));
+    }
+    return trades;
+  }
+
+  //parses the date, ticker, action and shares of a line into a trade
+  private static Trade parseTrade(String[] fields, int lineNumber) {
+    String date = fields[1].trim();
+    String ticker = fields[2].trim();
+    String action = fields[3].trim().toLowerCase();
+    try {
+      LocalDate.parse(date);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Line " + lineNumber + " has an invalid date: "
+              + date + ".");
+    }
+    if (!action.equals("buy") && !action.equals("sell")) {
+      throw new IllegalArgumentException("Line " + lineNumber + " must buy or sell.");
+    }
+
+    double shares;
+    try {
+      shares = Double.parseDouble(fields[4].trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Line " + lineNumber + " has invalid shares: "
+              + fields[4].trim() + ".");
+    }
+    if (shares <= 0) {
+      throw new IllegalArgumentException("Line " + lineNumber + " must trade a positive number "
+              + "of shares.");
+    }
+    //cannot buy fractional shares
+    if (action.equals("buy") && shares % 1 != 0) {
+      throw new IllegalArgumentException("Line " + lineNumber + " cannot buy fractional shares.");
+    }
+    return new Trade(ticker, shares, date, action.equals("buy"));
+  }
+}
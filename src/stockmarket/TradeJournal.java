@@ -0,0 +1,671 @@
+package stockmarket;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a write-ahead journal of the trades made in each portfolio, so trades made since a
+ * portfolio was last saved survive a crash.
+ *
+ * <p>Each portfolio has a snapshot file, in the binary portfolio format, and a journal file of
+ * the trades made since the snapshot. Every change is appended to an in-memory buffer as a
+ * numbered record, and a background thread writes the buffers out and forces them to disk
+ * together, every few milliseconds or as soon as a buffer fills up. Many trades share one disk
+ * sync, so trading is never held up waiting for the disk. A record is:
+ * <ul>
+ *   <li>its length</li>
+ *   <li>its number, then its trades, each a ticker, share count, date and whether bought</li>
+ *   <li>a CRC32 of the number and trades, so a record torn by a crash is found and dropped</li>
+ * </ul>
+ * The background thread also compacts long journals by writing a new snapshot of the portfolio
+ * and dropping the records the snapshot covers. A snapshot stores the number of the last record
+ * it covers, so records are never applied twice even if a crash interrupts a compaction.
+ *
+ * <p>Snapshots of portfolios just tracked, or changed other than by trades, are written on the
+ * background thread too. Until such a snapshot is written the journal on disk still matches the
+ * previous one, so records made in the meantime wait in memory and are covered by it.
+ */
+public class TradeJournal implements Closeable {
+  /**
+   * The directory journals are kept in by the program.
+   */
+  public static final String DIRECTORY = PortfolioFiles.DIRECTORY + "journal/";
+  private static final String SNAPSHOT = ".snapshot";
+  private static final String JOURNAL = ".journal";
+  private static final String TEMPORARY = ".tmp";
+  //a longer length can only be a torn or corrupt record
+  private static final int MAX_RECORD_BYTES = 1 << 24;
+
+  private final Path directory;
+  private final int commitBytes;
+  private final int compactRecords;
+  private final Map<String, Log> logs = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService background;
+
+  /**
+   * Constructs a journal in a directory that commits every 10 milliseconds or 64 KB, and
+   * compacts journals of over a thousand records every 30 seconds.
+   * @param directory the directory of the journal files, created if missing
+   * @throws IllegalArgumentException if the directory can't be created
+   */
+  public TradeJournal(String directory) {
+    this(directory, 10, 64 * 1024, 1000, 30_000);
+  }
+
+  /**
+   * Constructs a journal in a directory.
+   * @param directory the directory of the journal files, created if missing
+   * @param commitMillis the most milliseconds a record waits before it is forced to disk
+   * @param commitBytes the size a portfolio's buffered records are committed at right away
+   * @param compactRecords the number of records a journal is compacted at
+   * @param compactMillis the milliseconds between checks for journals to compact
+   * @throws IllegalArgumentException if the directory can't be created
+   */
+  public TradeJournal(String directory, long commitMillis, int commitBytes, int compactRecords,
+                      long compactMillis) {
+    this.directory = Paths.get(directory);
+    this.commitBytes = commitBytes;
+    this.compactRecords = compactRecords;
+    try {
+      Files.createDirectories(this.directory);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not create journal directory '" + directory
+              + "'.", e);
+    }
+    this.background = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "trade-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    background.scheduleWithFixedDelay(this::commitAll, commitMillis, commitMillis,
+            TimeUnit.MILLISECONDS);
+    background.scheduleWithFixedDelay(this::compactAll, compactMillis, compactMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Recovers every portfolio in the journal directory by loading its snapshot and replaying the
+   * journal records after it. A torn record at the end of a journal is cut off.
+   * @return the recovered portfolios
+   * @throws IllegalArgumentException if a snapshot can't be read, a record can't be replayed, or
+   *         records are missing between the snapshot and the records after it
+   */
+  public List<Portfolio> recover() {
+    List<Portfolio> recovered = new ArrayList<>();
+    try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, "*" + SNAPSHOT)) {
+      for (Path snapshot : snapshots) {
+        String fileName = snapshot.getFileName().toString();
+        String stem = fileName.substring(0, fileName.length() - SNAPSHOT.length());
+        Log log = recover(stem);
+        logs.put(log.portfolio.getName(), log);
+        recovered.add(log.portfolio);
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Could not recover journal: " + e.getMessage(), e);
+    }
+    return recovered;
+  }
+
+  /**
+   * Starts journaling a portfolio, such as one just created or loaded, by writing a snapshot of
+   * it on the background thread. A portfolio already journaled under the same name is replaced.
+   * @param portfolio the portfolio
+   */
+  public void track(Portfolio portfolio) {
+    Log log = logs.compute(portfolio.getName(), (name, existing) -> {
+      Log tracked = existing == null ? new Log(portfolio, 0) : existing;
+      synchronized (tracked) {
+        tracked.portfolio = portfolio;
+        tracked.generation++;
+      }
+      return tracked;
+    });
+    snapshotLater(log);
+  }
+
+  /**
+   * Makes a change to a portfolio and appends the trades it made to the portfolio's journal.
+   * Changes recorded for the same portfolio are made and appended one at a time, so the journal
+   * replays them in the order they were made. A change can look up prices, so it is made without
+   * holding up commits; only appending its record waits for them.
+   * @param portfolio the portfolio, which is tracked first if it isn't yet
+   * @param change the change, which returns the trades it made
+   * @return a future completed once the trades are on disk, or completed exceptionally if they
+   *         couldn't be written, in which case the next snapshot keeps them instead
+   */
+  public CompletableFuture<Void> record(Portfolio portfolio, Supplier<List<Trade>> change) {
+    Log log = logs.get(portfolio.getName());
+    if (log == null || log.portfolio != portfolio) {
+      track(portfolio);
+      log = logs.get(portfolio.getName());
+    }
+
+    CompletableFuture<Void> committed = new CompletableFuture<>();
+    boolean full;
+    synchronized (log.changing) {
+      List<Trade> trades = change.get();
+      if (trades.isEmpty()) {
+        committed.complete(null);
+        return committed;
+      }
+      synchronized (log) {
+        log.lastRecord++;
+        log.records++;
+        writeRecord(log.pending, log.lastRecord, trades);
+        log.waiting.add(committed);
+        full = log.pending.size() >= commitBytes;
+      }
+    }
+    if (full) {
+      Log toCommit = log;
+      background.execute(() -> commit(toCommit));
+    }
+    return committed;
+  }
+
+  /**
+   * Writes a new snapshot of a portfolio on the background thread, such as after a change that
+   * isn't a trade.
+   * @param portfolio the portfolio
+   */
+  public void snapshot(Portfolio portfolio) {
+    Log log = logs.get(portfolio.getName());
+    if (log == null || log.portfolio != portfolio) {
+      track(portfolio);
+    } else {
+      synchronized (log) {
+        log.generation++;
+      }
+      snapshotLater(log);
+    }
+  }
+
+  /**
+   * Stops journaling a portfolio and deletes its files, such as when it has been saved.
+   * @param portfolioName the name of the portfolio
+   */
+  public void forget(String portfolioName) {
+    Log log = logs.remove(portfolioName);
+    if (log != null) {
+      delete(log);
+    }
+  }
+
+  /**
+   * Stops journaling a portfolio and deletes its files, such as when it has been saved, unless
+   * its name is journaled for a different portfolio by now, such as one loaded or created since.
+   * @param portfolio the portfolio
+   */
+  public void forget(Portfolio portfolio) {
+    Log[] removed = new Log[1];
+    logs.computeIfPresent(portfolio.getName(), (name, log) -> {
+      if (log.portfolio != portfolio) {
+        return log;
+      }
+      removed[0] = log;
+      return null;
+    });
+    if (removed[0] != null) {
+      delete(removed[0]);
+    }
+  }
+
+  //deletes the files of a journal no longer kept
+  private void delete(Log log) {
+    synchronized (log.io) {
+      log.forgotten = true;
+      log.closeChannel();
+      try {
+        Files.deleteIfExists(log.journalPath);
+        Files.deleteIfExists(log.snapshotPath);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Forces every record appended so far to disk, writing any snapshot still due first.
+   * @throws IllegalArgumentException if a snapshot can't be written
+   */
+  public void flush() {
+    for (Log log : logs.values()) {
+      flush(log);
+    }
+  }
+
+  /**
+   * Compacts a portfolio's journal into a new snapshot.
+   * @param portfolioName the name of the portfolio
+   * @throws IllegalArgumentException if the portfolio isn't journaled or the snapshot can't be
+   *         written
+   */
+  public void compact(String portfolioName) {
+    Log log = logs.get(portfolioName);
+    if (log == null) {
+      throw new IllegalArgumentException("Portfolio '" + portfolioName + "' is not journaled.");
+    }
+    compact(log);
+  }
+
+  /**
+   * Stops the background thread and forces every record appended so far to disk.
+   */
+  @Override
+  public void close() {
+    background.shutdown();
+    try {
+      background.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Log log : logs.values()) {
+      try {
+        flush(log);
+      } catch (IllegalArgumentException e) {
+        e.printStackTrace();
+      }
+      synchronized (log.io) {
+        log.closeChannel();
+      }
+    }
+  }
+
+  //writes the snapshot a portfolio is due on the background thread, so callers never wait for it
+  private void snapshotLater(Log log) {
+    try {
+      background.execute(() -> {
+        try {
+          //skipped if a snapshot written since, such as by a flush, already covers the change
+          synchronized (log.snapshotting) {
+            if (isSnapshotDue(log)) {
+              compactAlone(log);
+            }
+          }
+        } catch (IllegalArgumentException e) {
+          //the records stay in memory and the snapshot is tried again with the next compaction
+          e.printStackTrace();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      //the journal is closing, which writes any snapshot still due
+    }
+  }
+
+  //forces a portfolio's records to disk, or writes its snapshot if one is due
+  private void flush(Log log) {
+    if (isSnapshotDue(log)) {
+      compact(log);
+    } else {
+      commit(log);
+    }
+  }
+
+  //commits the buffered records of every portfolio, run on the background thread
+  private void commitAll() {
+    for (Log log : logs.values()) {
+      commit(log);
+    }
+  }
+
+  //checks if the portfolio has changed beyond its records since its last snapshot
+  private static boolean isSnapshotDue(Log log) {
+    synchronized (log) {
+      return log.generation != log.snapshotGeneration;
+    }
+  }
+
+  //compacts every journal that has grown long enough, run on the background thread
+  private void compactAll() {
+    for (Log log : logs.values()) {
+      boolean due;
+      synchronized (log) {
+        due = log.records >= compactRecords || log.generation != log.snapshotGeneration;
+      }
+      if (due) {
+        try {
+          compact(log);
+        } catch (IllegalArgumentException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  //writes a portfolio's buffered records to its journal and forces them to disk
+  private void commit(Log log) {
+    synchronized (log.io) {
+      byte[] bytes;
+      List<CompletableFuture<Void>> done;
+      synchronized (log) {
+        //records wait for a snapshot that is due, since they follow on from it
+        if (log.forgotten || log.pending.size() == 0
+                || log.generation != log.snapshotGeneration) {
+          return;
+        }
+        bytes = log.pending.toByteArray();
+        log.pending.reset();
+        done = log.waiting;
+        log.waiting = new ArrayList<>();
+      }
+      try {
+        write(log.channel(), bytes);
+        done.forEach(future -> future.complete(null));
+      } catch (IOException e) {
+        //the records may be partly written, so instead of writing them again a new snapshot,
+        //which holds their changes, is made due; later records wait for it, leaving no gap
+        synchronized (log) {
+          log.generation++;
+        }
+        done.forEach(future -> future.completeExceptionally(e));
+        snapshotLater(log);
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Writes a snapshot of a portfolio and drops the journal records it covers. The snapshot is
+   * taken from an instant copy of the portfolio and written without holding up trades; only
+   * records made while it was written are kept in the journal. When the snapshot is due, the
+   * buffered records don't follow on from the journal on disk, so they are left out of it and
+   * only complete once the snapshot covering them is written.
+   * @param log the portfolio's journal
+   * @throws IllegalArgumentException if the snapshot can't be written
+   */
+  private void compact(Log log) {
+    //snapshots of one portfolio are written one at a time, as they share a temporary file
+    synchronized (log.snapshotting) {
+      compactAlone(log);
+    }
+  }
+
+  //writes the snapshot with the snapshotting lock held
+  private void compactAlone(Log log) {
+    List<CompletableFuture<Void>> done = List.of();
+    try {
+      Portfolio copy;
+      long covered;
+      long coveredBytes;
+      int generation;
+      synchronized (log.io) {
+        byte[] bytes;
+        boolean due;
+        if (log.forgotten) {
+          return;
+        }
+        //no change is half made while the copy is taken, so it holds exactly the covered records
+        synchronized (log.changing) {
+          synchronized (log) {
+            copy = log.portfolio.fork(log.portfolio.getName());
+            covered = log.lastRecord;
+            generation = log.generation;
+            due = generation != log.snapshotGeneration;
+            log.records = 0;
+            bytes = log.pending.toByteArray();
+            log.pending.reset();
+            done = log.waiting;
+            log.waiting = new ArrayList<>();
+          }
+        }
+        FileChannel channel = log.channel();
+        if (!due) {
+          write(channel, bytes);
+          done.forEach(future -> future.complete(null));
+          done = List.of();
+        }
+        coveredBytes = channel.size();
+      }
+
+      Path temporary = Paths.get(log.snapshotPath + TEMPORARY);
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        OutputStream stream = Channels.newOutputStream(out);
+        new DataOutputStream(stream).writeLong(covered);
+        BinaryParser.write(copy, stream, false);
+        out.force(true);
+      }
+      Files.move(temporary, log.snapshotPath, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+      synchronized (log) {
+        log.snapshotGeneration = Math.max(log.snapshotGeneration, generation);
+      }
+      done.forEach(future -> future.complete(null));
+      done = List.of();
+
+      commit(log);
+      synchronized (log.io) {
+        if (log.forgotten) {
+          return;
+        }
+        FileChannel channel = log.channel();
+        if (channel.size() == coveredBytes) {
+          channel.truncate(0);
+          channel.force(false);
+        } else {
+          //records made while the snapshot was written are moved to a new journal
+          Path tail = Paths.get(log.journalPath + TEMPORARY);
+          try (FileChannel out = FileChannel.open(tail, StandardOpenOption.CREATE,
+                  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = coveredBytes;
+            while (position < channel.size()) {
+              position += channel.transferTo(position, channel.size() - position, out);
+            }
+            out.force(true);
+          }
+          log.closeChannel();
+          Files.move(tail, log.journalPath, StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    } catch (IOException e) {
+      //records left out of the journal wait for the snapshot to be tried again
+      synchronized (log) {
+        log.waiting.addAll(done);
+      }
+      throw new IllegalArgumentException("Could not compact the journal of portfolio '"
+              + log.portfolio.getName() + "'.", e);
+    }
+  }
+
+  //writes bytes to the end of a journal and forces them to disk
+  private static void write(FileChannel channel, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+  }
+
+  //loads a snapshot and replays its journal, cutting off a torn record at the end
+  private Log recover(String stem) throws IOException {
+    Path snapshotPath = directory.resolve(stem + SNAPSHOT);
+    Portfolio portfolio;
+    long covered;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshotPath))) {
+      covered = new DataInputStream(in).readLong();
+      portfolio = BinaryParser.read(in);
+    }
+
+    Log log = new Log(portfolio, covered);
+    if (!Files.exists(log.journalPath)) {
+      return log;
+    }
+    long validBytes = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Files.newInputStream(log.journalPath)))) {
+      while (true) {
+        byte[] record = readRecord(in);
+        if (record == null) {
+          break;
+        }
+        validBytes += record.length + 8;
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+        long number = fields.readLong();
+        List<Trade> trades = readTrades(fields);
+        if (number > covered) {
+          if (number != log.lastRecord + 1) {
+            throw new IllegalArgumentException("The journal of portfolio '"
+                    + portfolio.getName() + "' is missing records " + (log.lastRecord + 1)
+                    + " to " + (number - 1) + ".");
+          }
+          try {
+            portfolio.updateStocks(trades);
+          } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Could not replay record " + number
+                    + " of the journal of portfolio '" + portfolio.getName() + "': "
+                    + e.getMessage(), e);
+          }
+          log.lastRecord = number;
+          log.records++;
+        }
+      }
+    }
+    try (FileChannel channel = FileChannel.open(log.journalPath, StandardOpenOption.WRITE)) {
+      if (channel.size() > validBytes) {
+        channel.truncate(validBytes);
+        channel.force(false);
+      }
+    }
+    return log;
+  }
+
+  //appends a record of trades, framed by its length and a checksum
+  private static void writeRecord(OutputStream out, long number, List<Trade> trades) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream fields = new DataOutputStream(bytes);
+      fields.writeLong(number);
+      fields.writeInt(trades.size());
+      for (Trade trade : trades) {
+        fields.writeUTF(trade.getTicker());
+        fields.writeDouble(trade.getShares());
+        fields.writeUTF(trade.getDate());
+        fields.writeBoolean(trade.isAdding());
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+
+      DataOutputStream record = new DataOutputStream(out);
+      record.writeInt(bytes.size());
+      bytes.writeTo(record);
+      record.writeInt((int) crc.getValue());
+    } catch (IOException e) {
+      //writing to memory can't fail
+      throw new IllegalStateException(e);
+    }
+  }
+
+  //reads the next whole, uncorrupted record, or null at the end of the journal
+  private static byte[] readRecord(DataInputStream in) throws IOException {
+    byte[] header = in.readNBytes(4);
+    if (header.length < 4) {
+      return null;
+    }
+    int length = ByteBuffer.wrap(header).getInt();
+    if (length < 12 || length > MAX_RECORD_BYTES) {
+      return null;
+    }
+    byte[] record = in.readNBytes(length);
+    byte[] checksum = in.readNBytes(4);
+    if (record.length < length || checksum.length < 4) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    return ByteBuffer.wrap(checksum).getInt() == (int) crc.getValue() ? record : null;
+  }
+
+  private static List<Trade> readTrades(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<Trade> trades = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String ticker = in.readUTF();
+      double shares = in.readDouble();
+      String date = in.readUTF();
+      trades.add(new Trade(ticker, shares, date, in.readBoolean()));
+    }
+    return trades;
+  }
+
+  /**
+   * Represents the journal of one portfolio. Its monitor guards the buffered records and record
+   * numbers; changing is held while the portfolio changes; io guards the journal file;
+   * snapshotting is held while a snapshot is written. Locks are always taken in the order
+   * snapshotting, io, changing, then the monitor.
+   */
+  private final class Log {
+    private final Object snapshotting = new Object();
+    private final Object io = new Object();
+    private final Object changing = new Object();
+    private final Path journalPath;
+    private final Path snapshotPath;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private volatile Portfolio portfolio;
+    private boolean forgotten;
+    private long lastRecord;
+    private int records;
+    //a snapshot is due while the portfolio has changed since the last one beyond its records
+    private int generation;
+    private int snapshotGeneration;
+    private FileChannel channel;
+
+    private Log(Portfolio portfolio, long lastRecord) {
+      String stem = URLEncoder.encode(portfolio.getName(), StandardCharsets.UTF_8);
+      this.journalPath = directory.resolve(stem + JOURNAL);
+      this.snapshotPath = directory.resolve(stem + SNAPSHOT);
+      this.portfolio = portfolio;
+      this.lastRecord = lastRecord;
+    }
+
+    //opens the journal file for appending, if it isn't open
+    private FileChannel channel() throws IOException {
+      if (channel == null || !channel.isOpen()) {
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      }
+      return channel;
+    }
+
+    private void closeChannel() {
+      try {
+        if (channel != null) {
+          channel.close();
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      channel = null;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents the history of trades in a portfolio. Every CHECKPOINT_INTERVAL trades the ledger
+ * stores a checkpoint of the shares held, so the holdings on any past date are found by binary
+ * searching for the last trade on or before that date, loading the checkpoint before it, and
+ * replaying only the few trades in between.
+ *
+ * <p>Ledgers are immutable: recording a trade returns a new ledger. The new ledger shares its
+ * trade array with the old one whenever it can, since the old ledger never looks past its own
+ * size, so appending at the end doesn't copy the history.
+ */
+public class TradeLedger {
+  public static final int CHECKPOINT_INTERVAL = 32;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Buffer buffer;
+  private final int size;
+
+  /**
+   * Constructs an empty trade ledger.
+   */
+  public TradeLedger() {
+    this(new Buffer(INITIAL_CAPACITY), 0);
+  }
+
+  //constructs a ledger of the first size trades of a buffer
+  private TradeLedger(Buffer buffer, int size) {
+    this.buffer = buffer;
+    this.size = size;
+  }
+
+  /**
+   * Records a trade, returning a new ledger with the trade added. Trades are kept in chronological
+   * order, so a trade on or after the last recorded date is simply appended. An earlier trade,
+   * such as one before the opening positions of a loaded portfolio, is inserted in date order and
+   * the checkpoints after it are rebuilt.
+   *
+   * @param trade the trade to record
+   * @return a ledger with the trade recorded
+   * @throws IllegalArgumentException if the trade sells more shares than are held at that point
+   */
+  public TradeLedger append(Trade trade) {
+    int position = countTradesOnOrBefore(trade.getDate());
+    if (position < size) {
+      List<Trade> trades = new ArrayList<>(getTrades());
+      trades.add(position, trade);
+      return rebuild(trades);
+    }
+
+    if (!trade.isAdding()) {
+      double held = getHoldingsAsOf(size).getOrDefault(trade.getTicker(), 0.0);
+      if (trade.getShares() > held) {
+        throw new IllegalArgumentException("Cannot sell more shares (" + trade.getShares()
+                + ") than existing (" + held + ")");
+      }
+    }
+
+    //writes into the shared buffer only if no other ledger has claimed the next slot
+    Buffer target = buffer;
+    if (size == target.trades.length || !target.claimed.compareAndSet(size, size + 1)) {
+      target = buffer.copy(size, Math.max(INITIAL_CAPACITY, size * 2));
+      target.claimed.set(size + 1);
+    }
+    target.trades[size] = trade;
+    if ((size + 1) % CHECKPOINT_INTERVAL == 0) {
+      Map<String, Double> holdings = getHoldingsAsOf(size);
+      apply(holdings, trade);
+      target.checkpoints[(size + 1) / CHECKPOINT_INTERVAL] =
+              Collections.unmodifiableMap(holdings);
+    }
+    return new TradeLedger(target, size + 1);
+  }
+
+  /**
+   * Gets the shares of each stock held on the given date, after every trade on or before it.
+   *
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return a map of each stock ticker held to its number of shares, in the order first bought
+   */
+  public Map<String, Double> getHoldingsAsOf(String date) {
+    return getHoldingsAsOf(countTradesOnOrBefore(date));
+  }
+
+  /**
+   * Gets the shares of each stock held after the latest trade.
+   * @return a map of each stock ticker held to its number of shares, in the order first bought
+   */
+  public Map<String, Double> getHoldings() {
+    return getHoldingsAsOf(size);
+  }
+
+  /**
+   * Gets every trade in the ledger in chronological order.
+   * @return an unmodifiable list of trades
+   */
+  public List<Trade> getTrades() {
+    return Collections.unmodifiableList(Arrays.asList(buffer.trades).subList(0, size));
+  }
+
+  /**
+   * Gets the number of trades in the ledger.
+   * @return the number of trades
+   */
+  public int size() {
+    return size;
+  }
+
+  //gets the holdings after the first count trades, replaying from the checkpoint before them
+  private Map<String, Double> getHoldingsAsOf(int count) {
+    int checkpoint = count / CHECKPOINT_INTERVAL;
+    Map<String, Double> holdings = new LinkedHashMap<>(buffer.checkpoints[checkpoint]);
+    for (int i = checkpoint * CHECKPOINT_INTERVAL; i < count; i++) {
+      apply(holdings, buffer.trades[i]);
+    }
+    return holdings;
+  }
+
+  //builds a ledger from a full list of trades in date order, checking every sale
+  private static TradeLedger rebuild(List<Trade> trades) {
+    Buffer buffer = new Buffer(Math.max(INITIAL_CAPACITY, trades.size() * 2));
+    Map<String, Double> holdings = new LinkedHashMap<>();
+    for (int i = 0; i < trades.size(); i++) {
+      apply(holdings, trades.get(i));
+      buffer.trades[i] = trades.get(i);
+      if ((i + 1) % CHECKPOINT_INTERVAL == 0) {
+        buffer.checkpoints[(i + 1) / CHECKPOINT_INTERVAL] =
+                Collections.unmodifiableMap(new LinkedHashMap<>(holdings));
+      }
+    }
+    buffer.claimed.set(trades.size());
+    return new TradeLedger(buffer, trades.size());
+  }
+
+  //counts the trades on or before the date, trades are sorted by date so this is a binary search
+  private int countTradesOnOrBefore(String date) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (buffer.trades[middle].getDate().compareTo(date) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  //applies a trade to a map of holdings, removing stocks with no shares left
+  private static void apply(Map<String, Double> holdings, Trade trade) {
+    double shares = holdings.getOrDefault(trade.getTicker(), 0.0) + trade.getShareChange();
+    if (shares < 0) {
+      throw new IllegalArgumentException("Cannot sell more shares (" + trade.getShares()
+              + ") than existing (" + holdings.getOrDefault(trade.getTicker(), 0.0) + ")");
+    }
+    if (shares > 0) {
+      holdings.put(trade.getTicker(), shares);
+    } else {
+      holdings.remove(trade.getTicker());
+    }
+  }
+
+  //trade and checkpoint arrays shared by ledgers that are prefixes of each other
+  private static class Buffer {
+    private final Trade[] trades;
+    //checkpoints[k] holds the shares after the first k * CHECKPOINT_INTERVAL trades
+    private final Map<String, Double>[] checkpoints;
+    //the number of slots written, only the ledger that claims a slot may write it
+    private final AtomicInteger claimed;
+
+    private Buffer(int capacity) {
+      this.trades = new Trade[capacity];
+      this.checkpoints = newCheckpoints(capacity / CHECKPOINT_INTERVAL + 1);
+      this.claimed = new AtomicInteger();
+      checkpoints[0] = Collections.emptyMap();
+    }
+
+    //generic arrays can't be created directly, so the wildcard array is cast once here
+    @SuppressWarnings("unchecked")
+    private static Map<String, Double>[] newCheckpoints(int length) {
+      return (Map<String, Double>[]) new Map<?, ?>[length];
+    }
+
+    //copies the first size trades and their checkpoints into a buffer of the given capacity
+    private Buffer copy(int size, int capacity) {
+      Buffer copy = new Buffer(capacity);
+      System.arraycopy(trades, 0, copy.trades, 0, size);
+      System.arraycopy(checkpoints, 0, copy.checkpoints, 0, size / CHECKPOINT_INTERVAL + 1);
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package stockmarket;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Represents the cached valuations of one state of a portfolio: its value, distribution and
+ * composition on the dates that have been asked for. Each entry remembers the price series it was
+ * calculated from and is ignored once any of them is replaced. Entries are sorted by date, so when
+ * a trade creates the next state only the entries before the trade date are carried over, since
+ * the trade can't change anything before it.
+ *
+ * <p>Entries are kept in an immutable tree sorted by date, so carrying them over to the next
+ * state takes one split of the tree that shares every surviving entry, however many there are.
+ * Once the cache is full the least recently used entries are dropped, an eighth of the capacity
+ * at a time, so a date asked for again and again stays cached however old it is.
+ */
+public class ValuationCache {
+  public static final int DEFAULT_CAPACITY = 256;
+  //orders the uses of every entry of every cache
+  private static final AtomicLong CLOCK = new AtomicLong();
+
+  private final int capacity;
+  //keyed by date then kind, e.g. "2024-05-01|value", so keys sort by date first
+  private final AtomicReference<Node> root;
+
+  /**
+   * Constructs an empty valuation cache that holds at most the given number of entries.
+   *
+   * @param capacity the maximum number of entries to keep
+   * @throws IllegalArgumentException if capacity is not positive
+   */
+  public ValuationCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive.");
+    }
+    this.capacity = capacity;
+    this.root = new AtomicReference<>();
+  }
+
+  //a cache of the given capacity that starts with the entries of a tree
+  private ValuationCache(int capacity, Node root) {
+    this.capacity = capacity;
+    this.root = new AtomicReference<>(root);
+  }
+
+  /**
+   * Constructs an empty valuation cache with the default capacity.
+   */
+  public ValuationCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Gets a cached valuation.
+   *
+   * @param kind the kind of valuation, such as "value"
+   * @param date the date in the format "YYYY-MM-DD"
+   * @param <T> the type of the valuation
+   * @return the valuation, or null if it isn't cached or a price series it used was replaced
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(String kind, String date) {
+    String key = key(kind, date);
+    Entry entry = Node.get(root.get(), key);
+    if (entry == null) {
+      return null;
+    }
+    for (Map.Entry<String, PriceSeries> used : entry.series.entrySet()) {
+      if (PriceSeries.of(used.getKey()) != used.getValue()) {
+        remove(key, entry);
+        return null;
+      }
+    }
+    entry.lastUsed = CLOCK.incrementAndGet();
+    return (T) entry.value;
+  }
+
+  /**
+   * Caches a valuation. Once the cache is full, the least recently used entries are dropped.
+   *
+   * @param kind the kind of valuation, such as "value"
+   * @param date the date in the format "YYYY-MM-DD"
+   * @param value the valuation, which must not be changed afterwards
+   * @param tickers the stocks whose prices the valuation used
+   */
+  public void put(String kind, String date, Object value, Collection<String> tickers) {
+    Map<String, PriceSeries> series = new HashMap<>();
+    for (String ticker : tickers) {
+      series.put(ticker, PriceSeries.of(ticker));
+    }
+    String key = key(kind, date);
+    Entry entry = new Entry(value, series);
+    update(tree -> Node.put(tree, key, entry));
+    if (size() > capacity) {
+      evict();
+    }
+  }
+
+  /**
+   * Makes the cache of the state after a trade, keeping only the entries before the trade date.
+   * The entries are shared with this cache rather than copied.
+   *
+   * @param tradeDate the date of the trade in the format "YYYY-MM-DD"
+   * @return a new cache with the entries before the trade date
+   */
+  public ValuationCache before(String tradeDate) {
+    //"2024-05-01|value" sorts after "2024-05-01", so entries on the trade date are left out
+    return new ValuationCache(capacity, Node.split(root.get(), tradeDate)[0]);
+  }
+
+  /**
+   * Drops every entry calculated from a stock's prices, such as after its prices are refreshed.
+   *
+   * @param ticker the stock ticker symbol
+   * @return the kind and date of each entry dropped, in date order
+   */
+  public List<Map.Entry<String, String>> invalidate(String ticker) {
+    List<Map.Entry<String, String>> dropped = new ArrayList<>();
+    List<Map.Entry<String, Entry>> entries = new ArrayList<>();
+    Node.collect(root.get(), entries);
+    for (Map.Entry<String, Entry> entry : entries) {
+      if (entry.getValue().series.containsKey(ticker)
+              && remove(entry.getKey(), entry.getValue())) {
+        String[] dateAndKind = entry.getKey().split("\\|");
+        dropped.add(new AbstractMap.SimpleEntry<>(dateAndKind[1], dateAndKind[0]));
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Gets the number of entries cached.
+   * @return the number of entries
+   */
+  public int size() {
+    return Node.size(root.get());
+  }
+
+  //drops the least recently used entries down to seven eighths of the capacity, so the
+  //entries are only sorted once every so many puts
+  private void evict() {
+    List<Map.Entry<String, Entry>> entries = new ArrayList<>();
+    Node.collect(root.get(), entries);
+    entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+    int drop = entries.size() - (capacity - capacity / 8);
+    for (int i = 0; i < drop; i++) {
+      remove(entries.get(i).getKey(), entries.get(i).getValue());
+    }
+  }
+
+  //removes an entry if it is still the one cached under its key
+  private boolean remove(String key, Entry entry) {
+    boolean[] removed = new boolean[1];
+    update(tree -> {
+      removed[0] = Node.get(tree, key) == entry;
+      return removed[0] ? Node.remove(tree, key) : tree;
+    });
+    return removed[0];
+  }
+
+  //replaces the tree, retrying if another thread replaced it first
+  private void update(UnaryOperator<Node> change) {
+    while (true) {
+      Node current = root.get();
+      Node changed = change.apply(current);
+      if (changed == current || root.compareAndSet(current, changed)) {
+        return;
+      }
+    }
+  }
+
+  //builds the lookup key from the date and kind
+  private static String key(String kind, String date) {
+    return date + "|" + kind;
+  }
+
+  //a cached valuation along with the price series it was calculated from
+  private static class Entry {
+    private final Object value;
+    private final Map<String, PriceSeries> series;
+    //when the entry was last put or found, shared by every cache the entry was carried over to
+    private volatile long lastUsed;
+
+    private Entry(Object value, Map<String, PriceSeries> series) {
+      this.value = value;
+      this.series = series;
+      this.lastUsed = CLOCK.incrementAndGet();
+    }
+  }
+
+  /**
+   * Represents a node of an immutable treap: a search tree by key that is also a heap by a random
+   * priority, so it stays balanced. Changes copy only the path to the change and share the rest,
+   * and a null node is the empty tree.
+   */
+  private static final class Node {
+    private final String key;
+    private final Entry entry;
+    private final int priority;
+    private final Node left;
+    private final Node right;
+    private final int size;
+
+    private Node(String key, Entry entry, int priority, Node left, Node right) {
+      this.key = key;
+      this.entry = entry;
+      this.priority = priority;
+      this.left = left;
+      this.right = right;
+      this.size = size(left) + size(right) + 1;
+    }
+
+    private static int size(Node node) {
+      return node == null ? 0 : node.size;
+    }
+
+    private static Entry get(Node node, String key) {
+      while (node != null) {
+        int compared = key.compareTo(node.key);
+        if (compared == 0) {
+          return node.entry;
+        }
+        node = compared < 0 ? node.left : node.right;
+      }
+      return null;
+    }
+
+    //splits a tree into the keys before the given key and the keys from it on
+    private static Node[] split(Node node, String key) {
+      if (node == null) {
+        return new Node[2];
+      }
+      if (node.key.compareTo(key) < 0) {
+        Node[] parts = split(node.right, key);
+        parts[0] = new Node(node.key, node.entry, node.priority, node.left, parts[0]);
+        return parts;
+      }
+      Node[] parts = split(node.left, key);
+      parts[1] = new Node(node.key, node.entry, node.priority, parts[1], node.right);
+      return parts;
+    }
+
+    //joins two trees, every key of the first being before every key of the second
+    private static Node merge(Node first, Node second) {
+      if (first == null) {
+        return second;
+      }
+      if (second == null) {
+        return first;
+      }
+      if (first.priority > second.priority) {
+        return new Node(first.key, first.entry, first.priority, first.left,
+                merge(first.right, second));
+      }
+      return new Node(second.key, second.entry, second.priority, merge(first, second.left),
+              second.right);
+    }
+
+    private static Node put(Node node, String key, Entry entry) {
+      Node[] before = split(node, key);
+      //the next string after the key, so the second split takes out just the key
+      Node[] after = split(before[1], key + '\0');
+      Node added = new Node(key, entry, ThreadLocalRandom.current().nextInt(), null, null);
+      return merge(merge(before[0], added), after[1]);
+    }
+
+    private static Node remove(Node node, String key) {
+      Node[] before = split(node, key);
+      return merge(before[0], split(before[1], key + '\0')[1]);
+    }
+
+    //adds the entries of a tree to a list in key order
+    private static void collect(Node node, List<Map.Entry<String, Entry>> entries) {
+      if (node != null) {
+        collect(node.left, entries);
+        entries.add(new AbstractMap.SimpleEntry<>(node.key, node.entry));
+        collect(node.right, entries);
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package stockmarket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Values many portfolios on every trading day of a date range as one matrix product: a sparse
+ * matrix of the shares each portfolio holds (portfolios by stocks) times a dense matrix of closing
+ * prices (stocks by days). Since holdings change with trades, each portfolio is split into rows
+ * that each cover the days between two of its trades, so every row holds the same shares for its
+ * whole span of days.
+ *
+ * <p>The holdings are stored in compressed sparse row form. The product is computed in blocks of
+ * portfolios and days small enough to stay in the processor cache, with each block of portfolios
+ * on its own thread, so no two threads ever write the same value.
+ */
+public class ValuationKernel {
+  public static final int PORTFOLIO_BLOCK = 64;
+  public static final int DAY_BLOCK = 256;
+
+  private final List<String> portfolioNames;
+  private final List<String> days;
+  //prices[stock][day] is the last close on or before the day, or 0 before the stock's history
+  private final double[][] prices;
+  //the portfolio of each row, and the first day and day after the last day it covers
+  private final int[] rowPortfolio;
+  private final int[] rowFrom;
+  private final int[] rowTo;
+  //the stocks and shares of row r are at indexes rowPointer[r] to rowPointer[r + 1] - 1
+  private final int[] rowPointer;
+  private final int[] columns;
+  private final double[] shares;
+  //the rows of portfolio p are firstRow[p] to firstRow[p + 1] - 1
+  private final int[] firstRow;
+
+  /**
+   * Builds the holdings and price matrices of the given portfolios over a date range. The days are
+   * every date in the range on which any stock the portfolios held has a price.
+   *
+   * @param portfolios the portfolios to value
+   * @param startDate the first date in the format "YYYY-MM-DD"
+   * @param endDate the last date in the format "YYYY-MM-DD"
+   * @throws IllegalArgumentException if the start date is after the end date
+   */
+  public ValuationKernel(List<Portfolio> portfolios, String startDate, String endDate) {
+    if (startDate.compareTo(endDate) > 0) {
+      throw new IllegalArgumentException("Start date must be before end date.");
+    }
+
+    //takes one snapshot of each portfolio's trades up to the end date
+    List<List<Trade>> trades = new ArrayList<>();
+    Map<String, Integer> stockIndexes = new LinkedHashMap<>();
+    this.portfolioNames = new ArrayList<>();
+    for (Portfolio portfolio : portfolios) {
+      List<Trade> traded = new ArrayList<>();
+      for (Trade trade : portfolio.getTrades()) {
+        if (trade.getDate().compareTo(endDate) > 0) {
+          break;
+        }
+        traded.add(trade);
+        stockIndexes.putIfAbsent(trade.getTicker(), stockIndexes.size());
+      }
+      trades.add(traded);
+      portfolioNames.add(portfolio.getName());
+    }
+
+    //the trading days of every stock in the range
+    List<PriceSeries> series = new ArrayList<>();
+    TreeSet<String> tradingDays = new TreeSet<>();
+    for (String ticker : stockIndexes.keySet()) {
+      PriceSeries prices = PriceSeries.of(ticker);
+      series.add(prices);
+      for (int i = prices.ceilingIndex(startDate);
+           i < prices.size() && prices.getDate(i).compareTo(endDate) <= 0; i++) {
+        tradingDays.add(prices.getDate(i));
+      }
+    }
+    this.days = new ArrayList<>(tradingDays);
+    this.prices = buildPrices(series, days);
+
+    //splits each portfolio into rows at its trades
+    List<Integer> portfolioOfRow = new ArrayList<>();
+    List<Integer> from = new ArrayList<>();
+    List<Integer> to = new ArrayList<>();
+    List<Integer> pointers = new ArrayList<>();
+    List<Integer> stocks = new ArrayList<>();
+    List<Double> held = new ArrayList<>();
+    this.firstRow = new int[portfolios.size() + 1];
+    pointers.add(0);
+    for (int p = 0; p < trades.size(); p++) {
+      firstRow[p] = portfolioOfRow.size();
+      Map<String, Double> holdings = new LinkedHashMap<>();
+      int day = 0;
+      int next = 0;
+      List<Trade> traded = trades.get(p);
+      while (day < days.size()) {
+        //applies every trade made by this day
+        while (next < traded.size() && traded.get(next).getDate().compareTo(days.get(day)) <= 0) {
+          Trade trade = traded.get(next++);
+          double total = holdings.getOrDefault(trade.getTicker(), 0.0) + trade.getShareChange();
+          if (total > 0) {
+            holdings.put(trade.getTicker(), total);
+          } else {
+            holdings.remove(trade.getTicker());
+          }
+        }
+        //the row lasts until the day of the next trade
+        int end = days.size();
+        if (next < traded.size()) {
+          end = Math.max(day + 1, ceiling(days, traded.get(next).getDate()));
+        }
+        if (!holdings.isEmpty()) {
+          portfolioOfRow.add(p);
+          from.add(day);
+          to.add(end);
+          for (Map.Entry<String, Double> holding : holdings.entrySet()) {
+            stocks.add(stockIndexes.get(holding.getKey()));
+            held.add(holding.getValue());
+          }
+          pointers.add(stocks.size());
+        }
+        day = end;
+      }
+    }
+    firstRow[portfolios.size()] = portfolioOfRow.size();
+
+    this.rowPortfolio = toIntArray(portfolioOfRow);
+    this.rowFrom = toIntArray(from);
+    this.rowTo = toIntArray(to);
+    this.rowPointer = toIntArray(pointers);
+    this.columns = toIntArray(stocks);
+    this.shares = new double[held.size()];
+    for (int i = 0; i < shares.length; i++) {
+      shares[i] = held.get(i);
+    }
+  }
+
+  /**
+   * Multiplies the holdings and price matrices, giving the value of every portfolio on every day.
+   *
+   * @return a grid of the value of each portfolio on each trading day
+   */
+  public ValueGrid multiply() {
+    double[][] values = new double[portfolioNames.size()][days.size()];
+    int portfolioBlocks = (portfolioNames.size() + PORTFOLIO_BLOCK - 1) / PORTFOLIO_BLOCK;
+
+    IntStream.range(0, portfolioBlocks).parallel().forEach(block -> {
+      int firstPortfolio = block * PORTFOLIO_BLOCK;
+      int lastPortfolio = Math.min(firstPortfolio + PORTFOLIO_BLOCK, portfolioNames.size());
+      for (int dayStart = 0; dayStart < days.size(); dayStart += DAY_BLOCK) {
+        int dayEnd = Math.min(dayStart + DAY_BLOCK, days.size());
+        for (int row = firstRow[firstPortfolio]; row < firstRow[lastPortfolio]; row++) {
+          int from = Math.max(rowFrom[row], dayStart);
+          int to = Math.min(rowTo[row], dayEnd);
+          if (from >= to) {
+            continue;
+          }
+          double[] output = values[rowPortfolio[row]];
+          for (int k = rowPointer[row]; k < rowPointer[row + 1]; k++) {
+            double[] price = prices[columns[k]];
+            double held = shares[k];
+            for (int day = from; day < to; day++) {
+              output[day] += held * price[day];
+            }
+          }
+        }
+      }
+    });
+
+    return new ValueGrid(portfolioNames, days, values);
+  }
+
+  //builds the dense price matrix, carrying each close forward over days without a price
+  private static double[][] buildPrices(List<PriceSeries> series, List<String> days) {
+    double[][] prices = new double[series.size()][days.size()];
+    for (int s = 0; s < series.size(); s++) {
+      PriceSeries stock = series.get(s);
+      int cursor = days.isEmpty() ? -1 : stock.floorIndex(days.get(0));
+      for (int day = 0; day < days.size(); day++) {
+        while (cursor + 1 < stock.size()
+                && stock.getDate(cursor + 1).compareTo(days.get(day)) <= 0) {
+          cursor++;
+        }
+        prices[s][day] = cursor >= 0 ? stock.getClose(cursor) : 0.0;
+      }
+    }
+    return prices;
+  }
+
+  //finds the first day on or after the date
+  private static int ceiling(List<String> days, String date) {
+    int index = Collections.binarySearch(days, date);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  //converts a list of integers to an array
+  private static int[] toIntArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+}
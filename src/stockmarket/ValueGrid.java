@@ -0,0 +1,71 @@
+package stockmarket;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the values of several portfolios on several days, as a grid with one row per
+ * portfolio and one column per day.
+ */
+public class ValueGrid {
+  private final List<String> portfolioNames;
+  private final List<String> dates;
+  private final double[][] values;
+
+  /**
+   * Constructs a value grid.
+   *
+   * @param portfolioNames the name of the portfolio of each row
+   * @param dates the date of each column in the format "YYYY-MM-DD"
+   * @param values the value of each portfolio on each date, indexed by row then column
+   */
+  public ValueGrid(List<String> portfolioNames, List<String> dates, double[][] values) {
+    this.portfolioNames = Collections.unmodifiableList(portfolioNames);
+    this.dates = Collections.unmodifiableList(dates);
+    this.values = values;
+  }
+
+  /**
+   * Gets the name of the portfolio of each row.
+   * @return the portfolio names in row order
+   */
+  public List<String> getPortfolioNames() {
+    return portfolioNames;
+  }
+
+  /**
+   * Gets the date of each column.
+   * @return the dates in column order
+   */
+  public List<String> getDates() {
+    return dates;
+  }
+
+  /**
+   * Gets the value of a portfolio on a date.
+   *
+   * @param portfolioName the name of the portfolio
+   * @param date the date in the format "YYYY-MM-DD"
+   * @return the value of the portfolio on the date
+   * @throws IllegalArgumentException if the portfolio or date isn't in the grid
+   */
+  public double getValue(String portfolioName, String date) {
+    int row = portfolioNames.indexOf(portfolioName);
+    int column = Collections.binarySearch(dates, date);
+    if (row < 0 || column < 0) {
+      throw new IllegalArgumentException("No value for portfolio '" + portfolioName
+              + "' on " + date + ".");
+    }
+    return values[row][column];
+  }
+
+  /**
+   * Gets the values of a row of the grid.
+   *
+   * @param row the row of the portfolio
+   * @return a copy of the portfolio's value on each date
+   */
+  public double[] getRow(int row) {
+    return values[row].clone();
+  }
+}
@@ -1,26 +1,39 @@
 package stockmarket;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * This class provides methods to convert a Portfolio object to an XML file and vice versa.
+ * Files are read and written as streams of XML events, one element at a time, so no document
+ * tree of the whole portfolio is ever built. The files are indented by four spaces per level.
  */
 public class XMLParser {
+  //factories are costly to create and safe to share once configured
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+  private static final String INDENT = "    ";
+
   /**
    * Converts a Portfolio object to an XML file, given the portfolio and the file name.
    * @param portfolio a portfolio of stocks that is to be converted
@@ -28,59 +41,172 @@ public class XMLParser {
    * @return true if successful, false if unsuccessful
    */
   public static boolean toXML(Portfolio portfolio, String fileName) {
+    try (OutputStream out = Files.newOutputStream(Paths.get("src/portfolio/" + fileName
+            + ".xml"))) {
+      write(portfolio, out);
+      System.out.println("XML file created successfully!");
+      return true;
+
+    } catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Writes a portfolio as XML to a stream. The stream is flushed but not closed.
+   * @param portfolio the portfolio to write
+   * @param out the stream to write to
+   * @throws IOException if the XML can't be written
+   */
+  public static void write(Portfolio portfolio, OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(new BufferedOutputStream(out),
+            StandardCharsets.UTF_8);
     try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      Document doc = builder.newDocument();
-      Element root = doc.createElement("portfolio");
-      doc.appendChild(root);
-
-      // Portfolio name
-      Element nameElement = doc.createElement("name");
-      nameElement.appendChild(doc.createTextNode(portfolio.getName()));
-      root.appendChild(nameElement);
-
-      // Latest date
-      Element latestDateElement = doc.createElement("latestDate");
-      latestDateElement.appendChild(doc.createTextNode(portfolio.getLatestDate()));
-      root.appendChild(latestDateElement);
+      //written by hand, since stream writers can't declare the document standalone="no"
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+      XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(writer);
+      xml.writeStartElement("portfolio");
+
+      // Portfolio name and latest date
+      writeText(xml, 1, "name", portfolio.getName());
+      writeText(xml, 1, "latestDate", portfolio.getLatestDate());
 
       // Stocks
-      Element stocksElement = doc.createElement("stocks");
-      root.appendChild(stocksElement);
+      List<Stock> stocks = portfolio.getStocks();
+      if (stocks.isEmpty()) {
+        indent(xml, 1);
+        xml.writeEmptyElement("stocks");
+      } else {
+        indent(xml, 1);
+        xml.writeStartElement("stocks");
+        for (Stock stock : stocks) {
+          indent(xml, 2);
+          xml.writeStartElement("stock");
+          writeText(xml, 3, "ticker", stock.getTicker());
+          writeText(xml, 3, "shares", String.valueOf(stock.getShares()));
+          writeText(xml, 3, "dateAdded", stock.getDateAdded());
+          indent(xml, 2);
+          xml.writeEndElement();
+        }
+        indent(xml, 1);
+        xml.writeEndElement();
+      }
 
-      for (Stock stock : portfolio.getStocks()) {
-        Element stockElement = doc.createElement("stock");
+      // Recurring plans, left out when there are none
+      List<RecurringPlan> plans = portfolio.getRecurringPlans();
+      if (!plans.isEmpty()) {
+        indent(xml, 1);
+        xml.writeStartElement("plans");
+        for (RecurringPlan plan : plans) {
+          writePlan(xml, plan);
+        }
+        indent(xml, 1);
+        xml.writeEndElement();
+      }
 
-        Element ticker = doc.createElement("ticker");
-        ticker.appendChild(doc.createTextNode(stock.getTicker()));
-        stockElement.appendChild(ticker);
+      // Tax lots, left out when there are none
+      TaxLots lots = portfolio.getTaxLots();
+      if (!lots.getLots().isEmpty() || !lots.getUnpricedSales().isEmpty()
+              || lots.getRecordedGain() != 0 || lots.getMethod() != LotMethod.FIFO) {
+        writeLots(xml, lots);
+      }
 
-        Element shares = doc.createElement("shares");
-        shares.appendChild(doc.createTextNode(String.valueOf(stock.getShares())));
-        stockElement.appendChild(shares);
+      xml.writeCharacters("\n");
+      xml.writeEndElement();
+      xml.writeCharacters("\n");
+      xml.flush();
+      writer.flush();
+    } catch (XMLStreamException e) {
+      throw new IOException("Could not write portfolio '" + portfolio.getName() + "'.", e);
+    }
+  }
 
-        Element dateAdded = doc.createElement("dateAdded");
-        dateAdded.appendChild(doc.createTextNode(stock.getDateAdded()));
-        stockElement.appendChild(dateAdded);
+  /**
+   * Writes a recurring plan as a plan element.
+   * @param xml the writer to write to
+   * @param plan the recurring plan
+   * @throws XMLStreamException if the plan can't be written
+   */
+  private static void writePlan(XMLStreamWriter xml, RecurringPlan plan)
+          throws XMLStreamException {
+    indent(xml, 2);
+    xml.writeStartElement("plan");
+    writeText(xml, 3, "planName", plan.getName());
+    writeText(xml, 3, "amount", String.valueOf(plan.getAmount()));
+    writeText(xml, 3, "intervalDays", String.valueOf(plan.getIntervalDays()));
+    writeText(xml, 3, "startDate", plan.getStartDate());
+    writeText(xml, 3, "endDate", plan.getEndDate());
+    writeText(xml, 3, "nextDate", plan.getNextDate());
+    indent(xml, 3);
+    xml.writeStartElement("weights");
+    for (Map.Entry<String, Integer> weight : plan.getWeights().entrySet()) {
+      indent(xml, 4);
+      xml.writeStartElement("weight");
+      writeText(xml, 5, "symbol", weight.getKey());
+      writeText(xml, 5, "percentage", String.valueOf(weight.getValue()));
+      indent(xml, 4);
+      xml.writeEndElement();
+    }
+    indent(xml, 3);
+    xml.writeEndElement();
+    indent(xml, 2);
+    xml.writeEndElement();
+  }
 
-        stocksElement.appendChild(stockElement);
+  /**
+   * Writes the tax lots as a lots element: the lot method, the recorded gain, each lot held and
+   * each sale out of a lot that doesn't know its price. A lot without a price has an empty price.
+   * @param xml the writer to write to
+   * @param lots the tax lots
+   * @throws XMLStreamException if the lots can't be written
+   */
+  private static void writeLots(XMLStreamWriter xml, TaxLots lots) throws XMLStreamException {
+    indent(xml, 1);
+    xml.writeStartElement("lots");
+    writeText(xml, 2, "lotMethod", lots.getMethod().name());
+    writeText(xml, 2, "realizedGain", String.valueOf(lots.getRecordedGain()));
+    for (List<Lot> queue : lots.getLots().values()) {
+      for (Lot lot : queue) {
+        writeLot(xml, "lot", lot);
       }
+    }
+    for (Lot sold : lots.getUnpricedSales()) {
+      writeLot(xml, "unpricedSale", sold);
+    }
+    indent(xml, 1);
+    xml.writeEndElement();
+  }
 
-      TransformerFactory transformerFactory = TransformerFactory.newInstance();
-      Transformer transformer = transformerFactory.newTransformer();
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      DOMSource source = new DOMSource(doc);
-      StreamResult result = new StreamResult(new File("src/portfolio/" + fileName
-              + ".xml"));
-      transformer.transform(source, result);
-      System.out.println("XML file created successfully!");
-      return true;
+  //writes a lot as an element of the given name, with an empty price if it doesn't know it
+  private static void writeLot(XMLStreamWriter xml, String tag, Lot lot)
+          throws XMLStreamException {
+    indent(xml, 2);
+    xml.writeStartElement(tag);
+    writeText(xml, 3, "ticker", lot.getTicker());
+    writeText(xml, 3, "shares", String.valueOf(lot.getShares()));
+    writeText(xml, 3, "purchaseDate", lot.getDate());
+    writeText(xml, 3, "price", lot.isPriced() ? String.valueOf(lot.getPrice()) : "");
+    indent(xml, 2);
+    xml.writeEndElement();
+  }
 
-    } catch (Exception e) {
-      e.printStackTrace();
-      return false;
+  //writes an element holding some text on its own line, or an empty element if there is none
+  private static void writeText(XMLStreamWriter xml, int depth, String tag, String text)
+          throws XMLStreamException {
+    indent(xml, depth);
+    if (text == null || text.isEmpty()) {
+      xml.writeEmptyElement(tag);
+      return;
     }
+    xml.writeStartElement(tag);
+    xml.writeCharacters(text);
+    xml.writeEndElement();
+  }
+
+  //starts a new line indented to the given depth
+  private static void indent(XMLStreamWriter xml, int depth) throws XMLStreamException {
+    xml.writeCharacters("\n" + INDENT.repeat(depth));
   }
 
   /**
@@ -91,41 +217,132 @@ public class XMLParser {
    * @return a Portfolio object
    */
   public static Portfolio fromXML(String fileName) {
+    try (InputStream in = Files.newInputStream(Paths.get("src/portfolio/" + fileName
+            + ".xml"))) {
+      return read(in);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    return new Portfolio.PortfolioBuilder().name(null).build();
+  }
+
+  /**
+   * Reads a portfolio from a stream of XML. The stream is not closed.
+   * @param in the stream to read from
+   * @return the portfolio
+   * @throws IOException if the XML can't be read or isn't a valid portfolio
+   */
+  public static Portfolio read(InputStream in) throws IOException {
     String portfolioName = null;
     List<Stock> stocks = new ArrayList<>();
+    List<RecurringPlan> plans = new ArrayList<>();
+    //the text of each field of the stock, plan, weight or lot being read
+    Map<String, String> fields = new HashMap<>();
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    //the tax lots, if the portfolio was saved with them
+    boolean hasLots = false;
+    LotMethod method = LotMethod.FIFO;
+    double recordedGain = 0.0;
+    List<Lot> held = new ArrayList<>();
+    List<Lot> unpricedSales = new ArrayList<>();
 
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
     try {
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      Document document = builder.parse(new File("src/portfolio/" + fileName + ".xml"));
-      document.getDocumentElement().normalize();
-
-      NodeList nameList = document.getElementsByTagName("name");
-      if (nameList.getLength() > 0) {
-        portfolioName = nameList.item(0).getTextContent();
-      }
-
-      NodeList stockNodes = document.getElementsByTagName("stock");
-      for (int i = 0; i < stockNodes.getLength(); i++) {
-        Node stockNode = stockNodes.item(i);
-        if (stockNode.getNodeType() == Node.ELEMENT_NODE) {
-          Element stockElement = (Element) stockNode;
-
-          String ticker = stockElement.getElementsByTagName("ticker").item(0)
-                  .getTextContent();
-          double shares = Double.parseDouble(stockElement.getElementsByTagName("shares")
-                  .item(0).getTextContent());
-          String dateAdded = stockElement.getElementsByTagName("dateAdded").item(0)
-                  .getTextContent();
-
-          Stock stock = new Stock(ticker, shares, dateAdded);
-          stocks.add(stock);
+      XMLStreamReader xml = INPUT_FACTORY.createXMLStreamReader(new BufferedInputStream(in));
+      try {
+        while (xml.hasNext()) {
+          int event = xml.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            String tag = xml.getLocalName();
+            if (tag.equals("name")) {
+              if (portfolioName == null) {
+                portfolioName = xml.getElementText();
+              }
+            } else if (tag.equals("lotMethod")) {
+              method = LotMethod.valueOf(xml.getElementText());
+            } else if (tag.equals("realizedGain")) {
+              recordedGain = Double.parseDouble(xml.getElementText());
+            } else if (isField(tag)) {
+              fields.put(tag, xml.getElementText());
+            }
+          } else if (event == XMLStreamConstants.END_ELEMENT) {
+            String tag = xml.getLocalName();
+            if (tag.equals("stock")) {
+              stocks.add(Stock.saved(fields.get("ticker"),
+                      Double.parseDouble(fields.get("shares")), fields.get("dateAdded")));
+              fields.clear();
+            } else if (tag.equals("weight")) {
+              weights.put(fields.get("symbol"), Integer.parseInt(fields.get("percentage")));
+            } else if (tag.equals("plan")) {
+              plans.add(new RecurringPlan(fields.get("planName"),
+                      Double.parseDouble(fields.get("amount")), weights,
+                      Integer.parseInt(fields.get("intervalDays")), fields.get("startDate"),
+                      fields.get("endDate"), fields.get("nextDate")));
+              fields.clear();
+              weights.clear();
+            } else if (tag.equals("lot")) {
+              held.add(readLot(fields));
+              fields.clear();
+            } else if (tag.equals("unpricedSale")) {
+              unpricedSales.add(readLot(fields));
+              fields.clear();
+            } else if (tag.equals("lots")) {
+              hasLots = true;
+            }
+          }
         }
+      } finally {
+        xml.close();
       }
-    } catch (Exception e) {
-      e.printStackTrace();
+    } catch (XMLStreamException | NullPointerException | IllegalArgumentException e) {
+      throw new IOException("Could not read portfolio.", e);
+    }
+
+    Portfolio.PortfolioBuilder builder = new Portfolio.PortfolioBuilder().name(portfolioName)
+            .addAllStock(stocks);
+    for (RecurringPlan plan : plans) {
+      builder.addPlan(plan);
     }
+    if (hasLots) {
+      builder.lots(TaxLots.restore(held, unpricedSales, recordedGain, method));
+    }
+    return builder.build();
+  }
+
+  //makes a lot from the fields read, without a price if the price is empty
+  private static Lot readLot(Map<String, String> fields) {
+    String price = fields.get("price");
+    return new Lot(fields.get("ticker"), Double.parseDouble(fields.get("shares")),
+            fields.get("purchaseDate"), price.isEmpty() ? Double.NaN : Double.parseDouble(price));
+  }
+
+  //checks if a tag is a field of a stock, plan, weight or lot
+  private static boolean isField(String tag) {
+    switch (tag) {
+      case "ticker":
+      case "shares":
+      case "dateAdded":
+      case "planName":
+      case "amount":
+      case "intervalDays":
+      case "startDate":
+      case "endDate":
+      case "nextDate":
+      case "symbol":
+      case "percentage":
+      case "purchaseDate":
+      case "price":
+        return true;
+      default:
+        return false;
+    }
+  }
 
-    return new Portfolio.PortfolioBuilder().name(portfolioName).addAllStock(stocks).build();
+  //creates the input factory, without DTDs or external entities
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
   }
 }
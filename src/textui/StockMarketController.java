@@ -2,9 +2,11 @@ package textui;
 
 import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.stream.Stream;
 
 import stockmarket.Model;
 import stockmarket.Stock;
@@ -14,6 +16,8 @@ import stockmarket.Utils;
  * Controls the flow of the stock market simulation application.
  */
 public class StockMarketController implements Controller {
+  //the number of streamed lines written before asking the user whether to keep going
+  private static final int PAGE_SIZE = 50;
   private final View view;
   private final Readable readable;
   private final Model model;
@@ -169,12 +173,11 @@ public class StockMarketController implements Controller {
       view.writeMessage("Enter x value: ");
       int x = scanner.nextInt();
       try {
-        List<String> crossovers = model.calculateXDayCrossover(ticker, startDate, endDate, x);
+        Stream<String> crossovers = model.streamXDayCrossover(ticker, startDate, endDate, x);
         view.writeMessage(x + "-day crossovers for " + ticker + " from " + startDate + " to "
                 + endDate + ": " + System.lineSeparator());
-        for (String crossover : crossovers) {
-          view.writeMessage(crossover + System.lineSeparator());
-        }
+        //crossovers are written as they're found
+        writeLines(scanner, crossovers);
         handleComplete = true;
       }
       catch (Exception e) {
@@ -436,11 +439,9 @@ public class StockMarketController implements Controller {
           throw new IllegalArgumentException("Invalid selection. Choose 1 or 2.");
         }
         view.writeMessage("Loading visualization now... ");
-        List<String> visual = model.visualizePerformanceOverTime(
+        Stream<String> visual = model.streamPerformanceOverTime(
                 name, startDate, endDate, isPortfolio, isAbsolute);
-        for (String s : visual) {
-          view.writeMessage(s + System.lineSeparator());
-        }
+        writeLines(scanner, visual);
         handleComplete = true;
       } catch (Exception e) {
         view.writeMessage("Error: " + e.getMessage() + System.lineSeparator());
@@ -458,7 +459,7 @@ public class StockMarketController implements Controller {
         if (number == 1) {
           view.writeMessage("Enter portfolio name : ");
           String portfolioName = scanner.next();
-          view.writeMessage("Enter file name (excluding .xml) : ");
+          view.writeMessage("Enter file name (excluding .xml, or ending in .spf for binary) : ");
           String fileName = scanner.next();
           model.savePortfolio(portfolioName, fileName);
         } else if (number == 2) {
@@ -476,6 +477,31 @@ public class StockMarketController implements Controller {
     }
   }
 
+  /**
+   * Writes each line of a stream as soon as it is produced. After every page of lines the user is
+   * asked whether to keep going, and if they stop, the rest of the lines are never calculated.
+   *
+   * @param scanner the scanner to read user input
+   * @param lines   the lazily produced lines to write
+   */
+  private void writeLines(Scanner scanner, Stream<String> lines) {
+    try (lines) {
+      Iterator<String> iterator = lines.iterator();
+      int written = 0;
+      while (iterator.hasNext()) {
+        if (written > 0 && written % PAGE_SIZE == 0) {
+          view.writeMessage("Type 'more' to keep going or anything else to stop: ");
+          if (!scanner.next().equals("more")) {
+            view.writeMessage("Stopped after " + written + " lines." + System.lineSeparator());
+            return;
+          }
+        }
+        view.writeMessage(iterator.next() + System.lineSeparator());
+        written++;
+      }
+    }
+  }
+
   private List<Integer> getStockPercentages(Scanner scanner, List<Stock> stocks) {
     List<Integer> percentages = new ArrayList<>();
     int stockCount = stocks.size();
@@ -0,0 +1,114 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import data.AlphaVantage;
+import stockmarket.AnalyticsCache;
+import stockmarket.StockModel;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the analytics cache in front of the stock model answers repeated queries from
+ * memory, stays within its capacity, and drops results when a stock's price history is
+ * refreshed.
+ */
+public class AnalyticsCacheTest {
+  StockModel stockModel;
+
+  /**
+   * Sets up a stock model with the Google stock information loaded.
+   */
+  @Before
+  public void setUp() {
+    stockModel = new StockModel();
+    AlphaVantage.getStock("GOOG");
+  }
+
+  /**
+   * Tests that repeating the same query is answered from the cache with the same result.
+   */
+  @Test
+  public void testRepeatedQueriesHit() {
+    AnalyticsCache cache = stockModel.getAnalyticsCache();
+    double first = stockModel.calculateMovingAverage("GOOG", "2024-05-28", 3);
+    double second = stockModel.calculateMovingAverage("GOOG", "2024-05-28", 3);
+    assertEquals(first, second, 0.0001);
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertEquals(0.5, cache.getHitRate(), 0.0001);
+    //different parameters are a different result
+    stockModel.calculateMovingAverage("GOOG", "2024-05-28", 2);
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.size());
+  }
+
+  /**
+   * Tests that cached crossover lists can't be changed by callers.
+   */
+  @Test
+  public void testCrossoverCopies() {
+    List<String> crossovers = stockModel.calculateXDayCrossover("GOOG",
+            "2024-04-24", "2024-04-29", 5);
+    crossovers.clear();
+    assertEquals(3, stockModel.calculateXDayCrossover("GOOG",
+            "2024-04-24", "2024-04-29", 5).size());
+    assertEquals(1, stockModel.getAnalyticsCache().getHits());
+  }
+
+  /**
+   * Tests that refreshing a stock's price history makes its cached results miss.
+   */
+  @Test
+  public void testRefreshInvalidates() {
+    AnalyticsCache cache = stockModel.getAnalyticsCache();
+    stockModel.calculateGainLoss("GOOG", "2024-05-28", "2024-05-29");
+    stockModel.refreshStock("GOOG");
+    assertEquals(0, cache.size());
+    assertEquals(-0.62, stockModel.calculateGainLoss("GOOG",
+            "2024-05-28", "2024-05-29"), 0.01);
+    assertEquals(0, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  /**
+   * Tests that a result is recomputed when the data version changes without an explicit
+   * invalidation.
+   */
+  @Test
+  public void testDataVersionMismatchMisses() {
+    AnalyticsCache cache = new AnalyticsCache();
+    int[] computed = {0};
+    cache.get("test", "GOOG", () -> ++computed[0], 1);
+    cache.get("test", "GOOG", () -> ++computed[0], 1);
+    assertEquals(1, computed[0]);
+    AlphaVantage.refreshStock("GOOG");
+    cache.get("test", "GOOG", () -> ++computed[0], 1);
+    assertEquals(2, computed[0]);
+  }
+
+  /**
+   * Tests that the least recently used result is evicted once the cache is full.
+   */
+  @Test
+  public void testBoundedSize() {
+    AnalyticsCache cache = new AnalyticsCache(2);
+    cache.get("test", "GOOG", () -> 1, "a");
+    cache.get("test", "GOOG", () -> 2, "b");
+    //touch "a" so "b" is the least recently used
+    cache.get("test", "GOOG", () -> 1, "a");
+    cache.get("test", "GOOG", () -> 3, "c");
+    assertEquals(2, cache.size());
+    assertEquals(Integer.valueOf(1), cache.get("test", "GOOG", () -> 4, "a"));
+    assertEquals(Integer.valueOf(5), cache.get("test", "GOOG", () -> 5, "b"));
+  }
+
+  /**
+   * Tests that a cache with no room throws an exception.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new AnalyticsCache(0);
+  }
+}
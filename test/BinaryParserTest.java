@@ -0,0 +1,148 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import stockmarket.BinaryParser;
+import stockmarket.LotMethod;
+import stockmarket.Portfolio;
+import stockmarket.PortfolioFiles;
+import stockmarket.PortfolioFormat;
+import stockmarket.RecurringPlan;
+import stockmarket.XMLParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the binary parser converts portfolios to and from the binary format, and that
+ * portfolio files are loaded in whichever format they were saved in.
+ */
+public class BinaryParserTest {
+  Portfolio portfolio;
+
+  /**
+   * Sets up a portfolio with whole and fractional shares and a recurring plan.
+   */
+  @Before
+  public void setUp() {
+    portfolio = new Portfolio("Binary");
+    portfolio.updateStock("AMZN", 3, "2013-06-04", true);
+    portfolio.updateStock("GOOG", 3, "2013-08-19", true);
+    portfolio.addRecurringPlan(new RecurringPlan("Monthly", 1000,
+            Map.of("GOOG", 60, "AAPL", 40), 30, "2024-05-01", "2024-05-03"));
+  }
+
+  /**
+   * Tests that a portfolio reads back the same, whether or not it is compressed.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    for (boolean compress : new boolean[]{false, true}) {
+      Portfolio parsed = roundTrip(portfolio, compress);
+      assertEquals(portfolio.getName(), parsed.getName());
+      //fractional shares bought by the plan are kept exactly
+      assertEquals(portfolio.getStocks(), parsed.getStocks());
+      assertEquals(portfolio.getTrades(), parsed.getTrades());
+      assertEquals(1, parsed.getRecurringPlans().size());
+      RecurringPlan plan = parsed.getRecurringPlans().get(0);
+      assertEquals("Monthly", plan.getName());
+      assertEquals(1000, plan.getAmount(), 0.001);
+      assertEquals(Integer.valueOf(60), plan.getWeights().get("GOOG"));
+      assertEquals(portfolio.getRecurringPlans().get(0).getNextDate(), plan.getNextDate());
+    }
+  }
+
+  /**
+   * Tests that the tax lots, realized gain and lot method read back, including the sales out of
+   * lots that don't know their price.
+   */
+  @Test
+  public void testTaxLots() throws IOException {
+    portfolio.setLotMethod(LotMethod.LIFO);
+    portfolio.updateStock("GOOG", 1, "2024-05-06", false);
+    Portfolio parsed = roundTrip(portfolio, true);
+    assertEquals(portfolio.getTaxLots().getLots(), parsed.getTaxLots().getLots());
+    assertEquals(LotMethod.LIFO, parsed.getTaxLots().getMethod());
+    assertEquals(portfolio.getTaxLots().getRealizedGain(),
+            parsed.getTaxLots().getRealizedGain(), 0.001);
+
+    //a portfolio loaded without prices sells out of lots without a price
+    Portfolio unpriced = new Portfolio.PortfolioBuilder().name("Unpriced")
+            .addAllStock(portfolio.getStocks()).build();
+    unpriced.updateStock("AMZN", 3, "2024-05-06", false);
+    Portfolio parsedUnpriced = roundTrip(unpriced, false);
+    assertEquals(unpriced.getTaxLots().getRealizedGain(),
+            parsedUnpriced.getTaxLots().getRealizedGain(), 0.001);
+    assertEquals(unpriced.getTaxLots().getCostBasis(),
+            parsedUnpriced.getTaxLots().getCostBasis(), 0.001);
+  }
+
+  /**
+   * Tests that an empty portfolio reads back empty.
+   */
+  @Test
+  public void testEmptyPortfolio() throws IOException {
+    Portfolio parsed = roundTrip(new Portfolio("Empty"), false);
+    assertEquals("Empty", parsed.getName());
+    assertEquals(0, parsed.getStocks().size());
+  }
+
+  /**
+   * Tests that the binary format is smaller than the XML format.
+   */
+  @Test
+  public void testSmallerThanXml() throws IOException {
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    BinaryParser.write(portfolio, binary, false);
+    ByteArrayOutputStream xml = new ByteArrayOutputStream();
+    XMLParser.write(portfolio, xml);
+    assertTrue(binary.size() * 3 < xml.size());
+  }
+
+  /**
+   * Tests that a file that isn't binary is not read as one.
+   */
+  @Test(expected = IOException.class)
+  public void testNotBinary() throws IOException {
+    BinaryParser.read(new ByteArrayInputStream("<?xml version=\"1.0\"?>".getBytes()));
+  }
+
+  /**
+   * Tests that a file from a newer version of the format is refused.
+   */
+  @Test(expected = IOException.class)
+  public void testNewerVersion() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryParser.write(portfolio, out, false);
+    byte[] bytes = out.toByteArray();
+    bytes[4]++;
+    BinaryParser.read(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Tests that a portfolio is loaded by name in the format it was saved in.
+   */
+  @Test
+  public void testDetectFormat() throws IOException {
+    Path path = PortfolioFiles.save(portfolio, "Binary", PortfolioFormat.COMPRESSED_BINARY);
+    try {
+      assertEquals("Binary.spf", path.getFileName().toString());
+      assertEquals(portfolio.getStocks(), PortfolioFiles.load("Binary").getStocks());
+      assertEquals(portfolio.getStocks(), PortfolioFiles.load("Binary.spf").getStocks());
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  private static Portfolio roundTrip(Portfolio portfolio, boolean compress) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryParser.write(portfolio, out, compress);
+    return BinaryParser.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
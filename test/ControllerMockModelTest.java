@@ -4,11 +4,20 @@ import org.junit.Test;
 import java.io.StringReader;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import gui.GUIFeatures;
 import gui.GUIView;
 import stockmarket.Model;
 import stockmarket.Portfolio;
+import stockmarket.PortfolioFormat;
+import stockmarket.RebalancePlan;
+import stockmarket.RecurringPlan;
+import stockmarket.SaveReport;
+import stockmarket.TaxLots;
+import stockmarket.ValueGrid;
 import textui.StockMarketController;
 
 import static org.junit.Assert.assertEquals;
@@ -240,6 +249,21 @@ public class ControllerMockModelTest {
       return mockResultList;
     }
 
+    @Override
+    public Map<Integer, List<String>> calculateXDayCrossovers(String ticker, String startDate,
+                                                            String endDate, Set<Integer> windows) {
+      return Map.of();
+    }
+
+    @Override
+    public Stream<String> streamXDayCrossover(String ticker, String startDate, String endDate,
+                                              int x) {
+      if (mockResultList == null) {
+        return Stream.empty();
+      }
+      return mockResultList.stream();
+    }
+
     @Override
     public void createPortfolio(String portfolioName) {
       this.portfolioName = portfolioName;
@@ -272,6 +296,66 @@ public class ControllerMockModelTest {
       return mockResult;
     }
 
+    @Override
+    public Map<String, Map<String, Double>> calculatePortfolioValues(List<String> portfolioNames,
+                                                                    List<String> dates) {
+      return Map.of();
+    }
+
+    @Override
+    public ValueGrid calculateValueGrid(String startDate, String endDate) {
+      return new ValueGrid(List.of(), List.of(), new double[0][0]);
+    }
+
+    @Override
+    public Set<String> getPortfoliosHolding(String ticker) {
+      return Set.of();
+    }
+
+    @Override
+    public Map<String, Integer> importTrades(String filePath) {
+      return Map.of();
+    }
+
+    @Override
+    public int addRecurringPlan(String portfolioName, RecurringPlan plan) {
+      return 0;
+    }
+
+    @Override
+    public int extendRecurringPlan(String portfolioName, String planName, String endDate) {
+      return 0;
+    }
+
+    @Override
+    public TaxLots getTaxLots(String portfolioName) {
+      return new TaxLots();
+    }
+
+    @Override
+    public double calculateUnrealizedGain(String portfolioName, String date) {
+      return 0;
+    }
+
+    @Override
+    public void forkPortfolio(String portfolioName, String forkName) {
+    }
+
+    @Override
+    public Map<String, Double> diffPortfolios(String portfolioName, String otherName) {
+      return Map.of();
+    }
+
+    @Override
+    public RebalancePlan previewRebalance(String portfolioName, Map<String, Integer> percentages,
+                                          String date) {
+      return new RebalancePlan(portfolioName, 0, date, 0, Map.of());
+    }
+
+    @Override
+    public void commitRebalance(RebalancePlan plan) {
+    }
+
     @Override
     public Map<String, Double> getPortfolioDistribution(String portfolioName, String date) {
       return Map.of();
@@ -296,6 +380,12 @@ public class ControllerMockModelTest {
       return List.of();
     }
 
+    @Override
+    public Stream<String> streamPerformanceOverTime(String name, String startDate, String endDate,
+                                                    boolean isPortfolio, boolean isAbsolute) {
+      return Stream.empty();
+    }
+
     @Override
     public void savePortfolio(String portfolioName, String fileName) {
       this.portfolioName = portfolioName;
@@ -303,11 +393,38 @@ public class ControllerMockModelTest {
       this.savePortfolioCalled = true;
     }
 
+    @Override
+    public void savePortfolio(String portfolioName, String fileName, PortfolioFormat format) {
+      this.portfolioName = portfolioName;
+      this.fileName = fileName;
+      this.savePortfolioCalled = true;
+    }
+
+    @Override
+    public CompletableFuture<Void> savePortfolioAsync(String portfolioName, String fileName,
+                                                      PortfolioFormat format) {
+      this.portfolioName = portfolioName;
+      this.fileName = fileName;
+      this.savePortfolioCalled = true;
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public SaveReport saveAll(PortfolioFormat format) {
+      return new SaveReport(List.of(), List.of(), Map.of());
+    }
+
     @Override
     public void loadPortfolio(String fileName) {
       this.fileName = fileName;
       this.loadPortfolioCalled = true;
     }
+
+    @Override
+    public List<String> loadPortfolios(List<String> fileNames) {
+      this.loadPortfolioCalled = true;
+      return fileNames;
+    }
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import stockmarket.Holdings;
+import stockmarket.Stock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that holdings find, update and remove stocks by ticker while keeping the order the
+ * stocks were first added.
+ */
+public class HoldingsTest {
+  Holdings holdings;
+
+  /**
+   * Sets up holdings with three stocks.
+   */
+  @Before
+  public void setUp() {
+    holdings = new Holdings();
+    holdings.put(new Stock("AAPL", 1, "2024-05-01"));
+    holdings.put(new Stock("GOOG", 2, "2024-05-01"));
+    holdings.put(new Stock("NKE", 3, "2024-05-01"));
+  }
+
+  /**
+   * Tests that updating a stock keeps its place and removing one keeps the others in order.
+   */
+  @Test
+  public void testStableOrder() {
+    holdings.put(new Stock("AAPL", 5, "2024-05-02"));
+    assertEquals(List.of(new Stock("AAPL", 5, "2024-05-02"), new Stock("GOOG", 2, "2024-05-01"),
+            new Stock("NKE", 3, "2024-05-01")), holdings.toList());
+
+    assertEquals(new Stock("GOOG", 2, "2024-05-01"), holdings.remove("GOOG"));
+    assertNull(holdings.remove("GOOG"));
+    assertFalse(holdings.contains("GOOG"));
+    //a stock added again goes to the end
+    holdings.put(new Stock("GOOG", 1, "2024-05-03"));
+    assertEquals("AAPL", holdings.first().getTicker());
+    assertEquals("GOOG", holdings.toList().get(2).getTicker());
+    assertEquals(3, holdings.size());
+  }
+
+  /**
+   * Tests that many additions and removals, which leave removed slots behind and grow the table,
+   * don't lose any stocks or change their order.
+   */
+  @Test
+  public void testManyChanges() {
+    String[] tickers = {"AAL", "AAPL", "AMC", "AMD", "AMZN", "BA", "DIS", "F", "GE", "GME",
+        "GOOG", "HD", "MSFT", "NKE", "NVDA", "SBUX", "T", "TSLA"};
+    Holdings many = new Holdings();
+    Map<String, Stock> expected = new LinkedHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      String ticker = tickers[(i * 7) % tickers.length];
+      if (i % 3 == 0) {
+        assertEquals(expected.remove(ticker), many.remove(ticker));
+      } else {
+        Stock stock = new Stock(ticker, i, "2024-05-01");
+        many.put(stock);
+        expected.put(ticker, stock);
+      }
+    }
+    assertEquals(expected.size(), many.size());
+    assertEquals(new ArrayList<>(expected.values()), many.toList());
+    for (Stock stock : expected.values()) {
+      assertEquals(stock, many.get(stock.getTicker()));
+    }
+  }
+
+  /**
+   * Tests that holdings with the same stocks in the same order are equal.
+   */
+  @Test
+  public void testEquals() {
+    Holdings same = new Holdings(holdings.toList());
+    assertEquals(holdings, same);
+    assertEquals(holdings.hashCode(), same.hashCode());
+    same.remove("AAPL");
+    same.put(new Stock("AAPL", 1, "2024-05-01"));
+    assertFalse(holdings.equals(same));
+    assertTrue(new Holdings().isEmpty());
+    assertNull(new Holdings().first());
+  }
+
+  /**
+   * Tests that a copy and the original change independently, and comparing them finds only the
+   * stocks that differ.
+   */
+  @Test
+  public void testCopy() {
+    Holdings copy = holdings.copy();
+    assertEquals(Set.of(), copy.changedTickers(holdings));
+
+    copy.put(new Stock("GOOG", 5, "2024-05-02"));
+    copy.remove("NKE");
+    copy.put(new Stock("TSLA", 1, "2024-05-02"));
+    assertEquals(3, holdings.size());
+    assertEquals(2, holdings.get("GOOG").getShares(), 0.001);
+    assertTrue(holdings.contains("NKE"));
+    assertFalse(holdings.contains("TSLA"));
+    assertEquals(Set.of("GOOG", "NKE", "TSLA"), copy.changedTickers(holdings));
+    assertEquals(Set.of("GOOG", "NKE", "TSLA"), holdings.changedTickers(copy));
+  }
+}
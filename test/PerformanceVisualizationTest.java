@@ -3,6 +3,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import stockmarket.StockModel;
 
@@ -90,4 +91,19 @@ public class PerformanceVisualizationTest {
     }
 
   }
+
+  /**
+   * Tests that streaming the visualization of a stock produces the same rows as the list.
+   */
+  @Test
+  public void testStreamPerformanceOverTimeStock() {
+    List<String> visualization = model.visualizePerformanceOverTime("F", "2014-01-02",
+            "2016-01-04", false, false);
+    assertEquals(visualization, model.streamPerformanceOverTime("F", "2014-01-02",
+            "2016-01-04", false, false).collect(Collectors.toList()));
+    assertEquals("Performance of stock 'F' from 2014-01-02 to 2016-01-04: ",
+            visualization.get(0));
+    assertEquals("Base value: " , visualization.get(visualization.size() - 2)
+            .substring(0, 12));
+  }
 }
@@ -0,0 +1,111 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import stockmarket.Portfolio;
+import stockmarket.PortfolioCatalog;
+import stockmarket.PortfolioFiles;
+import stockmarket.PortfolioFormat;
+import stockmarket.StockModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the portfolio catalog lists saved portfolios without loading them, and that the
+ * model loads them when first found and drops the least recently found ones.
+ */
+public class PortfolioCatalogTest {
+  Path directory;
+
+  /**
+   * Saves three portfolios, one of them in binary, to a new directory.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("catalog");
+    for (String name : new String[]{"First", "Second", "Third"}) {
+      Portfolio portfolio = new Portfolio(name);
+      portfolio.updateStock("GOOG", 10, "2024-05-01", true);
+      PortfolioFormat format = name.equals("Third") ? PortfolioFormat.BINARY
+              : PortfolioFormat.XML;
+      PortfolioFiles.write(portfolio, directory.resolve(name + format.getExtension()), format);
+    }
+  }
+
+  /**
+   * Deletes the directory.
+   */
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Tests that the catalog is built from the directory, written, and read back.
+   */
+  @Test
+  public void testCatalog() {
+    PortfolioCatalog catalog = new PortfolioCatalog(directory.toString());
+    assertEquals(3, catalog.size());
+    assertEquals("Third.spf", catalog.getFiles().get("Third"));
+    assertTrue(Files.isRegularFile(directory.resolve(PortfolioCatalog.FILE_NAME)));
+
+    catalog.remove("Second");
+    catalog.flush();
+    PortfolioCatalog read = new PortfolioCatalog(directory.toString());
+    assertEquals(2, read.size());
+    assertNull(read.get("Second"));
+    assertEquals("First.xml", read.get("First").getFileName());
+  }
+
+  /**
+   * Tests that a catalogued portfolio is loaded the first time it's found, and one whose file is
+   * gone is dropped from the catalog.
+   */
+  @Test
+  public void testLoadOnDemand() throws IOException {
+    StockModel model = new StockModel(new PortfolioCatalog(directory.toString()), 10);
+    assertEquals(3, model.getLoadablePortfolios().size());
+    assertTrue(model.getPortfolios().isEmpty());
+    assertEquals(10, model.getPortfolioComposition("Third", "2024-05-01").get("GOOG"), 0.001);
+    assertEquals(1, model.getPortfolios().size());
+
+    Files.delete(directory.resolve("Second.xml"));
+    try {
+      model.findPortfolio("Second");
+      fail("A portfolio whose file is gone should not be found.");
+    } catch (IllegalArgumentException e) {
+      assertNull(model.getLoadablePortfolios().get("Second"));
+    }
+  }
+
+  /**
+   * Tests that past the capacity the least recently found portfolio is dropped, unless it has
+   * unsaved changes.
+   */
+  @Test
+  public void testEvict() {
+    StockModel model = new StockModel(new PortfolioCatalog(directory.toString()), 2);
+    model.updateStockInPortfolio("First", "GOOG", 5, "2024-05-02", true);
+    model.findPortfolio("Second");
+    model.findPortfolio("Third");
+    //First has unsaved changes, so Second is dropped instead
+    assertEquals(2, model.getPortfolios().size());
+    assertEquals("First", model.getPortfolios().get(0).getName());
+    assertEquals("Third", model.getPortfolios().get(1).getName());
+    assertEquals(15, model.getPortfolioComposition("First", "2024-05-02").get("GOOG"), 0.001);
+  }
+}
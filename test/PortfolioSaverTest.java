@@ -0,0 +1,204 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import data.AlphaVantage;
+import stockmarket.Portfolio;
+import stockmarket.PortfolioFiles;
+import stockmarket.PortfolioFormat;
+import stockmarket.PortfolioSaver;
+import stockmarket.SaveReport;
+import stockmarket.StockModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that portfolios are saved in the background, atomically, and that saves to one file
+ * leave the latest state on disk. Also tests loading many saved portfolios together.
+ */
+public class PortfolioSaverTest {
+  PortfolioSaver saver;
+  Portfolio portfolio;
+
+  /**
+   * Sets up a saver and a portfolio to save.
+   */
+  @Before
+  public void setUp() {
+    saver = new PortfolioSaver(2);
+    portfolio = new Portfolio("Saved");
+    portfolio.updateStock("GOOG", 10, "2024-05-01", true);
+  }
+
+  /**
+   * Deletes the saved files.
+   */
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(PortfolioFiles.path("Saved", PortfolioFormat.XML));
+    Files.deleteIfExists(PortfolioFiles.path("Other", PortfolioFormat.XML));
+    Files.deleteIfExists(PortfolioFiles.path("Saved", PortfolioFormat.BINARY));
+  }
+
+  /**
+   * Tests that a background save writes the file and no temporary file is left behind.
+   */
+  @Test
+  public void testSave() throws IOException {
+    Path path = saver.save(portfolio, "Saved", PortfolioFormat.XML).join();
+    assertEquals(portfolio.getStocks(), PortfolioFiles.load("Saved").getStocks());
+    try (Stream<Path> files = Files.list(path.getParent())) {
+      assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+    }
+  }
+
+  /**
+   * Tests that after many saves of a changing portfolio to one file, every save completes and
+   * the file holds the last state.
+   */
+  @Test
+  public void testCoalesce() {
+    List<CompletableFuture<Path>> saves = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      portfolio.updateStock("GOOG", 1, "2024-05-02", true);
+      saves.add(saver.save(portfolio, "Saved", PortfolioFormat.XML));
+    }
+    CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).join();
+    assertEquals(30, PortfolioFiles.load("Saved").getStocks().get(0).getShares(), 0.001);
+  }
+
+  /**
+   * Tests that saving a file again once its earlier saves are done writes the new state.
+   */
+  @Test
+  public void testSaveAgain() {
+    for (int i = 1; i <= 20; i++) {
+      portfolio.updateStock("GOOG", 1, "2024-05-02", true);
+      saver.save(portfolio, "Saved", PortfolioFormat.XML).join();
+      assertEquals(10 + i, PortfolioFiles.load("Saved").getStocks().get(0).getShares(), 0.001);
+    }
+  }
+
+  /**
+   * Tests that the model removes a portfolio saved in the background and can load it once saved.
+   */
+  @Test
+  public void testModelSaveAsync() {
+    StockModel model = new StockModel(List.of(portfolio));
+    CompletableFuture<Void> saved = model.savePortfolioAsync("Saved", "Saved",
+            PortfolioFormat.XML);
+    try {
+      model.findPortfolio("Saved");
+      fail("A portfolio being saved should be removed.");
+    } catch (IllegalArgumentException e) {
+      //expected
+    }
+    saved.join();
+    assertEquals("Saved.xml", model.getLoadablePortfolios().get("Saved"));
+    model.loadPortfolio("Saved");
+    assertEquals(portfolio.getStocks(), model.findPortfolio("Saved").getStocks());
+  }
+
+  /**
+   * Tests that parsing portfolios looks up no prices, and that loading many portfolios registers
+   * them all and then prefetches the stocks they hold.
+   */
+  @Test
+  public void testLoadPortfolios() {
+    Portfolio other = new Portfolio("Other");
+    other.updateStock("AMZN", 3, "2024-05-01", true);
+    PortfolioFiles.save(portfolio, "Saved", PortfolioFormat.XML);
+    PortfolioFiles.save(other, "Other", PortfolioFormat.XML);
+    AlphaVantage.STOCK_PRICE_HISTORY.clear();
+    assertEquals(other.getStocks(), PortfolioFiles.load("Other").getStocks());
+    assertTrue(AlphaVantage.STOCK_PRICE_HISTORY.isEmpty());
+
+    StockModel model = new StockModel();
+    assertEquals(List.of("Saved", "Other"), model.loadPortfolios(List.of("Saved", "Other")));
+    assertEquals(2, model.getPortfolios().size());
+    assertEquals(other.getStocks(), model.findPortfolio("Other").getStocks());
+    assertTrue(AlphaVantage.STOCK_PRICE_HISTORY.containsKey("AMZN"));
+    assertTrue(AlphaVantage.STOCK_PRICE_HISTORY.containsKey("GOOG"));
+  }
+
+  /**
+   * Tests that loading a file in place of an equal portfolio no longer lists the replaced one as
+   * a holder of stocks only it traded.
+   */
+  @Test
+  public void testLoadReplacesHolders() {
+    Portfolio traded = new Portfolio("Saved");
+    traded.updateStock("GOOG", 10, "2024-05-01", true);
+    traded.updateStock("AMZN", 3, "2024-05-01", true);
+    traded.updateStock("AMZN", 3, "2024-05-01", false);
+    PortfolioFiles.save(traded, "Saved", PortfolioFormat.BINARY);
+    StockModel model = new StockModel();
+    model.loadPortfolio("Saved");
+    assertEquals(Set.of("Saved"), model.getPortfoliosHolding("AMZN"));
+
+    PortfolioFiles.save(portfolio, "Saved", PortfolioFormat.BINARY);
+    model.loadPortfolio("Saved");
+    assertEquals(Set.of(), model.getPortfoliosHolding("AMZN"));
+    assertEquals(Set.of("Saved"), model.getPortfoliosHolding("GOOG"));
+
+    PortfolioFiles.save(traded, "Saved", PortfolioFormat.BINARY);
+    model.loadPortfolio("Saved");
+    PortfolioFiles.save(portfolio, "Saved", PortfolioFormat.BINARY);
+    model.loadPortfolios(List.of("Saved"));
+    assertEquals(Set.of(), model.getPortfoliosHolding("AMZN"));
+    assertEquals(Set.of("Saved"), model.getPortfoliosHolding("GOOG"));
+  }
+
+  /**
+   * Tests that if one portfolio being loaded clashes with a different one, none are loaded.
+   */
+  @Test
+  public void testLoadPortfoliosClash() {
+    PortfolioFiles.save(portfolio, "Saved", PortfolioFormat.XML);
+    PortfolioFiles.save(new Portfolio("Other"), "Other", PortfolioFormat.XML);
+    Portfolio clashing = new Portfolio("Other");
+    clashing.updateStock("GOOG", 1, "2024-05-01", true);
+    StockModel model = new StockModel(List.of(clashing));
+    try {
+      model.loadPortfolios(List.of("Saved", "Other"));
+      fail("A portfolio clashing with a different one should not be loaded.");
+    } catch (IllegalArgumentException e) {
+      assertEquals(List.of(clashing), model.getPortfolios());
+    }
+  }
+
+  /**
+   * Tests that saving every portfolio writes only those changed since they were last written.
+   */
+  @Test
+  public void testSaveAll() {
+    StockModel model = new StockModel(List.of(portfolio, new Portfolio("Other")));
+    SaveReport report = model.saveAll(PortfolioFormat.XML);
+    assertEquals(List.of("Saved", "Other"), report.getWritten());
+    assertEquals(0, report.getSkipped().size());
+    assertFalse(portfolio.isDirty());
+
+    //nothing changed, so nothing is written
+    report = model.saveAll(PortfolioFormat.XML);
+    assertEquals(0, report.getWritten().size());
+    assertEquals(List.of("Saved", "Other"), report.getSkipped());
+
+    model.updateStockInPortfolio("Other", "GOOG", 2, "2024-05-02", true);
+    report = model.saveAll(PortfolioFormat.XML);
+    assertEquals(List.of("Other"), report.getWritten());
+    assertEquals(List.of("Saved"), report.getSkipped());
+    assertEquals(2, PortfolioFiles.load("Other").getStocks().get(0).getShares(), 0.001);
+  }
+}
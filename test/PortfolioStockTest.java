@@ -1,17 +1,26 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import stockmarket.LotMethod;
 import stockmarket.Portfolio;
+import stockmarket.RebalancePlan;
+import stockmarket.RecurringPlan;
 import stockmarket.Stock;
+import stockmarket.Trade;
+import stockmarket.TradeLedger;
+import stockmarket.ValuationCache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests that methods in the portfolio class work as expected. Stocks can be added and
@@ -315,6 +324,45 @@ public class PortfolioStockTest {
     assertEquals(5.09, portfolio.getStocks().get(2).getShares(), 0.01);
   }
 
+  /**
+   * Tests that planning a rebalance by ticker previews the trades without changing the
+   * portfolio, and committing makes them all at once.
+   */
+  @Test
+  public void planAndCommitRebalance() {
+    portfolio.updateStock("AAL", 3, "2023-05-01", true);
+    portfolio.updateStock("AMZN", 1, "2023-05-02", true);
+    portfolio.updateStock("BA", 9, "2024-05-01", true);
+
+    Map<String, Integer> percentages = new HashMap<>();
+    percentages.put("BA", 50);
+    percentages.put("AAL", 30);
+    percentages.put("AMZN", 20);
+    RebalancePlan plan = portfolio.planRebalance(percentages, "2024-05-01");
+    assertEquals(3, portfolio.getVersion());
+    assertEquals(3, portfolio.getStocks().get(0).getShares(), 0.01);
+    assertTrue(plan.getTrades().get("AAL").isAdding());
+    assertFalse(plan.getTrades().get("BA").isAdding());
+
+    portfolio.commitRebalance(plan);
+    assertEquals(4, portfolio.getVersion());
+    assertEquals(38.94, portfolio.getComposition("2024-05-01").get("AAL"), 0.01);
+    assertEquals(1.96, portfolio.getComposition("2024-05-01").get("AMZN"), 0.01);
+    assertEquals(5.14, portfolio.getComposition("2024-05-01").get("BA"), 0.01);
+  }
+
+  /**
+   * Tests that a rebalance plan can't be committed once the portfolio has changed.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void commitStaleRebalance() {
+    portfolio.updateStock("AAL", 3, "2023-05-01", true);
+    portfolio.updateStock("AMZN", 1, "2023-05-02", true);
+    RebalancePlan plan = portfolio.planRebalance(Map.of("AAL", 50, "AMZN", 50), "2024-05-01");
+    portfolio.updateStock("AAL", 1, "2024-05-01", true);
+    portfolio.commitRebalance(plan);
+  }
+
   /**
    * Tests rebalance with empty percentages list.
    */
@@ -488,4 +536,334 @@ public class PortfolioStockTest {
   public void testInvalidDate2() {
     new Stock("AAPL", 1, "2025-05-11");
   }
-}
\ No newline at end of file
+
+  /**
+   * Tests that a stock bought in two trades is valued with the shares held on each date,
+   * not only from the date of the latest trade.
+   */
+  @Test
+  public void testValueUsesSharesHeldOnDate() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.updateStock("GOOG", 3, "2024-05-03", true);
+    assertEquals(2, portfolio.getHoldingsAsOf("2024-05-02").get("GOOG"), 0.001);
+    assertEquals(5, portfolio.getHoldingsAsOf("2024-05-03").get("GOOG"), 0.001);
+    assertNull(portfolio.getHoldingsAsOf("2024-04-30").get("GOOG"));
+    assertEquals(336.92, new Portfolio.PortfolioBuilder().name("Copy")
+            .addAllStock(List.of(new Stock("GOOG", 2, "2024-05-01"))).build()
+            .calculateTotalValue("2024-05-02"), 0.01);
+    Portfolio copy = new Portfolio("Copy");
+    copy.updateStock("GOOG", 2, "2024-05-01", true);
+    copy.updateStock("GOOG", 3, "2024-05-03", true);
+    assertEquals(844.95, copy.calculateTotalValue("2024-05-03"), 0.01);
+    assertEquals(2, portfolio.getTrades().size());
+    assertEquals(new Trade("GOOG", 3, "2024-05-03", true), portfolio.getTrades().get(1));
+  }
+
+  /**
+   * Tests that holdings found by replaying from a checkpoint match a full history.
+   */
+  @Test
+  public void testLedgerCheckpoints() {
+    TradeLedger ledger = new TradeLedger();
+    int trades = TradeLedger.CHECKPOINT_INTERVAL * 2 + 5;
+    for (int i = 0; i < trades; i++) {
+      String date = String.format("2024-%02d-%02d", 1 + i / 28, 1 + i % 28);
+      ledger = ledger.append(new Trade("AAPL", 1, date, true));
+    }
+    assertEquals(trades, ledger.size());
+    assertEquals(trades, ledger.getHoldings().get("AAPL"), 0.001);
+    assertEquals(40, ledger.getHoldingsAsOf("2024-02-12").get("AAPL"), 0.001);
+    assertEquals(64, ledger.getHoldingsAsOf("2024-03-08").get("AAPL"), 0.001);
+    assertTrue(ledger.getHoldingsAsOf("2023-12-31").isEmpty());
+  }
+
+  /**
+   * Tests that an earlier trade is placed in date order, and one that would sell shares not yet
+   * held leaves the ledger unchanged.
+   */
+  @Test
+  public void testLedgerEarlierTrade() {
+    TradeLedger ledger = new TradeLedger();
+    ledger = ledger.append(new Trade("AAPL", 5, "2024-05-03", true));
+    ledger = ledger.append(new Trade("AAPL", 2, "2024-05-01", true));
+    assertEquals(2, ledger.getHoldingsAsOf("2024-05-02").get("AAPL"), 0.001);
+    assertEquals("2024-05-01", ledger.getTrades().get(0).getDate());
+    try {
+      ledger.append(new Trade("AAPL", 3, "2024-05-02", false));
+    } catch (IllegalArgumentException e) {
+      assertEquals(2, ledger.size());
+      assertEquals(7, ledger.getHoldings().get("AAPL"), 0.001);
+      return;
+    }
+    throw new AssertionError("Selling shares not yet held should throw.");
+  }
+
+  /**
+   * Tests that the value series matches the value calculated on each date, using the shares
+   * held on that date.
+   */
+  @Test
+  public void testValueSeries() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.updateStock("AMZN", 1, "2024-05-03", true);
+    List<LocalDate> dates = List.of(LocalDate.of(2024, 4, 30), LocalDate.of(2024, 5, 2),
+            LocalDate.of(2024, 5, 4), LocalDate.of(2024, 5, 6));
+    double[] values = portfolio.valueSeries(dates);
+    assertEquals(4, values.length);
+    assertEquals(0, values[0], 0.001);
+    assertEquals(336.92, values[1], 0.01);
+    //a weekend uses the closing prices of the Friday before
+    assertEquals(portfolio.calculateTotalValue("2024-05-03"), values[2], 0.001);
+    assertEquals(portfolio.calculateTotalValue("2024-05-06"), values[3], 0.001);
+  }
+
+  /**
+   * Tests that a value series needs its dates in chronological order.
+   */
+  @Test (expected = IllegalArgumentException.class)
+  public void testValueSeriesUnsortedDates() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.valueSeries(List.of(LocalDate.of(2024, 5, 2), LocalDate.of(2024, 5, 1)));
+  }
+
+  /**
+   * Tests that trades from many threads at once are all kept, each one a new version.
+   */
+  @Test
+  public void testConcurrentTrades() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      threads.add(new Thread(() -> {
+        for (int j = 0; j < 50; j++) {
+          portfolio.updateStock("GOOG", 1, "2024-05-01", true);
+          portfolio.calculateTotalValue("2024-05-01");
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(200, portfolio.getStocks().get(0).getShares(), 0.001);
+    assertEquals(200, portfolio.getTrades().size());
+    assertEquals(200, portfolio.getVersion());
+  }
+
+  /**
+   * Tests that valuing the portfolio doesn't change it, so a later valuation doesn't stop an
+   * earlier trade.
+   */
+  @Test
+  public void testReadsDontChangePortfolio() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.calculateTotalValue("2024-05-06");
+    portfolio.getComposition("2024-05-06");
+    assertEquals("2024-05-01", portfolio.getLatestDate());
+    assertEquals(1, portfolio.getVersion());
+    portfolio.updateStock("GOOG", 1, "2024-05-02", true);
+    assertEquals(3, portfolio.getStocks().get(0).getShares(), 0.001);
+  }
+
+  /**
+   * Tests that two ledgers recorded from the same ledger don't see each other's trades.
+   */
+  @Test
+  public void testLedgerBranches() {
+    TradeLedger base = new TradeLedger().append(new Trade("AAPL", 1, "2024-05-01", true));
+    TradeLedger first = base.append(new Trade("AAPL", 2, "2024-05-02", true));
+    TradeLedger second = base.append(new Trade("GOOG", 3, "2024-05-02", true));
+    assertEquals(1, base.size());
+    assertEquals(3, first.getHoldings().get("AAPL"), 0.001);
+    assertNull(first.getHoldings().get("GOOG"));
+    assertEquals(1, second.getHoldings().get("AAPL"), 0.001);
+    assertEquals(3, second.getHoldings().get("GOOG"), 0.001);
+  }
+
+  /**
+   * Tests that valuations are cached per date and a trade only drops the ones on or after its
+   * date.
+   */
+  @Test
+  public void testValuationCache() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    assertEquals(336.92, portfolio.calculateTotalValue("2024-05-02"), 0.01);
+    assertEquals(336.92, portfolio.calculateTotalValue("2024-05-02"), 0.01);
+    //changing a returned map doesn't change the cache
+    portfolio.getDistribution("2024-05-02").clear();
+    assertEquals(1, portfolio.getDistribution("2024-05-02").size());
+    portfolio.getComposition("2024-05-06");
+    assertEquals(3, portfolio.getValuationCache().size());
+
+    portfolio.updateStock("GOOG", 1, "2024-05-03", true);
+    //the composition on the 6th changed, the value and distribution on the 2nd didn't
+    assertEquals(2, portfolio.getValuationCache().size());
+    assertEquals(3, portfolio.getComposition("2024-05-06").get("GOOG"), 0.001);
+  }
+
+  /**
+   * Tests that a full valuation cache drops the least recently used entry rather than the
+   * earliest date, and that the next state's cache leaves this one's entries in place.
+   */
+  @Test
+  public void testValuationCacheLeastRecentlyUsed() {
+    ValuationCache cache = new ValuationCache(3);
+    cache.put("value", "2024-01-02", 1.0, List.of());
+    cache.put("value", "2024-05-01", 2.0, List.of());
+    cache.put("value", "2024-05-02", 3.0, List.of());
+    //the year start is asked for again, so the 1st of May is the least recently used
+    assertEquals(1.0, cache.<Double>get("value", "2024-01-02"), 0.001);
+    cache.put("value", "2024-05-03", 4.0, List.of());
+    assertEquals(3, cache.size());
+    assertNull(cache.get("value", "2024-05-01"));
+    assertEquals(1.0, cache.<Double>get("value", "2024-01-02"), 0.001);
+
+    ValuationCache next = cache.before("2024-05-02");
+    assertEquals(1, next.size());
+    assertEquals(1.0, next.<Double>get("value", "2024-01-02"), 0.001);
+    assertEquals(3, cache.size());
+  }
+
+  /**
+   * Tests that a batch of trades leaves the portfolio as making them one at a time would, in a
+   * single change.
+   */
+  @Test
+  public void testUpdateStocks() {
+    Portfolio oneByOne = new Portfolio("Test");
+    oneByOne.updateStock("AAPL", 5, "2024-05-01", true);
+    oneByOne.updateStock("GOOG", 2, "2024-05-01", true);
+    oneByOne.updateStock("AAPL", 5, "2024-05-02", false);
+    oneByOne.updateStock("AMZN", 1, "2024-05-02", true);
+    oneByOne.updateStock("AAPL", 3, "2024-05-03", true);
+    oneByOne.updateStock("GOOG", 1, "2024-05-06", false);
+
+    //out of order, trades on the same date keep their order
+    portfolio.updateStocks(List.of(
+            new Trade("AAPL", 3, "2024-05-03", true),
+            new Trade("AAPL", 5, "2024-05-01", true),
+            new Trade("GOOG", 2, "2024-05-01", true),
+            new Trade("GOOG", 1, "2024-05-06", false),
+            new Trade("AAPL", 5, "2024-05-02", false),
+            new Trade("AMZN", 1, "2024-05-02", true)));
+
+    assertEquals(oneByOne.getStocks(), portfolio.getStocks());
+    assertEquals(oneByOne.getTrades(), portfolio.getTrades());
+    assertEquals("2024-05-06", portfolio.getLatestDate());
+    assertEquals(1, portfolio.getVersion());
+  }
+
+  /**
+   * Tests that a batch with an invalid trade doesn't change the portfolio.
+   */
+  @Test
+  public void testUpdateStocksInvalid() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    List<List<Trade>> invalid = List.of(
+            //the stock market is closed on a Saturday
+            List.of(new Trade("GOOG", 1, "2024-05-02", true),
+                    new Trade("AAPL", 1, "2024-05-04", true)),
+            //sells more than it bought
+            List.of(new Trade("GOOG", 1, "2024-05-02", true),
+                    new Trade("GOOG", 4, "2024-05-03", false)),
+            //before the latest date
+            List.of(new Trade("GOOG", 1, "2024-04-30", true)));
+    for (List<Trade> trades : invalid) {
+      try {
+        portfolio.updateStocks(trades);
+        fail("expected an exception");
+      } catch (IllegalArgumentException e) {
+        assertEquals(1, portfolio.getVersion());
+        assertEquals(1, portfolio.getTrades().size());
+      }
+    }
+  }
+
+  /**
+   * Tests that a recurring plan buys its basket on each scheduled trading day in one change,
+   * and extending it only makes the new investments.
+   */
+  @Test
+  public void testRecurringPlan() {
+    RecurringPlan plan = new RecurringPlan("Weekly", 1000, Map.of("GOOG", 50, "AAPL", 50), 7,
+            "2024-05-01", "2024-05-20");
+    assertEquals(3, portfolio.addRecurringPlan(plan));
+    assertEquals(1, portfolio.getVersion());
+    assertEquals(6, portfolio.getTrades().size());
+    assertEquals("2024-05-15", portfolio.getLatestDate());
+    assertEquals(500 / 165.57, portfolio.getHoldingsAsOf("2024-05-01").get("GOOG"), 0.0001);
+    assertEquals("2024-05-22", portfolio.getRecurringPlans().get(0).getNextDate());
+
+    assertEquals(2, portfolio.extendRecurringPlan("Weekly", "2024-05-31"));
+    assertEquals(10, portfolio.getTrades().size());
+    assertEquals(0, portfolio.extendRecurringPlan("Weekly", "2024-05-31"));
+    assertEquals(10, portfolio.getTrades().size());
+  }
+
+  /**
+   * Tests that scheduled dates when the market is closed invest once on the next trading day.
+   */
+  @Test
+  public void testRecurringPlanWeekend() {
+    //the 4th and 5th are a weekend
+    assertEquals(1, portfolio.addRecurringPlan(new RecurringPlan("Daily", 100,
+            Map.of("GOOG", 100), 1, "2024-05-04", "2024-05-06")));
+    assertEquals("2024-05-06", portfolio.getLatestDate());
+    assertEquals(100 / 169.83, portfolio.getComposition("2024-05-06").get("GOOG"), 0.0001);
+  }
+
+  /**
+   * Tests that a plan can't be added twice.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testRecurringPlanTwice() {
+    RecurringPlan plan = new RecurringPlan("Weekly", 1000, Map.of("GOOG", 100), 7,
+            "2024-05-01", "2024-05-20");
+    portfolio.addRecurringPlan(plan);
+    portfolio.addRecurringPlan(plan);
+  }
+
+  /**
+   * Tests that the portfolio keeps tax lots of its trades, with gains at closing prices.
+   */
+  @Test
+  public void testTaxLots() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.updateStock("GOOG", 2, "2024-05-02", true);
+    portfolio.updateStock("GOOG", 3, "2024-05-03", false);
+    assertEquals(1, portfolio.getTaxLots().getLots("GOOG").size());
+    assertEquals(168.46, portfolio.getTaxLots().getCostBasis("GOOG"), 0.01);
+    assertEquals(3 * 168.99 - (2 * 165.57 + 168.46), portfolio.getTaxLots().getRealizedGain(),
+            0.01);
+    assertEquals(169.83 - 168.46, portfolio.getUnrealizedGain("2024-05-06"), 0.01);
+
+    portfolio.setLotMethod(LotMethod.LIFO);
+    portfolio.updateStock("GOOG", 1, "2024-05-06", true);
+    portfolio.sellFromLot("GOOG", 1, "2024-05-06", "2024-05-02");
+    assertEquals(169.83, portfolio.getTaxLots().getCostBasis("GOOG"), 0.01);
+  }
+
+  /**
+   * Tests that trades on a fork don't change the original, and the diff shows the fork's
+   * changes.
+   */
+  @Test
+  public void testFork() {
+    portfolio.updateStock("GOOG", 2, "2024-05-01", true);
+    portfolio.updateStock("AAPL", 2, "2024-05-01", true);
+    Portfolio fork = portfolio.fork("What if");
+    assertEquals("What if", fork.getName());
+    assertEquals(portfolio.getStocks(), fork.getStocks());
+    assertTrue(fork.diff(portfolio).isEmpty());
+
+    fork.updateStock("GOOG", 1, "2024-05-02", false);
+    fork.updateStock("AMZN", 3, "2024-05-02", true);
+    assertEquals(2, portfolio.getComposition("2024-05-02").get("GOOG"), 0.001);
+    assertFalse(portfolio.getComposition("2024-05-02").containsKey("AMZN"));
+    Map<String, Double> diff = fork.diff(portfolio);
+    assertEquals(2, diff.size());
+    assertEquals(3, diff.get("AMZN"), 0.001);
+    assertEquals(-1, diff.get("GOOG"), 0.001);
+  }
+}
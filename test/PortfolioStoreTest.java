@@ -0,0 +1,134 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import stockmarket.Portfolio;
+import stockmarket.PortfolioStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the portfolio store keeps portfolios across reopening, with or without its index
+ * snapshot, and that compaction keeps only the live portfolios.
+ */
+public class PortfolioStoreTest {
+  Path directory;
+  String file;
+  PortfolioStore store;
+  Portfolio portfolio;
+
+  /**
+   * Opens a store in a new directory and sets up a portfolio to store.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("store");
+    file = directory.resolve("portfolios.db").toString();
+    store = new PortfolioStore(file);
+    portfolio = new Portfolio("Stored");
+    portfolio.updateStock("GOOG", 10, "2024-05-01", true);
+    portfolio.updateStock("AAPL", 2.5, "2024-05-02", true);
+  }
+
+  /**
+   * Closes the store and deletes the directory.
+   */
+  @After
+  public void tearDown() throws IOException {
+    store.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Tests that a stored portfolio is read back, also after reopening from the index snapshot.
+   */
+  @Test
+  public void testPutGet() {
+    store.put(portfolio);
+    assertFalse(portfolio.isDirty());
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+    assertNull(store.get("Missing"));
+
+    reopen();
+    assertEquals(Set.of("Stored"), store.names());
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+  }
+
+  /**
+   * Tests that without an index snapshot the index is rebuilt by scanning, with replaced and
+   * deleted portfolios left out.
+   */
+  @Test
+  public void testScan() throws IOException {
+    Portfolio other = new Portfolio("Other");
+    store.putAll(List.of(portfolio, other));
+    portfolio.updateStock("GOOG", 5, "2024-05-03", false);
+    store.put(portfolio);
+    assertTrue(store.delete("Other"));
+    assertFalse(store.delete("Other"));
+
+    store.close();
+    Files.delete(Path.of(file + ".idx"));
+    store = new PortfolioStore(file);
+    assertEquals(Set.of("Stored"), store.names());
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+  }
+
+  /**
+   * Tests that a record torn by a crash is cut off when the store is opened.
+   */
+  @Test
+  public void testTornRecord() throws IOException {
+    store.put(portfolio);
+    store.close();
+    Path data = Path.of(file);
+    long size = Files.size(data);
+    Files.write(data, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+    store = new PortfolioStore(file);
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+    assertEquals(size, Files.size(data));
+  }
+
+  /**
+   * Tests that compacting drops replaced portfolios from the file and the store still reads and
+   * reopens correctly.
+   */
+  @Test
+  public void testCompact() throws IOException {
+    for (int i = 0; i < 50; i++) {
+      portfolio.updateStock("AAPL", 1, "2024-05-03", true);
+      store.put(portfolio);
+    }
+    long size = Files.size(Path.of(file));
+    store.compact();
+    assertTrue(Files.size(Path.of(file)) < size / 10);
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+
+    store.put(new Portfolio("After"));
+    reopen();
+    assertEquals(Set.of("After", "Stored"), store.names());
+    assertEquals(portfolio.getStocks(), store.get("Stored").getStocks());
+  }
+
+  //closes the store and opens it again from its index snapshot
+  private void reopen() {
+    store.close();
+    store = new PortfolioStore(file);
+  }
+}
@@ -1,17 +1,27 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import data.AlphaVantage;
 import stockmarket.Portfolio;
 import stockmarket.Stock;
 import stockmarket.StockModel;
+import stockmarket.ValueGrid;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for the StockModel class methods. This includes all the methods uses to calculate
@@ -187,6 +197,71 @@ public class StocksModelTest {
 
   }
 
+  /**
+   * Tests that calculating crossovers for several windows at once matches calculating each
+   * window on its own.
+   */
+  @Test
+  public void calculateXDayCrossovers() {
+    Map<Integer, List<String>> crossovers = stockModel.calculateXDayCrossovers("GOOG",
+            "2020-01-02", "2024-05-31", Set.of(20, 50, 100, 200));
+    assertEquals(Set.of(20, 50, 100, 200), crossovers.keySet());
+    for (int x : crossovers.keySet()) {
+      assertEquals(stockModel.calculateXDayCrossover("GOOG", "2020-01-02", "2024-05-31", x),
+              crossovers.get(x));
+    }
+    //a window of one day is the closing price itself, so there are never crossovers
+    assertEquals(List.of(), stockModel.calculateXDayCrossovers("GOOG",
+            "2024-04-24", "2024-04-29", Set.of(1)).get(1));
+  }
+
+  /**
+   * Tests that calculating crossovers checks the range against the largest window.
+   */
+  @Test (expected = IllegalArgumentException.class)
+  public void calculateXDayCrossoversLargestWindowOutOfRange() {
+    stockModel.calculateXDayCrossovers("GOOG", "2013-08-26", "2013-08-30", Set.of(2, 10));
+  }
+
+  /**
+   * Tests that calculating crossovers with no windows throws an exception.
+   */
+  @Test (expected = IllegalArgumentException.class)
+  public void calculateXDayCrossoversNoWindows() {
+    stockModel.calculateXDayCrossovers("GOOG", "2024-04-24", "2024-04-29", Set.of());
+  }
+
+  /**
+   * Tests that calculating crossovers with a null set of windows throws an exception.
+   */
+  @Test (expected = IllegalArgumentException.class)
+  public void calculateXDayCrossoversNullWindows() {
+    stockModel.calculateXDayCrossovers("GOOG", "2024-04-24", "2024-04-29", null);
+  }
+
+  /**
+   * Tests that streaming x-day crossovers produces the same days as calculateXDayCrossover,
+   * and that a consumer can stop after the first crossover.
+   */
+  @Test
+  public void streamXDayCrossover() {
+    assertEquals(stockModel.calculateXDayCrossover("GOOG", "2024-01-02", "2024-05-31", 20),
+            stockModel.streamXDayCrossover("GOOG", "2024-01-02", "2024-05-31", 20)
+                    .collect(Collectors.toList()));
+    assertEquals(List.of("2024-04-24"),
+            stockModel.streamXDayCrossover("GOOG", "2024-04-24", "2024-04-29", 5)
+                    .limit(1).collect(Collectors.toList()));
+  }
+
+  /**
+   * Tests that streaming x-day crossovers checks its inputs right away instead of when the
+   * stream is consumed.
+   */
+  @Test (expected = IllegalArgumentException.class)
+  public void streamXDayCrossoverInvalidX() {
+    stockModel.streamXDayCrossover("GOOG", "2013-08-19", "2013-08-20", 10);
+  }
+
   /**
    * Tests that calculateXDayCrossover method throws exceptions for
    * invalid ticker values.
@@ -771,4 +846,229 @@ public class StocksModelTest {
     stockModel.rebalancePortfolio("Fake Portfolio", Arrays.asList(50, 50),
             "2024-05-12");
   }
+
+  /**
+   * Tests that when many threads create the same portfolio at once, exactly one succeeds and
+   * the rest are told it already exists.
+   */
+  @Test
+  public void createPortfolioConcurrently() throws InterruptedException {
+    AtomicInteger created = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      threads.add(new Thread(() -> {
+        for (int j = 0; j < 100; j++) {
+          try {
+            stockModel.createPortfolio("Portfolio " + j);
+            created.incrementAndGet();
+          } catch (IllegalArgumentException e) {
+            //another thread created it first
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(100, created.get());
+    assertEquals(100, stockModel.getPortfolios().size());
+    assertEquals("Portfolio 42", stockModel.findPortfolio("Portfolio 42").getName());
+  }
+
+  /**
+   * Tests that portfolios are listed in the order they were created, and a portfolio passed in
+   * with a name that is already taken is not added.
+   */
+  @Test
+  public void getPortfoliosInCreationOrder() {
+    StockModel model = new StockModel(Arrays.asList(new Portfolio("B"), new Portfolio("A"),
+            new Portfolio("B")));
+    model.createPortfolio("C");
+    assertEquals(Arrays.asList(new Portfolio("B"), new Portfolio("A"), new Portfolio("C")),
+            model.getPortfolios());
+  }
+
+  /**
+   * Tests that valuing several portfolios on several dates at once gives the same values as
+   * valuing each one on its own.
+   */
+  @Test
+  public void calculatePortfolioValues() {
+    stockModel.createPortfolio("First");
+    stockModel.updateStockInPortfolio("First", "GOOG", 2, "2024-05-01", true);
+    stockModel.createPortfolio("Second");
+    stockModel.updateStockInPortfolio("Second", "GOOG", 1, "2024-05-01", true);
+    stockModel.updateStockInPortfolio("Second", "AAPL", 3, "2024-05-02", true);
+    stockModel.createPortfolio("Empty");
+    List<String> dates = Arrays.asList("2024-05-02", "2024-05-06");
+
+    Map<String, Map<String, Double>> values = stockModel.calculatePortfolioValues(
+            Arrays.asList("Second", "First", "Empty"), dates);
+    assertEquals(Arrays.asList("Second", "First", "Empty"), new ArrayList<>(values.keySet()));
+    for (String name : Arrays.asList("First", "Second")) {
+      for (String date : dates) {
+        assertEquals(stockModel.calculatePortfolioValue(name, date),
+                values.get(name).get(date), 0.001);
+      }
+    }
+    assertEquals(0, values.get("Empty").get("2024-05-06"), 0.001);
+  }
+
+  /**
+   * Tests that valuing portfolios at once on a day the market was closed throws an exception.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void calculatePortfolioValuesInvalidDate() {
+    stockModel.createPortfolio("First");
+    stockModel.updateStockInPortfolio("First", "GOOG", 2, "2024-05-01", true);
+    stockModel.calculatePortfolioValues(Arrays.asList("First"), Arrays.asList("2024-05-04"));
+  }
+
+  /**
+   * Tests that the value grid of every portfolio on every trading day matches each portfolio's
+   * own value series, including across trades and more portfolios than fit in one block.
+   */
+  @Test
+  public void calculateValueGrid() {
+    for (int i = 0; i < 70; i++) {
+      stockModel.createPortfolio("Portfolio " + i);
+      stockModel.updateStockInPortfolio("Portfolio " + i, "GOOG", i + 1, "2024-05-01", true);
+    }
+    stockModel.createPortfolio("Mixed");
+    stockModel.updateStockInPortfolio("Mixed", "GOOG", 4, "2024-04-30", true);
+    stockModel.updateStockInPortfolio("Mixed", "AAPL", 2, "2024-05-02", true);
+    stockModel.updateStockInPortfolio("Mixed", "GOOG", 3, "2024-05-06", false);
+
+    ValueGrid grid = stockModel.calculateValueGrid("2024-04-29", "2024-05-10");
+    assertEquals(71, grid.getPortfolioNames().size());
+    assertEquals(10, grid.getDates().size());
+    List<LocalDate> dates = grid.getDates().stream().map(LocalDate::parse)
+            .collect(Collectors.toList());
+    for (int row = 0; row < 71; row++) {
+      String name = grid.getPortfolioNames().get(row);
+      double[] expected = stockModel.findPortfolio(name).valueSeries(dates);
+      double[] actual = grid.getRow(row);
+      for (int day = 0; day < expected.length; day++) {
+        assertEquals(expected[day], actual[day], 0.0001);
+      }
+    }
+    assertEquals(0, grid.getValue("Portfolio 0", "2024-04-30"), 0.0001);
+  }
+
+  /**
+   * Tests that the model tracks which portfolios have traded each stock, including stocks
+   * that have since been sold and portfolios that are loaded.
+   */
+  @Test
+  public void getPortfoliosHolding() {
+    stockModel.createPortfolio("Google");
+    stockModel.createPortfolio("Apple");
+    stockModel.updateStockInPortfolio("Google", "GOOG", 2, "2024-05-01", true);
+    stockModel.updateStockInPortfolio("Apple", "AAPL", 2, "2024-05-01", true);
+    stockModel.updateStockInPortfolio("Apple", "GOOG", 1, "2024-05-02", true);
+    stockModel.updateStockInPortfolio("Apple", "GOOG", 1, "2024-05-03", false);
+
+    assertEquals(Set.of("Google", "Apple"), stockModel.getPortfoliosHolding("GOOG"));
+    assertEquals(Set.of("Apple"), stockModel.getPortfoliosHolding("AAPL"));
+    assertEquals(Set.of(), stockModel.getPortfoliosHolding("MSFT"));
+
+    stockModel.loadPortfolio("Testing");
+    assertEquals(Set.of("Testing"), stockModel.getPortfoliosHolding("AMZN"));
+    assertEquals(Set.of("Google", "Apple", "Testing"), stockModel.getPortfoliosHolding("GOOG"));
+  }
+
+  /**
+   * Tests that refreshing a stock recalculates the cached values of only the portfolios that
+   * hold it.
+   */
+  @Test
+  public void refreshStockRecalculatesHolders() {
+    stockModel.createPortfolio("Google");
+    stockModel.createPortfolio("Apple");
+    stockModel.updateStockInPortfolio("Google", "GOOG", 2, "2024-05-01", true);
+    stockModel.updateStockInPortfolio("Apple", "AAPL", 2, "2024-05-01", true);
+    double googleValue = stockModel.calculatePortfolioValue("Google", "2024-05-02");
+    double appleValue = stockModel.calculatePortfolioValue("Apple", "2024-05-02");
+
+    assertEquals(Set.of("Google"), stockModel.refreshStock("GOOG"));
+    //the refreshed value is already cached again
+    assertEquals(1, stockModel.findPortfolio("Google").getValuationCache().size());
+    assertEquals(googleValue, stockModel.calculatePortfolioValue("Google", "2024-05-02"),
+            0.0001);
+    assertEquals(appleValue, stockModel.calculatePortfolioValue("Apple", "2024-05-02"),
+            0.0001);
+  }
+
+  /**
+   * Tests that trades are imported from a CSV file into each portfolio in it.
+   */
+  @Test
+  public void importTrades() throws IOException {
+    stockModel.createPortfolio("Growth");
+    stockModel.createPortfolio("Income");
+    Path file = Files.createTempFile("trades", ".csv");
+    Files.write(file, List.of("portfolio,date,ticker,action,shares",
+            "Growth,2024-05-02,GOOG,sell,1",
+            "Income,2024-05-01,T,buy,10",
+            "Growth,2024-05-01,GOOG,buy,3",
+            "Growth,2024-05-03,AAPL,buy,2"));
+    try {
+      Map<String, Integer> imported = stockModel.importTrades(file.toString());
+      assertEquals(Map.of("Growth", 3, "Income", 1), imported);
+      assertEquals(Map.of("GOOG", 2.0, "AAPL", 2.0),
+              stockModel.getPortfolioComposition("Growth", "2024-05-03"));
+      assertEquals("2024-05-03", stockModel.findPortfolio("Growth").getLatestDate());
+      assertEquals(Set.of("Growth"), stockModel.getPortfoliosHolding("AAPL"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Tests that importing trades for a portfolio that doesn't exist imports nothing.
+   */
+  @Test
+  public void importTradesMissingPortfolio() throws IOException {
+    stockModel.createPortfolio("Growth");
+    Path file = Files.createTempFile("trades", ".csv");
+    Files.write(file, List.of("portfolio,date,ticker,action,shares",
+            "Growth,2024-05-01,GOOG,buy,3",
+            "Missing,2024-05-01,GOOG,buy,3"));
+    try {
+      stockModel.importTrades(file.toString());
+      fail("expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Portfolio not found.", e.getMessage());
+      assertTrue(stockModel.findPortfolio("Growth").getTrades().isEmpty());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Tests that if a later portfolio's trades are invalid, no portfolio's trades are imported.
+   */
+  @Test
+  public void importTradesInvalidSecondPortfolio() throws IOException {
+    stockModel.createPortfolio("Growth");
+    stockModel.createPortfolio("Income");
+    Path file = Files.createTempFile("trades", ".csv");
+    Files.write(file, List.of("portfolio,date,ticker,action,shares",
+            "Growth,2024-05-01,GOOG,buy,3",
+            "Income,2024-05-01,T,buy,10",
+            "Income,2024-05-02,T,sell,20"));
+    try {
+      stockModel.importTrades(file.toString());
+      fail("expected an exception");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("Income"));
+      assertTrue(stockModel.findPortfolio("Growth").getTrades().isEmpty());
+      assertTrue(stockModel.findPortfolio("Income").getTrades().isEmpty());
+    } finally {
+      Files.delete(file);
+    }
+  }
 }
@@ -0,0 +1,112 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import stockmarket.Lot;
+import stockmarket.LotMethod;
+import stockmarket.TaxLots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that tax lots sell from the right lots for each lot method and keep the cost basis and
+ * realized gain up to date.
+ */
+public class TaxLotsTest {
+  TaxLots lots;
+
+  /**
+   * Sets up three lots of the same stock bought at different prices.
+   */
+  @Before
+  public void setUp() {
+    lots = new TaxLots()
+            .buy("AAPL", 10, "2024-05-01", 100)
+            .buy("AAPL", 10, "2024-05-02", 110)
+            .buy("AAPL", 10, "2024-05-03", 120);
+  }
+
+  /**
+   * Tests that FIFO sells the oldest lots first.
+   */
+  @Test
+  public void testFifo() {
+    TaxLots sold = lots.sell("AAPL", 15, 130);
+    List<Lot> left = sold.getLots("AAPL");
+    assertEquals(2, left.size());
+    assertEquals("2024-05-02", left.get(0).getDate());
+    assertEquals(5, left.get(0).getShares(), 0.001);
+    assertEquals(15 * 130 - (10 * 100 + 5 * 110), sold.getRealizedGain(), 0.001);
+    assertEquals(5 * 110 + 10 * 120, sold.getCostBasis("AAPL"), 0.001);
+    //the original lots are unchanged
+    assertEquals(3300, lots.getCostBasis(), 0.001);
+  }
+
+  /**
+   * Tests that LIFO sells the newest lots first.
+   */
+  @Test
+  public void testLifo() {
+    TaxLots sold = lots.withMethod(LotMethod.LIFO).sell("AAPL", 15, 130);
+    assertEquals(15 * 130 - (10 * 120 + 5 * 110), sold.getRealizedGain(), 0.001);
+    assertEquals("2024-05-01", sold.getLots("AAPL").get(0).getDate());
+    assertEquals(10 * 100 + 5 * 110, sold.getCostBasis(), 0.001);
+  }
+
+  /**
+   * Tests that a specific lot is sold first, then the oldest lots.
+   */
+  @Test
+  public void testSpecificLot() {
+    TaxLots sold = lots.withMethod(LotMethod.SPECIFIC_ID).sell("AAPL", 12, 130, "2024-05-02");
+    assertEquals(12 * 130 - (10 * 110 + 2 * 100), sold.getRealizedGain(), 0.001);
+    assertEquals(2, sold.getLots("AAPL").size());
+    assertEquals(8, sold.getLots("AAPL").get(0).getShares(), 0.001);
+  }
+
+  /**
+   * Tests that selling every share removes the stock and its cost basis.
+   */
+  @Test
+  public void testSellAll() {
+    TaxLots sold = lots.sell("AAPL", 30, 100);
+    assertEquals(0, sold.getLots().size());
+    assertEquals(0, sold.getCostBasis(), 0.001);
+    assertEquals(3000 - 3300, sold.getRealizedGain(), 0.001);
+  }
+
+  /**
+   * Tests that a lot without a price is priced at the closing price on its date only when its
+   * cost basis or a gain is asked for.
+   */
+  @Test
+  public void testUnpricedLot() {
+    TaxLots unpriced = new TaxLots().buy("GOOG", 10, "2024-05-01", Double.NaN);
+    assertFalse(unpriced.getLots("GOOG").get(0).isPriced());
+    TaxLots sold = unpriced.sell("GOOG", 4, 200);
+    assertFalse(sold.getLots("GOOG").get(0).isPriced());
+
+    double close = new Lot("GOOG", 1, "2024-05-01", Double.NaN).getPrice();
+    assertEquals(6 * close, sold.getCostBasis("GOOG"), 0.001);
+    assertEquals(6 * close, sold.getCostBasis(), 0.001);
+    assertEquals(4 * 200 - 4 * close, sold.getRealizedGain(), 0.001);
+  }
+
+  /**
+   * Tests that selling from a lot that doesn't exist throws.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingLot() {
+    lots.sell("AAPL", 1, 130, "2024-04-30");
+  }
+
+  /**
+   * Tests that selling more shares than the lots hold throws.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testSellTooMany() {
+    lots.sell("AAPL", 31, 130);
+  }
+}
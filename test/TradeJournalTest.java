@@ -0,0 +1,178 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import stockmarket.Portfolio;
+import stockmarket.StockModel;
+import stockmarket.TradeJournal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that trades recorded in the trade journal are recovered after a restart, and that
+ * compaction and torn records don't lose or repeat trades.
+ */
+public class TradeJournalTest {
+  Path directory;
+  TradeJournal journal;
+  StockModel model;
+
+  /**
+   * Sets up a journaled model with some trades in a new directory.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal");
+    journal = new TradeJournal(directory.toString());
+    model = new StockModel(journal);
+    model.createPortfolio("Journaled");
+    model.updateStockInPortfolio("Journaled", "GOOG", 10, "2024-05-01", true);
+    model.updateStockInPortfolio("Journaled", "AAPL", 5, "2024-05-02", true);
+    model.updateStockInPortfolio("Journaled", "GOOG", 4, "2024-05-03", false);
+  }
+
+  /**
+   * Deletes the journal directory.
+   */
+  @After
+  public void tearDown() throws IOException {
+    journal.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Tests that a restarted model recovers the trades from the journal.
+   */
+  @Test
+  public void testRecover() {
+    Map<String, Double> composition = restart().getPortfolioComposition("Journaled",
+            "2024-05-03");
+    assertEquals(6, composition.get("GOOG"), 0.001);
+    assertEquals(5, composition.get("AAPL"), 0.001);
+  }
+
+  /**
+   * Tests that a rebalance is journaled as the trades it made.
+   */
+  @Test
+  public void testRebalance() {
+    model.rebalancePortfolio("Journaled", List.of(50, 50), "2024-05-03");
+    Map<String, Double> expected = model.getPortfolioComposition("Journaled", "2024-05-03");
+    Map<String, Double> recovered = restart().getPortfolioComposition("Journaled",
+            "2024-05-03");
+    assertEquals(expected.get("GOOG"), recovered.get("GOOG"), 0.0001);
+    assertEquals(expected.get("AAPL"), recovered.get("AAPL"), 0.0001);
+  }
+
+  /**
+   * Tests that compacting folds the journal into the snapshot.
+   */
+  @Test
+  public void testCompact() throws IOException {
+    journal.compact("Journaled");
+    assertEquals(0, Files.size(directory.resolve("Journaled.journal")));
+    model.updateStockInPortfolio("Journaled", "AAPL", 1, "2024-05-03", true);
+    Map<String, Double> composition = restart().getPortfolioComposition("Journaled",
+            "2024-05-03");
+    assertEquals(6, composition.get("GOOG"), 0.001);
+    assertEquals(6, composition.get("AAPL"), 0.001);
+  }
+
+  /**
+   * Tests that the snapshot keeps every trade, so the holdings on past dates are the same after
+   * recovering.
+   */
+  @Test
+  public void testHistoryRecovered() {
+    journal.compact("Journaled");
+    StockModel restarted = restart();
+    Map<String, Double> composition = restarted.getPortfolioComposition("Journaled",
+            "2024-05-01");
+    assertEquals(10, composition.get("GOOG"), 0.001);
+    assertNull(composition.get("AAPL"));
+    assertEquals(model.findPortfolio("Journaled").getTrades(),
+            restarted.findPortfolio("Journaled").getTrades());
+  }
+
+  /**
+   * Tests that records a snapshot already covers aren't replayed again, as after a crash
+   * between writing the snapshot and cutting the journal.
+   */
+  @Test
+  public void testCoveredRecordsSkipped() throws IOException {
+    journal.flush();
+    Path journalFile = directory.resolve("Journaled.journal");
+    byte[] records = Files.readAllBytes(journalFile);
+    journal.compact("Journaled");
+    Files.write(journalFile, records);
+    assertEquals(6, restart().getPortfolioComposition("Journaled", "2024-05-03").get("GOOG"),
+            0.001);
+  }
+
+  /**
+   * Tests that forgetting a portfolio leaves the journal of a different portfolio that has taken
+   * its name, as when a portfolio is loaded again while an older one is being saved.
+   */
+  @Test
+  public void testForgetOtherPortfolio() {
+    journal.forget(new Portfolio("Journaled"));
+    assertEquals(6, restart().getPortfolioComposition("Journaled", "2024-05-03").get("GOOG"),
+            0.001);
+  }
+
+  /**
+   * Tests that a journal missing a record after its snapshot isn't replayed around the gap.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingRecord() throws IOException {
+    journal.compact("Journaled");
+    model.updateStockInPortfolio("Journaled", "AAPL", 1, "2024-05-03", true);
+    model.updateStockInPortfolio("Journaled", "AAPL", 2, "2024-05-03", true);
+    journal.flush();
+    Path journalFile = directory.resolve("Journaled.journal");
+    byte[] records = Files.readAllBytes(journalFile);
+    int first = 8 + ByteBuffer.wrap(records).getInt();
+    Files.write(journalFile, Arrays.copyOfRange(records, first, records.length));
+    restart();
+  }
+
+  /**
+   * Tests that a record torn by a crash is dropped and cut off the journal.
+   */
+  @Test
+  public void testTornRecord() throws IOException {
+    journal.flush();
+    Path journalFile = directory.resolve("Journaled.journal");
+    long size = Files.size(journalFile);
+    Files.write(journalFile, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+    assertEquals(5, restart().getPortfolioComposition("Journaled", "2024-05-03").get("AAPL"),
+            0.001);
+    assertEquals(size, Files.size(journalFile));
+  }
+
+  //closes the journal and starts a new model from its files
+  private StockModel restart() {
+    journal.close();
+    journal = new TradeJournal(directory.toString());
+    StockModel restarted = new StockModel(journal);
+    Portfolio portfolio = restarted.findPortfolio("Journaled");
+    assertEquals("Journaled", portfolio.getName());
+    return restarted;
+  }
+}
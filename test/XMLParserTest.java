@@ -1,10 +1,22 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import data.AlphaVantage;
+import stockmarket.LotMethod;
 import stockmarket.Portfolio;
+import stockmarket.RecurringPlan;
 import stockmarket.XMLParser;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 /**
@@ -39,6 +51,24 @@ public class XMLParserTest {
     }
   }
 
+  /**
+   * Tests that a portfolio written to a stream reads back the same and is written in the format
+   * of the saved portfolio files.
+   */
+  @Test
+  public void testStreamRoundTrip() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLParser.write(portfolio, out);
+    String xml = out.toString(StandardCharsets.UTF_8);
+    assertEquals(true, xml.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" "
+            + "standalone=\"no\"?>\n<portfolio>\n    <name>Testing</name>\n"));
+    assertEquals(true, xml.contains("\n        <stock>\n            <ticker>AMZN</ticker>\n"));
+
+    Portfolio parsedPortfolio = XMLParser.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(portfolio.getName(), parsedPortfolio.getName());
+    assertEquals(portfolio.getStocks(), parsedPortfolio.getStocks());
+  }
+
   /**
    * Test that parsing empty portfolio can effectively convert to and from XML.
    */
@@ -52,4 +82,61 @@ public class XMLParserTest {
     assertEquals(0, parsedPortfolio.getStocks().size());
     assertEquals(emptyPortfolio.getStocks().size(), parsedPortfolio.getStocks().size());
   }
+
+  /**
+   * Tests that recurring plans are saved and loaded with the portfolio.
+   */
+  @Test
+  public void testRecurringPlans() {
+    portfolio.addRecurringPlan(new RecurringPlan("Monthly", 300, Map.of("GOOG", 100), 30,
+            "2013-09-03", "2013-12-31"));
+    XMLParser.toXML(portfolio, "Plans");
+    try {
+      Portfolio parsedPortfolio = XMLParser.fromXML("Plans");
+      List<RecurringPlan> plans = parsedPortfolio.getRecurringPlans();
+      assertEquals(1, plans.size());
+      assertEquals("Monthly", plans.get(0).getName());
+      assertEquals(300, plans.get(0).getAmount(), 0.001);
+      assertEquals(Map.of("GOOG", 100), plans.get(0).getWeights());
+      assertEquals(30, plans.get(0).getIntervalDays());
+      assertEquals(portfolio.getRecurringPlans().get(0).getNextDate(),
+              plans.get(0).getNextDate());
+    } finally {
+      new File("src/portfolio/Plans.xml").delete();
+    }
+  }
+
+  /**
+   * Tests that the tax lots, realized gain and lot method are saved and loaded with the
+   * portfolio, rather than each stock becoming one lot.
+   */
+  @Test
+  public void testTaxLots() throws IOException {
+    portfolio.updateStock("GOOG", 2, "2013-09-03", true);
+    portfolio.setLotMethod(LotMethod.LIFO);
+    portfolio.updateStock("GOOG", 4, "2013-09-04", false);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XMLParser.write(portfolio, out);
+    Portfolio parsedPortfolio = XMLParser.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(portfolio.getTaxLots().getLots(), parsedPortfolio.getTaxLots().getLots());
+    assertEquals(LotMethod.LIFO, parsedPortfolio.getTaxLots().getMethod());
+    assertEquals(portfolio.getTaxLots().getRealizedGain(),
+            parsedPortfolio.getTaxLots().getRealizedGain(), 0.001);
+  }
+
+  /**
+   * Tests that a portfolio saved without its lots loads without looking up any price, even for a
+   * stock without price data on a day the market was closed.
+   */
+  @Test
+  public void testLoadWithoutPrices() throws IOException {
+    String xml = "<portfolio><name>Old</name><stocks><stock><ticker>ZZZZ</ticker>"
+            + "<shares>5.0</shares><dateAdded>2024-05-04</dateAdded></stock></stocks>"
+            + "</portfolio>";
+    Portfolio parsedPortfolio = XMLParser.read(new ByteArrayInputStream(
+            xml.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(5, parsedPortfolio.getTaxLots().getLots("ZZZZ").get(0).getShares(), 0.001);
+    assertFalse(parsedPortfolio.getTaxLots().getLots("ZZZZ").get(0).isPriced());
+    assertFalse(AlphaVantage.STOCK_PRICE_HISTORY.containsKey("ZZZZ"));
+  }
 }